@@ -18,6 +18,7 @@ package org.hawkular.accounts.backend.boundary;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.UUID;
 import java.util.stream.Collectors;
 
 import javax.annotation.security.PermitAll;
@@ -38,6 +39,7 @@ import javax.ws.rs.core.Response;
 
 import org.hawkular.accounts.api.CurrentUser;
 import org.hawkular.accounts.api.NamedOperation;
+import org.hawkular.accounts.api.OrganizationDeletionService;
 import org.hawkular.accounts.api.OrganizationJoinRequestService;
 import org.hawkular.accounts.api.OrganizationService;
 import org.hawkular.accounts.api.PermissionChecker;
@@ -46,10 +48,12 @@ import org.hawkular.accounts.api.ResourceService;
 import org.hawkular.accounts.api.model.HawkularUser;
 import org.hawkular.accounts.api.model.Operation;
 import org.hawkular.accounts.api.model.Organization;
+import org.hawkular.accounts.api.model.OrganizationDeletion;
 import org.hawkular.accounts.api.model.Persona;
 import org.hawkular.accounts.api.model.Resource;
 import org.hawkular.accounts.api.model.Visibility;
 import org.hawkular.accounts.backend.control.MsgLogger;
+import org.hawkular.accounts.backend.control.OrganizationDeletionJobs;
 import org.hawkular.accounts.backend.entity.rest.ErrorResponse;
 import org.hawkular.accounts.backend.entity.rest.OrganizationRequest;
 import org.hawkular.accounts.backend.entity.rest.OrganizationTransferRequest;
@@ -108,6 +112,12 @@ public class OrganizationEndpoint {
     @Inject
     OrganizationJoinRequestService joinRequestService;
 
+    @Inject
+    OrganizationDeletionJobs organizationDeletionJobs;
+
+    @Inject
+    OrganizationDeletionService organizationDeletionService;
+
     /**
      * Retrieves all organizations to which this {@link org.hawkular.accounts.api.model.HawkularUser} has access to.
      *
@@ -214,11 +224,13 @@ public class OrganizationEndpoint {
     }
 
     /**
-     * Removes an existing {@link org.hawkular.accounts.api.model.Organization} if the persona has permissions to do so.
+     * Starts removing an existing {@link org.hawkular.accounts.api.model.Organization} in background, if the persona
+     * has permissions to do so. The organization stops being listed right away.
      *
      * @param id the ID of the {@link org.hawkular.accounts.api.model.Organization} to be removed.
-     * @return an empty {@link javax.ws.rs.core.Response} if successful or forbidden, if the persona has no access to
-     * the organization.
+     * @return an accepted {@link javax.ws.rs.core.Response} whose entity is the {@link OrganizationDeletion}, whose
+     * progress can be followed via {@link #getDeletion(String)}, or forbidden, if the persona has no access to the
+     * organization.
      */
     @DELETE
     @Path("/{id}")
@@ -247,14 +259,41 @@ public class OrganizationEndpoint {
         // check if it's allowed to remove
         if (permissionChecker.isAllowedTo(operationDelete, id, personaInstance.get())) {
             logger.organizationRemoved(organization.getId());
-            organizationService.deleteOrganization(organization);
-            return Response.ok().build();
+            OrganizationDeletion deletion = organizationDeletionJobs.submit(organization, personaInstance.get());
+            return Response.accepted().entity(deletion).build();
         }
 
         logger.notAllowedToPerformOperationOnResource(operationDelete.getName(), id, personaInstance.get().getId());
         return Response.status(Response.Status.FORBIDDEN).build();
     }
 
+    /**
+     * Retrieves the progress of the removal of an organization. Only the persona who requested the removal can see
+     * it.
+     *
+     * @param id the ID of the {@link OrganizationDeletion}, as returned when the removal was requested
+     * @return a {@link javax.ws.rs.core.Response} whose entity is the {@link OrganizationDeletion}
+     */
+    @GET
+    @Path("/deletions/{id}")
+    public Response getDeletion(@NotNull @PathParam("id") String id) {
+        Persona persona = personaInstance.get();
+        OrganizationDeletion deletion;
+        try {
+            deletion = organizationDeletionService.getById(UUID.fromString(id));
+        } catch (IllegalArgumentException e) {
+            deletion = null;
+        }
+
+        if (null == deletion || !deletion.getRequestedBy().equals(persona.getIdAsUUID())) {
+            logger.organizationDeletionNotFound(id, persona.getId());
+            String message = "The specified organization removal is invalid (not found).";
+            return Response.status(Response.Status.NOT_FOUND).entity(new ErrorResponse(message)).build();
+        }
+
+        return Response.ok().entity(deletion).build();
+    }
+
     /**
      * Retrieves a specific organization based on its ID.
      *
@@ -320,6 +359,13 @@ public class OrganizationEndpoint {
             return Response.status(Response.Status.FORBIDDEN).entity(new ErrorResponse(message)).build();
         }
 
+        if (organization.getIdAsUUID().equals(newOwner.getIdAsUUID())
+                || organizationService.isSubOrganization(newOwner, organization)) {
+            logger.organizationTransferToSubOrganization(organization.getId(), newOwner.getId());
+            String message = "An organization cannot be transferred to itself or to one of its sub-organizations.";
+            return Response.status(Response.Status.BAD_REQUEST).entity(new ErrorResponse(message)).build();
+        }
+
         organizationService.transfer(organization, newOwner);
         logger.organizationTransferred(organization.getId(), newOwner.getId());
         return Response.ok().entity(organization).build();
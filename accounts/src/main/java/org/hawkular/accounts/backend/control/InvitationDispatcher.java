@@ -18,36 +18,52 @@ package org.hawkular.accounts.backend.control;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
-import javax.annotation.security.PermitAll;
-import javax.ejb.Singleton;
+import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.event.Observes;
 import javax.inject.Inject;
 import javax.mail.internet.InternetAddress;
 
 import org.hawkular.accounts.api.InvitationService;
+import org.hawkular.accounts.api.OutboxService;
 import org.hawkular.accounts.api.model.Invitation;
+import org.hawkular.accounts.api.model.OutboxEntry;
 import org.hawkular.accounts.backend.entity.InvitationCreatedEvent;
-import org.hawkular.commons.email.EmailDispatcher;
 
 /**
+ * Sends the invitation emails. Emails are sent in background by the {@link MailQueue}, and the invitation is marked
+ * as dispatched once its email has been sent.
+ * <p>
+ * Before sending, the mail worker claims the invitation's entry on the notification outbox for
+ * {@code org.hawkular.accounts.outbox.lease} milliseconds, and the entry is completed once the email is sent. If the
+ * email can't be sent, or if this server dies in the meantime, the {@link NotificationOutboxDrainer} picks up the
+ * entry once the claim expires.
+ *
  * @author Juraci Paixão Kröhling
  */
-@PermitAll
-@Singleton
+@ApplicationScoped
 public class InvitationDispatcher {
     public static final String HAWKULAR_BASE_URL = "HAWKULAR_BASE_URL";
     public static final String DEFAULT_HAWKULAR_BASE_URL = System.getenv(HAWKULAR_BASE_URL) == null ?
             "http://localhost:8080/" : System.getenv(HAWKULAR_BASE_URL);
 
+    private static final String LEASE = "org.hawkular.accounts.outbox.lease";
+
     MsgLogger logger = MsgLogger.LOGGER;
 
+    private final long lease = Long.parseLong(System.getProperty(LEASE, "300000"));
+
     @Inject
-    EmailDispatcher emailDispatcher;
+    MailQueue mailQueue;
 
     @Inject
     InvitationService invitationService;
 
+    @Inject
+    OutboxService outboxService;
+
     public void dispatchInvitation(@Observes InvitationCreatedEvent event) {
         Invitation invitation = event.getInvitation();
         if (null == invitation) {
@@ -58,8 +74,33 @@ public class InvitationDispatcher {
             return;
         }
 
-        invitation = invitationService.get(invitation.getId());
+        if (null == invitation.getInvitedBy() || null == invitation.getOrganization()) {
+            // the invitation from the event is usually the one that was just created, with everything we need
+            invitation = invitationService.get(invitation.getId());
+        }
+
+        // the entry is claimed by the mail worker, so that the request creating the invitation doesn't wait for it
+        Invitation toClaim = invitation;
+        send(invitation, () -> {
+            OutboxEntry outboxEntry = outboxService.claim(toClaim.getIdAsUUID(), lease);
+            if (null == outboxEntry) {
+                // either it has been sent already or someone else is sending it right now
+                logger.outboxEntryNotClaimed(toClaim.getId());
+            }
+            return outboxEntry;
+        });
+    }
+
+    /**
+     * Sends the email for the given invitation, completing its outbox entry once the email has been sent.
+     * @param invitation     the invitation to send
+     * @param outboxEntry    the outbox entry for the invitation, already claimed by the caller
+     */
+    public void send(Invitation invitation, OutboxEntry outboxEntry) {
+        send(invitation, () -> outboxEntry);
+    }
 
+    private void send(Invitation invitation, Supplier<OutboxEntry> claim) {
         Map<String, Object> properties = new HashMap<>(3);
         properties.put("acceptUrl",
                 DEFAULT_HAWKULAR_BASE_URL
@@ -69,22 +110,32 @@ public class InvitationDispatcher {
         properties.put("invitedBy", invitation.getInvitedBy().getName());
         properties.put("orgName", invitation.getOrganization().getName());
 
-        boolean sent;
+        AtomicReference<OutboxEntry> claimed = new AtomicReference<>();
         try {
-            sent = emailDispatcher.dispatch(new InternetAddress(invitation.getEmail()),
+            mailQueue.submit(new MailQueue.Mail(new InternetAddress(invitation.getEmail()),
                     "[hawkular] - You have been invited to join an organization.",
                     "invitation_plain.ftl",
                     "invitation_html.ftl",
-                    properties);
+                    properties)
+                    .onlyIf(() -> {
+                        claimed.set(claim.get());
+                        return null != claimed.get();
+                    })
+                    .whenSent(() -> {
+                        invitationService.markAsDispatched(invitation);
+                        outboxService.complete(claimed.get());
+                        logger.invitationSubmitted(invitation.getId(), invitation.getToken());
+                    })
+                    .whenFailed(e -> logger.invitationExceptionSendingMessage(invitation.getId(), e.getMessage())));
         } catch (Exception e) {
             logger.invitationExceptionSendingMessage(invitation.getId(), e.getMessage());
-            return;
-        }
-
-        if (sent) {
-            invitationService.markAsDispatched(invitation);
-            logger.invitationSubmitted(invitation.getId(), invitation.getToken());
         }
     }
 
+    /**
+     * @return for how long, in milliseconds, the outbox entries are claimed before sending the invitations
+     */
+    public long getLease() {
+        return lease;
+    }
 }
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2015-2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.accounts.backend.control;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.mail.internet.InternetAddress;
+
+import org.hawkular.commons.email.EmailDispatcher;
+
+/**
+ * Batches the notifications about pending join requests to the owners of the organizations, so that an owner gets a
+ * single email per organization every {@code org.hawkular.accounts.join-request.digest-interval} milliseconds,
+ * listing all the requests made in the meantime, instead of one email per request. The digest is disabled by default
+ * (interval of 0), in which case owners are notified right away.
+ * <p>
+ * The digests are sent in background by the {@link MailQueue}, except for the last ones, when the application is
+ * stopping: as the mail queue might be stopping as well, those are sent right away, on the caller's thread.
+ *
+ * @author Juraci Paixão Kröhling
+ */
+@ApplicationScoped
+public class JoinRequestDigest {
+    private static final String INTERVAL = "org.hawkular.accounts.join-request.digest-interval";
+    private static final String PLAIN_TEMPLATE = "join_request_digest_to_admin_plain.ftl";
+    private static final String HTML_TEMPLATE = "join_request_digest_to_admin_html.ftl";
+
+    MsgLogger logger = MsgLogger.LOGGER;
+
+    private final long interval = Long.parseLong(System.getProperty(INTERVAL, "0"));
+
+    /**
+     * The pending digests, keyed by the organization ID.
+     */
+    private final Map<String, Digest> digests = new ConcurrentHashMap<>();
+
+    @Inject
+    MailQueue mailQueue;
+
+    @Inject
+    EmailDispatcher emailDispatcher;
+
+    @Resource
+    private ManagedScheduledExecutorService scheduler;
+
+    private ScheduledFuture<?> flushTask;
+
+    @PostConstruct
+    public void init() {
+        if (isEnabled()) {
+            flushTask = scheduler.scheduleWithFixedDelay(() -> flush(false), interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (null != flushTask) {
+            flushTask.cancel(false);
+            flush(true);
+        }
+    }
+
+    public boolean isEnabled() {
+        return interval > 0;
+    }
+
+    /**
+     * Adds the join request to the next digest for the organization.
+     * @param organizationId        the organization's ID
+     * @param ownersEmail           the email of the organization's owner
+     * @param orgName               the organization's name
+     * @param pendingRequestsUrl    the URL where the owner can see the pending requests
+     * @param requestor             the name of the user who applied to join the organization
+     */
+    public void add(String organizationId, String ownersEmail, String orgName, String pendingRequestsUrl,
+                    String requestor) {
+        digests.compute(organizationId, (id, digest) -> {
+            if (null == digest) {
+                digest = new Digest(ownersEmail, orgName, pendingRequestsUrl);
+            }
+            digest.requestors.add(requestor);
+            return digest;
+        });
+    }
+
+    /**
+     * @return the number of organizations with join requests waiting to be notified
+     */
+    public int getPendingDigests() {
+        return digests.size();
+    }
+
+    private void flush(boolean now) {
+        for (String organizationId : digests.keySet()) {
+            Digest digest = digests.remove(organizationId);
+            if (null == digest) {
+                continue;
+            }
+
+            Map<String, Object> properties = new HashMap<>(4);
+            properties.put("orgName", digest.orgName);
+            properties.put("pendingRequestsUrl", digest.pendingRequestsUrl);
+            properties.put("requestors", digest.requestors);
+            properties.put("count", digest.requestors.size());
+
+            String subject = "[hawkular] - " + digest.requestors.size() + " join requests for " + digest.orgName;
+            try {
+                InternetAddress to = new InternetAddress(digest.ownersEmail);
+                if (now) {
+                    emailDispatcher.dispatch(to, subject, PLAIN_TEMPLATE, HTML_TEMPLATE, properties);
+                } else {
+                    mailQueue.submit(new MailQueue.Mail(to, subject, PLAIN_TEMPLATE, HTML_TEMPLATE, properties)
+                            .whenFailed(e -> logger.joinRequestFailToSendDigest(organizationId, e)));
+                }
+            } catch (Exception e) {
+                logger.joinRequestFailToSendDigest(organizationId, e);
+            }
+        }
+    }
+
+    /**
+     * Changed only while holding the lock for its entry on the map of digests.
+     */
+    private static class Digest {
+        private final String ownersEmail;
+        private final String orgName;
+        private final String pendingRequestsUrl;
+        private final List<String> requestors = new ArrayList<>();
+
+        Digest(String ownersEmail, String orgName, String pendingRequestsUrl) {
+            this.ownersEmail = ownersEmail;
+            this.orgName = orgName;
+            this.pendingRequestsUrl = pendingRequestsUrl;
+        }
+    }
+}
@@ -19,28 +19,25 @@ package org.hawkular.accounts.backend.control;
 import java.util.HashMap;
 import java.util.Map;
 
-import javax.annotation.security.PermitAll;
-import javax.ejb.Singleton;
+import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.event.Observes;
 import javax.inject.Inject;
 import javax.mail.internet.InternetAddress;
 
-import org.hawkular.accounts.api.InvitationService;
 import org.hawkular.accounts.api.model.HawkularUser;
 import org.hawkular.accounts.api.model.Organization;
 import org.hawkular.accounts.api.model.OrganizationJoinRequest;
 import org.hawkular.accounts.backend.entity.OrganizationJoinRequestEvent;
-import org.hawkular.commons.email.EmailDispatcher;
 
 /**
  * Dispatches email notifications to the involved parties on a Join Request. When a new join request is made, the owner
  * of the organization is notified, as well as the user who applied for it. Once a decision is made (accept/reject),
- * the user who applied for it is also notified.
+ * the user who applied for it is also notified. Emails are sent in background by the {@link MailQueue}. If the
+ * {@link JoinRequestDigest} is enabled, the owner is notified about the pending requests periodically, instead.
  *
  * @author Juraci Paixão Kröhling
  */
-@PermitAll
-@Singleton
+@ApplicationScoped
 public class JoinRequestNotificationDispatcher {
     public static final String HAWKULAR_BASE_URL = "HAWKULAR_BASE_URL";
     public static final String DEFAULT_HAWKULAR_BASE_URL = System.getenv(HAWKULAR_BASE_URL) == null ?
@@ -49,10 +46,10 @@ public class JoinRequestNotificationDispatcher {
     MsgLogger logger = MsgLogger.LOGGER;
 
     @Inject
-    EmailDispatcher emailDispatcher;
+    MailQueue mailQueue;
 
     @Inject
-    InvitationService invitationService;
+    JoinRequestDigest joinRequestDigest;
 
     public void dispatchNotification(@Observes OrganizationJoinRequestEvent event) {
         OrganizationJoinRequest request = event.getRequest();
@@ -93,12 +90,12 @@ public class JoinRequestNotificationDispatcher {
         }
 
         try {
-            emailDispatcher.dispatch(new InternetAddress(email),
+            mailQueue.submit(new MailQueue.Mail(new InternetAddress(email),
                     "[hawkular] - You have been accepted to join " + request.getOrganization().getName(),
                     "join_request_approved_plain.ftl",
                     "join_request_approved_html.ftl",
-                    properties);
-
+                    properties)
+                    .whenFailed(e -> logger.joinRequestFailToSendAcceptedNotification(request.getId(), e)));
         } catch (Exception e) {
             logger.joinRequestFailToSendAcceptedNotification(request.getId(), e);
         }
@@ -118,12 +115,12 @@ public class JoinRequestNotificationDispatcher {
         }
 
         try {
-            emailDispatcher.dispatch(new InternetAddress(email),
+            mailQueue.submit(new MailQueue.Mail(new InternetAddress(email),
                     "[hawkular] - Join request declined",
                     "join_request_rejected_plain.ftl",
                     "join_request_rejected_html.ftl",
-                    properties);
-
+                    properties)
+                    .whenFailed(e -> logger.joinRequestFailToSendRejectedNotification(request.getId(), e)));
         } catch (Exception e) {
             logger.joinRequestFailToSendRejectedNotification(request.getId(), e);
         }
@@ -143,22 +140,31 @@ public class JoinRequestNotificationDispatcher {
         try {
             if (null == ownersEmail || ownersEmail.isEmpty()) {
                 logger.joinRequestOwnersEmailIsEmpty();
+            } else if (joinRequestDigest.isEnabled()) {
+                joinRequestDigest.add(
+                        request.getOrganization().getId(),
+                        ownersEmail,
+                        request.getOrganization().getName(),
+                        (String) properties.get("pendingRequestsUrl"),
+                        request.getPersona().getName());
             } else {
-                emailDispatcher.dispatch(new InternetAddress(ownersEmail),
+                mailQueue.submit(new MailQueue.Mail(new InternetAddress(ownersEmail),
                         "[hawkular] - Join request for " + request.getOrganization().getName(),
                         "join_request_to_admin_plain.ftl",
                         "join_request_to_admin_html.ftl",
-                        properties);
+                        properties)
+                        .whenFailed(e -> logger.joinRequestFailToSendNotification(request.getId(), e)));
             }
 
             if (null == email || email.isEmpty()) {
                 logger.joinRequestUserEmailIsEmpty();
             } else {
-                emailDispatcher.dispatch(new InternetAddress(email),
+                mailQueue.submit(new MailQueue.Mail(new InternetAddress(email),
                         "[hawkular] - Join request for " + request.getOrganization().getName(),
                         "join_request_to_requestor_plain.ftl",
                         "join_request_to_requestor_html.ftl",
-                        properties);
+                        properties)
+                        .whenFailed(e -> logger.joinRequestFailToSendNotification(request.getId(), e)));
             }
 
         } catch (Exception e) {
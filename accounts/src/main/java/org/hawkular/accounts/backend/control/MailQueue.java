@@ -0,0 +1,311 @@
+/*
+ * Copyright 2015-2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.accounts.backend.control;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.mail.internet.InternetAddress;
+
+import org.hawkular.commons.email.EmailDispatcher;
+
+/**
+ * Sends emails in background, so that the requests that cause emails to be sent don't wait for the mail server.
+ * <p>
+ * Emails are placed on a bounded queue of {@code org.hawkular.accounts.mail.queue-size} (1000) emails, drained by up
+ * to {@code org.hawkular.accounts.mail.workers} (2) tasks on the container's managed executor. Workers are started
+ * when emails are queued and finish once the queue is empty, so, no thread is held while there's nothing to send.
+ * As the number of workers is small, so is the number of concurrent connections to the mail server.
+ * <p>
+ * Emails that fail to be sent are tried again up to {@code org.hawkular.accounts.mail.max-attempts} (3) times in
+ * total, waiting {@code org.hawkular.accounts.mail.initial-backoff} (1 second) before the first retry, doubling the
+ * wait for each subsequent retry. Emails that are not accepted by the {@link EmailDispatcher}, like when emails are
+ * disabled, are not retried.
+ * <p>
+ * The queue depth, the number of emails sent, failed and rejected, and the latency of the mail server are recorded,
+ * so that they can be exposed as metrics.
+ *
+ * @author Juraci Paixão Kröhling
+ */
+@ApplicationScoped
+public class MailQueue {
+    private static final String QUEUE_SIZE = "org.hawkular.accounts.mail.queue-size";
+    private static final String WORKERS = "org.hawkular.accounts.mail.workers";
+    private static final String MAX_ATTEMPTS = "org.hawkular.accounts.mail.max-attempts";
+    private static final String INITIAL_BACKOFF = "org.hawkular.accounts.mail.initial-backoff";
+
+    MsgLogger logger = MsgLogger.LOGGER;
+
+    private final int workers = Integer.parseInt(System.getProperty(WORKERS, "2"));
+    private final int maxAttempts = Integer.parseInt(System.getProperty(MAX_ATTEMPTS, "3"));
+    private final long initialBackoff = Long.parseLong(System.getProperty(INITIAL_BACKOFF, "1000"));
+    private final BlockingQueue<Mail> queue = new ArrayBlockingQueue<>(
+            Integer.parseInt(System.getProperty(QUEUE_SIZE, "1000")));
+
+    private final AtomicInteger activeWorkers = new AtomicInteger();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+    private final LongAdder sendLatencyTotal = new LongAdder();
+    private final LongAdder sendAttempts = new LongAdder();
+    private final AtomicLong maxSendLatency = new AtomicLong();
+
+    @Inject
+    EmailDispatcher emailDispatcher;
+
+    @Resource
+    private ManagedExecutorService executor;
+
+    @Resource
+    private ManagedScheduledExecutorService scheduler;
+
+    /**
+     * Queues the email to be sent in background.
+     * @param mail    the email
+     * @return false if the queue is full, in which case the email is discarded
+     */
+    public boolean submit(Mail mail) {
+        if (!queue.offer(mail)) {
+            rejected.increment();
+            logger.mailQueueFull(mail.subject);
+            return false;
+        }
+
+        startWorkers();
+        return true;
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public int getActiveWorkers() {
+        return activeWorkers.get();
+    }
+
+    public long getSent() {
+        return sent.sum();
+    }
+
+    /**
+     * @return the number of emails that could not be sent after all the attempts
+     */
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * @return the number of emails discarded because the queue was full
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public long getRetried() {
+        return retried.sum();
+    }
+
+    /**
+     * @return the average time spent on each attempt to send an email, in milliseconds
+     */
+    public long getAverageSendLatency() {
+        long attempts = sendAttempts.sum();
+        return attempts == 0 ? 0 : sendLatencyTotal.sum() / attempts;
+    }
+
+    /**
+     * @return the longest time spent on an attempt to send an email, in milliseconds
+     */
+    public long getMaxSendLatency() {
+        return maxSendLatency.get();
+    }
+
+    private void startWorkers() {
+        while (!queue.isEmpty()) {
+            int active = activeWorkers.get();
+            if (active >= workers) {
+                return;
+            }
+
+            if (activeWorkers.compareAndSet(active, active + 1)) {
+                try {
+                    executor.execute(this::work);
+                } catch (RejectedExecutionException e) {
+                    activeWorkers.decrementAndGet();
+                    logger.mailWorkerRejected(e);
+                    return;
+                }
+            }
+        }
+    }
+
+    private void work() {
+        try {
+            for (Mail mail; (mail = queue.poll()) != null;) {
+                send(mail);
+            }
+        } finally {
+            activeWorkers.decrementAndGet();
+
+            // an email might have been queued after our last poll, but before we were counted out
+            startWorkers();
+        }
+    }
+
+    private void send(Mail mail) {
+        if (null != mail.precondition) {
+            try {
+                if (!mail.precondition.getAsBoolean()) {
+                    return;
+                }
+            } catch (Exception e) {
+                fail(mail, e);
+                return;
+            }
+            // checked only once: retries are for the same email
+            mail.precondition = null;
+        }
+
+        mail.attempts++;
+        long start = System.currentTimeMillis();
+        boolean dispatched;
+        try {
+            dispatched = emailDispatcher.dispatch(mail.to, mail.subject, mail.plainTemplate, mail.htmlTemplate,
+                    mail.properties);
+        } catch (Exception e) {
+            recordLatency(start);
+            retryOrFail(mail, e);
+            return;
+        }
+        recordLatency(start);
+
+        if (dispatched) {
+            sent.increment();
+            if (null != mail.onSent) {
+                try {
+                    mail.onSent.run();
+                } catch (RuntimeException callbackException) {
+                    logger.mailCallbackFailed(mail.subject, callbackException);
+                }
+            }
+        }
+    }
+
+    private void retryOrFail(Mail mail, Exception e) {
+        if (mail.attempts >= maxAttempts) {
+            fail(mail, e);
+            return;
+        }
+
+        long backoff = initialBackoff << (mail.attempts - 1);
+        retried.increment();
+        logger.mailRetryScheduled(mail.subject, mail.attempts, backoff);
+        scheduler.schedule(() -> {
+            if (!submit(mail)) {
+                failed.increment();
+            }
+        }, backoff, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The callbacks run on the worker's thread: a failure on them should not stop the worker from sending the other
+     * emails.
+     */
+    private void fail(Mail mail, Exception e) {
+        failed.increment();
+        if (null != mail.onFailure) {
+            try {
+                mail.onFailure.accept(e);
+            } catch (RuntimeException callbackException) {
+                logger.mailCallbackFailed(mail.subject, callbackException);
+            }
+        }
+    }
+
+    private void recordLatency(long start) {
+        long latency = System.currentTimeMillis() - start;
+        sendAttempts.increment();
+        sendLatencyTotal.add(latency);
+        maxSendLatency.accumulateAndGet(latency, Math::max);
+    }
+
+    /**
+     * An email to be sent, with its templates and the properties for the templates.
+     */
+    public static class Mail {
+        private final InternetAddress to;
+        private final String subject;
+        private final String plainTemplate;
+        private final String htmlTemplate;
+        private final Map<String, Object> properties;
+        private BooleanSupplier precondition;
+        private Runnable onSent;
+        private Consumer<Exception> onFailure;
+        private int attempts = 0;
+
+        public Mail(InternetAddress to, String subject, String plainTemplate, String htmlTemplate,
+                    Map<String, Object> properties) {
+            this.to = to;
+            this.subject = subject;
+            this.plainTemplate = plainTemplate;
+            this.htmlTemplate = htmlTemplate;
+            this.properties = properties;
+        }
+
+        /**
+         * @param precondition    called on the worker's thread before the first attempt, the email is discarded if
+         *                        it returns false or fails
+         * @return this email
+         */
+        public Mail onlyIf(BooleanSupplier precondition) {
+            this.precondition = precondition;
+            return this;
+        }
+
+        /**
+         * @param onSent    called on the worker's thread once the email has been accepted by the mail server
+         * @return this email
+         */
+        public Mail whenSent(Runnable onSent) {
+            this.onSent = onSent;
+            return this;
+        }
+
+        /**
+         * @param onFailure    called on the worker's thread with the last failure, once all attempts have failed
+         * @return this email
+         */
+        public Mail whenFailed(Consumer<Exception> onFailure) {
+            this.onFailure = onFailure;
+            return this;
+        }
+    }
+}
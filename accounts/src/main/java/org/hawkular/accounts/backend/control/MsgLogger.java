@@ -164,7 +164,7 @@ public interface MsgLogger {
     void organizationHasResources(String id);
 
     @LogMessage(level = Logger.Level.TRACE)
-    @Message(id = 110034, value = "Organization [%s] has been removed.")
+    @Message(id = 110034, value = "Removal of organization [%s] has been requested.")
     void organizationRemoved(String id);
 
     @LogMessage(level = Logger.Level.TRACE)
@@ -315,4 +315,74 @@ public interface MsgLogger {
     @Message(id = 110070, value = "An invitation event was created without event.")
     void invitationEventWithoutInvitation();
 
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 110071, value = "The queue of emails to be sent is full. Discarding email [%s].")
+    void mailQueueFull(String subject);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 110072, value = "Could not start a worker for sending emails.")
+    void mailWorkerRejected(@Cause Throwable t);
+
+    @LogMessage(level = Logger.Level.DEBUG)
+    @Message(id = 110073, value = "Could not send email [%s] on attempt [%d]. Trying again in [%d] ms.")
+    void mailRetryScheduled(String subject, int attempt, long backoff);
+
+    @LogMessage(level = Logger.Level.ERROR)
+    @Message(id = 110074, value = "Failed to send the digest of join requests for the organization [%s].")
+    void joinRequestFailToSendDigest(String organizationId, @Cause Throwable t);
+
+    @LogMessage(level = Logger.Level.DEBUG)
+    @Message(id = 110075, value = "The outbox entry for [%s] has not been claimed, as it's being sent by someone " +
+            "else or has been sent already.")
+    void outboxEntryNotClaimed(String id);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 110076, value = "Failed to drain the notification outbox.")
+    void outboxDrainFailed(@Cause Throwable t);
+
+    @LogMessage(level = Logger.Level.ERROR)
+    @Message(id = 110077, value = "Giving up on the [%2$s] notification for [%1$s] after [%3$d] attempts.")
+    void outboxEntryAbandoned(String id, String kind, int attempts);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 110078, value = "The outbox entry for [%s] is of an unknown kind [%s]. Skipping.")
+    void outboxEntryUnknownKind(String id, String kind);
+
+    @LogMessage(level = Logger.Level.TRACE)
+    @Message(id = 110079, value = "Organization [%s] cannot be transferred to [%s], as it's the organization " +
+            "itself or one of its sub-organizations.")
+    void organizationTransferToSubOrganization(String organizationId, String newOwnerId);
+
+    @LogMessage(level = Logger.Level.INFO)
+    @Message(id = 110080, value = "Resuming [%d] unfinished removals of organizations.")
+    void organizationDeletionsResumed(int count);
+
+    @LogMessage(level = Logger.Level.ERROR)
+    @Message(id = 110081, value = "The removal [%s] has failed. It will be retried later.")
+    void organizationDeletionFailed(String deletionId, @Cause Throwable t);
+
+    @LogMessage(level = Logger.Level.DEBUG)
+    @Message(id = 110082, value = "Removal [%s] is on step [%s]. Items removed so far: [%d].")
+    void organizationDeletionProgress(String deletionId, String step, int removed);
+
+    @LogMessage(level = Logger.Level.INFO)
+    @Message(id = 110083, value = "Removal [%s] has finished. Organization [%s] has been removed.")
+    void organizationDeletionFinished(String deletionId, String organizationId);
+
+    @LogMessage(level = Logger.Level.TRACE)
+    @Message(id = 110084, value = "Removal [%s] not found or not requested by persona [%s].")
+    void organizationDeletionNotFound(String deletionId, String personaId);
+
+    @LogMessage(level = Logger.Level.ERROR)
+    @Message(id = 110085, value = "Could not store the failure of the removal [%s].")
+    void organizationDeletionFailureNotStored(String deletionId, @Cause Throwable t);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 110086, value = "Could not retry the stalled removals of organizations.")
+    void organizationDeletionsRetryFailed(@Cause Throwable t);
+
+    @LogMessage(level = Logger.Level.ERROR)
+    @Message(id = 110087, value = "The callback for the email [%s] has failed.")
+    void mailCallbackFailed(String subject, @Cause Throwable t);
+
 }
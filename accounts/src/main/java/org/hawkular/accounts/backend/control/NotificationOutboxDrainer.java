@@ -0,0 +1,142 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.accounts.backend.control;
+
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.hawkular.accounts.api.InvitationService;
+import org.hawkular.accounts.api.OutboxService;
+import org.hawkular.accounts.api.model.Invitation;
+import org.hawkular.accounts.api.model.OutboxEntry;
+
+/**
+ * Sends the notifications that are still on the outbox, either because the server that was about to send them died,
+ * or because they could not be sent on the first attempt. Every {@code org.hawkular.accounts.outbox.drain-interval}
+ * milliseconds, up to {@code org.hawkular.accounts.outbox.batch-size} entries are claimed and sent. An entry is given
+ * up after {@code org.hawkular.accounts.outbox.max-attempts} attempts.
+ *
+ * @author Juraci Paixão Kröhling
+ */
+@ApplicationScoped
+public class NotificationOutboxDrainer {
+    private static final String DRAIN_INTERVAL = "org.hawkular.accounts.outbox.drain-interval";
+    private static final String BATCH_SIZE = "org.hawkular.accounts.outbox.batch-size";
+    private static final String MAX_ATTEMPTS = "org.hawkular.accounts.outbox.max-attempts";
+
+    MsgLogger logger = MsgLogger.LOGGER;
+
+    private final long drainInterval = Long.parseLong(System.getProperty(DRAIN_INTERVAL, "60000"));
+    private final int batchSize = Integer.parseInt(System.getProperty(BATCH_SIZE, "50"));
+    private final int maxAttempts = Integer.parseInt(System.getProperty(MAX_ATTEMPTS, "10"));
+
+    private final LongAdder drained = new LongAdder();
+    private final LongAdder abandoned = new LongAdder();
+
+    @Inject
+    OutboxService outboxService;
+
+    @Inject
+    InvitationService invitationService;
+
+    @Inject
+    InvitationDispatcher invitationDispatcher;
+
+    @Resource
+    private ManagedScheduledExecutorService scheduler;
+
+    private ScheduledFuture<?> drainTask;
+
+    /**
+     * Starts draining the outbox periodically. Called once the application has started.
+     */
+    public synchronized void start() {
+        if (null == drainTask && drainInterval > 0) {
+            drainTask = scheduler.scheduleWithFixedDelay(this::drain,
+                    drainInterval,
+                    drainInterval,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public synchronized void destroy() {
+        if (null != drainTask) {
+            drainTask.cancel(false);
+            drainTask = null;
+        }
+    }
+
+    /**
+     * @return the number of outbox entries that have been picked up by the drainer
+     */
+    public long getDrained() {
+        return drained.sum();
+    }
+
+    /**
+     * @return the number of outbox entries that have been given up after too many attempts
+     */
+    public long getAbandoned() {
+        return abandoned.sum();
+    }
+
+    private void drain() {
+        try {
+            // entries younger than the interval are likely being sent by the server that created them
+            List<OutboxEntry> entries = outboxService.claimPending(batchSize,
+                    invitationDispatcher.getLease(),
+                    drainInterval);
+            entries.forEach(this::send);
+        } catch (Exception e) {
+            // we don't let the exception propagate, otherwise the scheduler would stop running this task
+            logger.outboxDrainFailed(e);
+        }
+    }
+
+    private void send(OutboxEntry entry) {
+        drained.increment();
+        if (entry.getAttempts() > maxAttempts) {
+            logger.outboxEntryAbandoned(entry.getId(), entry.getKind(), maxAttempts);
+            abandoned.increment();
+            outboxService.complete(entry);
+            return;
+        }
+
+        if (!OutboxEntry.KIND_INVITATION.equals(entry.getKind())) {
+            logger.outboxEntryUnknownKind(entry.getId(), entry.getKind());
+            return;
+        }
+
+        Invitation invitation = invitationService.getById(entry.getIdAsUUID());
+        if (null == invitation || null != invitation.getDispatchedAt()) {
+            // removed in the meantime, or sent, but the server died before completing the outbox entry
+            outboxService.complete(entry);
+            return;
+        }
+
+        invitationDispatcher.send(invitation, entry);
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.accounts.backend.control;
+
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+import javax.enterprise.concurrent.ManagedThreadFactory;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.hawkular.accounts.api.OrganizationDeletionService;
+import org.hawkular.accounts.api.model.Organization;
+import org.hawkular.accounts.api.model.OrganizationDeletion;
+import org.hawkular.accounts.api.model.Persona;
+
+/**
+ * Runs the removal of organizations in background, on the container's managed executor. For each step of the removal,
+ * batches of {@code org.hawkular.accounts.organization-deletion.batch-size} (100) items are read and removed in
+ * parallel, with at most {@code org.hawkular.accounts.organization-deletion.concurrency} (4) items being removed at
+ * the same time. The progress is stored after each batch.
+ * <p>
+ * The items are removed by a pool of its own, with as many threads as the concurrency. The removal waits for each
+ * batch to complete, and waiting on the managed executor for tasks queued on the managed executor itself would
+ * exhaust it once enough removals run at the same time, stalling everything else that uses it.
+ * <p>
+ * If the server stops in the middle of a removal, the removal is resumed from its current step when the application
+ * starts again. If a removal fails, the failure is stored on the removal, so that it's reported to the persona who
+ * requested it. Every {@code org.hawkular.accounts.organization-deletion.retry-interval} milliseconds (1 minute),
+ * the unfinished removals that have made no progress during the last interval are resumed, which includes the failed
+ * ones and the ones left behind by a server that is gone. As removing an item twice is harmless, it doesn't matter
+ * if part of a batch had been removed already.
+ *
+ * @author Juraci Paixão Kröhling
+ */
+@ApplicationScoped
+public class OrganizationDeletionJobs {
+    private static final String BATCH_SIZE = "org.hawkular.accounts.organization-deletion.batch-size";
+    private static final String CONCURRENCY = "org.hawkular.accounts.organization-deletion.concurrency";
+    private static final String RETRY_INTERVAL = "org.hawkular.accounts.organization-deletion.retry-interval";
+
+    MsgLogger logger = MsgLogger.LOGGER;
+
+    private final int batchSize = Integer.parseInt(System.getProperty(BATCH_SIZE, "100"));
+    private final int concurrency = Integer.parseInt(System.getProperty(CONCURRENCY, "4"));
+    private final long retryInterval = Long.parseLong(System.getProperty(RETRY_INTERVAL, "60000"));
+
+    /**
+     * The removals running on this server, so that the same removal is not run twice at the same time.
+     */
+    private final Set<UUID> running = ConcurrentHashMap.newKeySet();
+
+    @Inject
+    OrganizationDeletionService deletionService;
+
+    @Resource
+    private ManagedExecutorService executor;
+
+    @Resource
+    private ManagedThreadFactory threadFactory;
+
+    @Resource
+    private ManagedScheduledExecutorService scheduler;
+
+    private ExecutorService removers;
+    private ScheduledFuture<?> retryTask;
+
+    @PostConstruct
+    public void init() {
+        removers = Executors.newFixedThreadPool(concurrency, threadFactory);
+    }
+
+    @PreDestroy
+    public synchronized void destroy() {
+        if (null != retryTask) {
+            retryTask.cancel(false);
+            retryTask = null;
+        }
+
+        // the removals in progress are resumed on the next start
+        removers.shutdownNow();
+    }
+
+    /**
+     * Starts removing the given organization in background. The organization stops being listed right away.
+     * @param organization    the organization to remove
+     * @param requestedBy     the persona who requested the removal
+     * @return the removal, which can be used to follow its progress
+     */
+    public OrganizationDeletion submit(Organization organization, Persona requestedBy) {
+        OrganizationDeletion deletion = deletionService.start(organization, requestedBy);
+        run(deletion);
+        return deletion;
+    }
+
+    /**
+     * Resumes the removals that have not finished, like the ones interrupted by a restart, and starts retrying the
+     * stalled ones periodically. Called once the application has started.
+     */
+    public synchronized void resume() {
+        List<OrganizationDeletion> unfinished = deletionService.getUnfinished();
+        if (!unfinished.isEmpty()) {
+            logger.organizationDeletionsResumed(unfinished.size());
+        }
+        unfinished.forEach(this::run);
+
+        if (null == retryTask && retryInterval > 0) {
+            retryTask = scheduler.scheduleWithFixedDelay(this::retry,
+                    retryInterval,
+                    retryInterval,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @return the number of removals running on this server
+     */
+    public int getRunning() {
+        return running.size();
+    }
+
+    private void retry() {
+        try {
+            // a removal that is running stores its progress after each batch, so, it has been updated recently
+            ZonedDateTime stalledSince = ZonedDateTime.now().minus(retryInterval, ChronoUnit.MILLIS);
+            List<OrganizationDeletion> stalled = deletionService.getUnfinished()
+                    .stream()
+                    .filter(d -> d.getUpdatedAt().isBefore(stalledSince))
+                    .collect(Collectors.toList());
+            if (!stalled.isEmpty()) {
+                logger.organizationDeletionsResumed(stalled.size());
+            }
+            stalled.forEach(this::run);
+        } catch (Exception e) {
+            // we don't let the exception propagate, otherwise the scheduler would stop running this task
+            logger.organizationDeletionsRetryFailed(e);
+        }
+    }
+
+    private void run(OrganizationDeletion deletion) {
+        UUID id = deletion.getIdAsUUID();
+        if (!running.add(id)) {
+            return;
+        }
+
+        try {
+            executor.execute(() -> {
+                try {
+                    process(deletion);
+                } catch (Exception e) {
+                    // the removal stays unfinished, and is retried later
+                    logger.organizationDeletionFailed(deletion.getId(), e);
+                    storeFailure(deletion, e);
+                } finally {
+                    running.remove(id);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            running.remove(id);
+            logger.organizationDeletionFailed(deletion.getId(), e);
+        }
+    }
+
+    private void storeFailure(OrganizationDeletion deletion, Exception e) {
+        Throwable cause = e instanceof CompletionException && null != e.getCause() ? e.getCause() : e;
+        deletion.setError(null != cause.getMessage() ? cause.getMessage() : cause.getClass().getName());
+        try {
+            deletionService.update(deletion);
+        } catch (Exception updateException) {
+            logger.organizationDeletionFailureNotStored(deletion.getId(), updateException);
+        }
+    }
+
+    private void process(OrganizationDeletion deletion) {
+        // the error of a previous attempt is cleared once this attempt makes progress
+        deletion.setError(null);
+
+        // the pool is shared by all removals, the permits keep a single removal from filling its queue
+        Semaphore permits = new Semaphore(concurrency);
+        while (!deletion.isFinished()) {
+            List<UUID> batch = deletionService.getNextBatch(deletion, batchSize);
+            if (batch.isEmpty()) {
+                deletionService.completeStep(deletion);
+                continue;
+            }
+
+            CompletableFuture<?>[] removals = new CompletableFuture<?>[batch.size()];
+            for (int i = 0; i < batch.size(); i++) {
+                UUID item = batch.get(i);
+                permits.acquireUninterruptibly();
+                removals[i] = CompletableFuture
+                        .runAsync(() -> deletionService.removeItem(deletion, item), removers)
+                        .whenComplete((v, t) -> permits.release());
+            }
+
+            // if any of the items fails, the exception propagates and the removal stops here, as the same item
+            // would be returned again on the next batch
+            CompletableFuture.allOf(removals).join();
+            deletion.addRemoved(batch.size());
+            deletionService.update(deletion);
+            logger.organizationDeletionProgress(deletion.getId(), deletion.getStep().name(), deletion.getRemoved());
+        }
+        logger.organizationDeletionFinished(deletion.getId(), deletion.getOrganizationId().toString());
+    }
+}
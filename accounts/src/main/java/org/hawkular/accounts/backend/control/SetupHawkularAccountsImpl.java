@@ -19,11 +19,14 @@ package org.hawkular.accounts.backend.control;
 import java.util.HashSet;
 import java.util.Set;
 
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedExecutorService;
 import javax.inject.Inject;
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 import javax.servlet.annotation.WebListener;
 
+import org.hawkular.accounts.api.HierarchyService;
 import org.hawkular.accounts.api.OperationService;
 import org.hawkular.accounts.api.RoleService;
 import org.hawkular.accounts.api.model.Role;
@@ -44,11 +47,28 @@ public class SetupHawkularAccountsImpl implements ServletContextListener {
     @Inject
     OperationService operationService;
 
+    @Inject
+    NotificationOutboxDrainer outboxDrainer;
+
+    @Inject
+    OrganizationDeletionJobs organizationDeletionJobs;
+
+    @Inject
+    HierarchyService hierarchyService;
+
+    @Resource
+    ManagedExecutorService executor;
+
     Set<Role> roles = new HashSet<>(7);
 
     @Override
     public void contextInitialized(ServletContextEvent servletContextEvent) {
         setup();
+        outboxDrainer.start();
+        organizationDeletionJobs.resume();
+
+        // resources from previous versions are not part of the hierarchy yet
+        executor.submit(hierarchyService::backfill);
     }
 
     @Override
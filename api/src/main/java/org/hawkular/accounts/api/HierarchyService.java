@@ -0,0 +1,89 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.accounts.api;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Keeps track of the hierarchy formed by organizations, resources and their owners, so that the whole subtree or the
+ * whole chain of ancestors of a node can be retrieved at once. A node is identified by the ID of the resource,
+ * organization or persona it represents. As an organization and its resource share the same ID, they are the same
+ * node.
+ * <p>
+ * The hierarchy is maintained by the {@link ResourceService} when resources are created or transferred: the parent
+ * of a resource is its persona, if it has one, or its parent resource otherwise. Resources that existed before the
+ * hierarchy was tracked are added to it by {@link #backfill()}, or as soon as they or their ancestors are touched.
+ *
+ * @author Juraci Paixão Kröhling
+ */
+public interface HierarchyService {
+
+    /**
+     * Adds a new node to the hierarchy, as a child of the given parent.
+     * @param node      the new node
+     * @param parent    the node's parent
+     * @throws IllegalArgumentException if any of the parameters is null
+     */
+    void attach(UUID node, UUID parent);
+
+    /**
+     * Moves a node and its whole subtree to a new parent.
+     * @param node         the node to move
+     * @param newParent    the node's new parent
+     * @throws IllegalArgumentException if any of the parameters is null or if the new parent is the node itself or
+     * one of its descendants
+     */
+    void move(UUID node, UUID newParent);
+
+    /**
+     * Removes a node from the hierarchy. If the node still has descendants, they are detached from the node's
+     * ancestors, becoming the roots of their own subtrees.
+     * @param node    the node to remove
+     */
+    void remove(UUID node);
+
+    /**
+     * Adds all the existing resources that are not yet part of the hierarchy, along with their chain of ancestors.
+     * As it goes through all the resources, it's done only once for the whole cluster: calls made after it has been
+     * completed, or while it's being done by another node, return right away.
+     * @return the number of nodes that have been added, or zero if the backfill has been skipped
+     */
+    int backfill();
+
+    /**
+     * Retrieves all the descendants of the given node, no matter how deep they are.
+     * @param node    the node
+     * @return the IDs of the descendants, not including the node itself
+     */
+    List<UUID> getDescendants(UUID node);
+
+    /**
+     * Retrieves all the ancestors of the given node, up to the root of the hierarchy.
+     * @param node    the node
+     * @return the IDs of the ancestors, starting from the node's parent, not including the node itself
+     */
+    List<UUID> getAncestors(UUID node);
+
+    /**
+     * Checks whether a node is under another one, no matter how deep.
+     * @param node        the node that might be a descendant
+     * @param ancestor    the node that might be an ancestor
+     * @return true if {@code node} is a descendant of {@code ancestor}
+     */
+    boolean isDescendant(UUID node, UUID ancestor);
+}
@@ -70,7 +70,8 @@ public interface InvitationService {
     List<Invitation> getInvitationsForOrganization(Organization organization);
 
     /**
-     * Stores an invitation with the given parameters.
+     * Stores an invitation with the given parameters. The invitation is stored together with an
+     * {@link org.hawkular.accounts.api.model.OutboxEntry} for its notification, which shares the invitation's ID.
      * @param email           the user that has been invited
      * @param invitedBy       the user who sent the invitation
      * @param organization    the organization for which the user was invited to
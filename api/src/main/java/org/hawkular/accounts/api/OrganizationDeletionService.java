@@ -0,0 +1,87 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.accounts.api;
+
+import java.util.List;
+import java.util.UUID;
+
+import org.hawkular.accounts.api.model.Organization;
+import org.hawkular.accounts.api.model.OrganizationDeletion;
+import org.hawkular.accounts.api.model.Persona;
+
+/**
+ * Removes organizations step by step, so that large organizations can be removed in background, and so that an
+ * interrupted removal can be resumed later. For each step, callers retrieve the next batch of items to remove, remove
+ * each of them (possibly in parallel) and record the progress, until there are no more items. Then, they move to the
+ * next step, until the removal is finished.
+ * <p>
+ * As removed items are not returned anymore, resuming a removal is a matter of starting again from its current step.
+ *
+ * @author Juraci Paixão Kröhling
+ */
+public interface OrganizationDeletionService {
+
+    /**
+     * Starts the removal of the given organization, which stops being listed from this moment on. If there's already
+     * a removal in progress for the organization, that one is returned instead.
+     * @param organization    the organization to remove
+     * @param requestedBy     the persona who requested the removal
+     * @return the removal
+     */
+    OrganizationDeletion start(Organization organization, Persona requestedBy);
+
+    /**
+     * Retrieves a removal based on its ID.
+     * @param id    the removal's ID
+     * @return the removal or null if there's none with the given ID
+     */
+    OrganizationDeletion getById(UUID id);
+
+    /**
+     * @return all the removals that have not finished yet
+     */
+    List<OrganizationDeletion> getUnfinished();
+
+    /**
+     * Retrieves the IDs of the next items to remove for the current step of the removal.
+     * @param deletion    the removal
+     * @param size        the maximum number of items to return
+     * @return the IDs of the items, or an empty list if there's nothing else to remove on the current step
+     */
+    List<UUID> getNextBatch(OrganizationDeletion deletion, int size);
+
+    /**
+     * Removes an item returned by {@link #getNextBatch(OrganizationDeletion, int)}, revoking the permissions that the
+     * item might have granted on the organization. Safe to be called concurrently for different items.
+     * @param deletion    the removal
+     * @param id          the item's ID
+     */
+    void removeItem(OrganizationDeletion deletion, UUID id);
+
+    /**
+     * Stores the progress of the given removal, including its error, if any. Once finished, the removal is kept only
+     * for a week.
+     * @param deletion    the removal
+     */
+    void update(OrganizationDeletion deletion);
+
+    /**
+     * Moves the removal to its next step. When moving past the last step, the organization itself is removed.
+     * @param deletion    the removal
+     */
+    void completeStep(OrganizationDeletion deletion);
+}
@@ -112,6 +112,7 @@ public interface OrganizationService {
      * Transfers the organization from the current owner to the specified persona.
      * @param organization    the organization to have the ownership changed
      * @param newOwner        the new owner
+     * @throws IllegalArgumentException if the new owner is the organization itself or one of its sub organizations
      */
     void transfer(Organization organization, Persona newOwner);
 
@@ -150,4 +151,19 @@ public interface OrganizationService {
      * @return  a list of direct sub organizations
      */
     List<Organization> getSubOrganizations(Organization organization);
+
+    /**
+     * Retrieves all the organizations under the given organization, no matter how deep they are.
+     * @param organization    the ancestor organization
+     * @return  a list of all sub organizations, direct or not
+     */
+    List<Organization> getAllSubOrganizations(Organization organization);
+
+    /**
+     * Checks whether the given persona is an organization under the given organization, no matter how deep.
+     * @param persona         the persona that might be a sub organization
+     * @param organization    the ancestor organization
+     * @return  true if the persona is a sub organization, direct or not, of the given organization
+     */
+    boolean isSubOrganization(Persona persona, Organization organization);
 }
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.accounts.api;
+
+import java.util.List;
+import java.util.UUID;
+
+import org.hawkular.accounts.api.model.OutboxEntry;
+
+/**
+ * Manages the entries of the notification outbox. Entries are created by the services that store the changes that
+ * require a notification, in the same batch as the change itself. Senders then claim the entries, send the
+ * notifications and complete the entries. A claim is valid only for a limited time: if the sender dies before
+ * completing the entry, it can be claimed again once the claim expires.
+ *
+ * @author Juraci Paixão Kröhling
+ */
+public interface OutboxService {
+
+    /**
+     * Retrieves an outbox entry based on its ID.
+     * @param id    the entry's ID, which is the same as the ID of the record that triggered it
+     * @return the entry, or null if there's no pending notification for the given ID
+     */
+    OutboxEntry getById(UUID id);
+
+    /**
+     * Claims the entry with the given ID, so that no other sender picks it up for the given amount of time.
+     * @param id       the entry's ID
+     * @param lease    for how long, in milliseconds, the claim is valid
+     * @return the claimed entry, or null if the entry doesn't exist or is currently claimed by someone else
+     */
+    OutboxEntry claim(UUID id, long lease);
+
+    /**
+     * Claims up to {@code max} entries that are not currently claimed by anyone else.
+     * @param max       the maximum number of entries to claim
+     * @param lease     for how long, in milliseconds, the claims are valid
+     * @param minAge    how old, in milliseconds, an entry has to be before it's claimed by this method. Gives the
+     *                  sender that created the entry the chance to claim it first.
+     * @return the claimed entries
+     */
+    List<OutboxEntry> claimPending(int max, long lease, long minAge);
+
+    /**
+     * Removes the entry from the outbox, as its notification has been sent or has been given up on.
+     * @param entry    the entry to complete
+     */
+    void complete(OutboxEntry entry);
+}
@@ -134,6 +134,7 @@ public enum BoundStatements {
 
     // Resources statements
     RESOURCE_GET_BY_ID("SELECT * FROM hawkular_accounts.resources WHERE id = :id"),
+    RESOURCE_GET_ALL_IDS("SELECT id FROM hawkular_accounts.resources"),
     RESOURCE_GET_BY_PERSONA("SELECT * FROM hawkular_accounts.resources WHERE persona = :persona"),
     RESOURCE_TRANSFER(
             "UPDATE hawkular_accounts.resources SET persona = :persona, updatedAt = :updatedAt WHERE id = :id"
@@ -159,6 +160,7 @@ public enum BoundStatements {
 
     // Organization statements
     ORGANIZATION_GET_BY_ID("SELECT * FROM hawkular_accounts.organizations WHERE id = :id"),
+    ORGANIZATION_GET_BY_IDS("SELECT * FROM hawkular_accounts.organizations WHERE id IN :ids"),
     ORGANIZATION_GET_BY_NAME("SELECT * FROM hawkular_accounts.organizations WHERE name = :name"),
     ORGANIZATION_GET_APPLY("SELECT * FROM hawkular_accounts.organizations WHERE visibility = 'APPLY'"),
     ORGANIZATION_GET_BY_OWNER("SELECT * FROM hawkular_accounts.organizations WHERE owner = :owner"),
@@ -218,6 +220,71 @@ public enum BoundStatements {
             "WHERE organization = :organization"),
     JOIN_REQUEST_LIST_BY_PERSONA("SELECT * FROM hawkular_accounts.join_requests " +
             "WHERE persona = :persona"),
+
+    // Notification outbox
+    OUTBOX_GET_BY_ID("SELECT * FROM hawkular_accounts.notification_outbox WHERE id = :id"),
+    OUTBOX_GET_ALL("SELECT * FROM hawkular_accounts.notification_outbox"),
+    OUTBOX_REMOVE("DELETE FROM hawkular_accounts.notification_outbox WHERE id = :id"),
+    OUTBOX_CREATE("INSERT INTO hawkular_accounts.notification_outbox " +
+            "(id, kind, attempts, createdAt, updatedAt)" +
+            " VALUES " +
+            "(:id, :kind, 0, :createdAt, :updatedAt)"),
+    OUTBOX_CLAIM("UPDATE hawkular_accounts.notification_outbox " +
+            "SET attempts = :attempts, claimedUntil = :claimedUntil, updatedAt = :updatedAt " +
+            "WHERE id = :id " +
+            "IF attempts = :previousAttempts"),
+
+    // Hierarchy of organizations and resources: one table per direction, so that both are single partition reads
+    HIERARCHY_GET_DESCENDANTS("SELECT descendant, depth FROM hawkular_accounts.hierarchy_descendants " +
+            "WHERE ancestor = :ancestor"),
+    HIERARCHY_GET_ANCESTORS("SELECT ancestor, depth FROM hawkular_accounts.hierarchy_ancestors " +
+            "WHERE descendant = :descendant"),
+    HIERARCHY_GET_DEPTH("SELECT depth FROM hawkular_accounts.hierarchy_descendants " +
+            "WHERE ancestor = :ancestor AND descendant = :descendant"),
+    HIERARCHY_ADD_DESCENDANT("INSERT INTO hawkular_accounts.hierarchy_descendants " +
+            "(ancestor, descendant, depth) VALUES (:ancestor, :descendant, :depth)"),
+    HIERARCHY_ADD_ANCESTOR("INSERT INTO hawkular_accounts.hierarchy_ancestors " +
+            "(descendant, ancestor, depth) VALUES (:descendant, :ancestor, :depth)"),
+    HIERARCHY_REMOVE_DESCENDANT("DELETE FROM hawkular_accounts.hierarchy_descendants " +
+            "WHERE ancestor = :ancestor AND descendant = :descendant"),
+    HIERARCHY_REMOVE_ANCESTOR("DELETE FROM hawkular_accounts.hierarchy_ancestors " +
+            "WHERE descendant = :descendant AND ancestor = :ancestor"),
+
+    // Data migrations: the claim expires after an hour, so that a migration interrupted by a crash is run again
+    MIGRATION_CLAIM("INSERT INTO hawkular_accounts.migrations (name, startedAt) VALUES (:name, :startedAt) " +
+            "IF NOT EXISTS USING TTL 3600"),
+    MIGRATION_FINISH("UPDATE hawkular_accounts.migrations SET finishedAt = :finishedAt WHERE name = :name " +
+            "IF EXISTS"),
+
+    // Organization deletions
+    ORGANIZATION_DELETION_GET_BY_ID("SELECT * FROM hawkular_accounts.organization_deletions WHERE id = :id"),
+    ORGANIZATION_DELETION_CREATE("INSERT INTO hawkular_accounts.organization_deletions " +
+            "(id, organization, persona, step, removed, finished, error, createdAt, updatedAt)" +
+            " VALUES " +
+            "(:id, :organization, :persona, :step, :removed, :finished, :error, :createdAt, :updatedAt)"),
+    ORGANIZATION_DELETION_UPDATE("UPDATE hawkular_accounts.organization_deletions " +
+            "SET step = :step, removed = :removed, finished = :finished, error = :error, updatedAt = :updatedAt " +
+            "WHERE id = :id"),
+    // finished removals are kept for a week, so that their outcome can still be retrieved
+    ORGANIZATION_DELETION_FINISH("INSERT INTO hawkular_accounts.organization_deletions " +
+            "(id, organization, persona, step, removed, finished, error, createdAt, updatedAt)" +
+            " VALUES " +
+            "(:id, :organization, :persona, :step, :removed, :finished, :error, :createdAt, :updatedAt)" +
+            " USING TTL 604800"),
+    ORGANIZATIONS_BEING_DELETED_GET("SELECT organization, deletion " +
+            "FROM hawkular_accounts.organizations_being_deleted WHERE organization IN :organizations"),
+    ORGANIZATIONS_BEING_DELETED_GET_ALL("SELECT organization, deletion " +
+            "FROM hawkular_accounts.organizations_being_deleted"),
+    ORGANIZATIONS_BEING_DELETED_ADD("INSERT INTO hawkular_accounts.organizations_being_deleted " +
+            "(organization, deletion) VALUES (:organization, :deletion)"),
+    ORGANIZATIONS_BEING_DELETED_REMOVE("DELETE FROM hawkular_accounts.organizations_being_deleted " +
+            "WHERE organization = :organization"),
+    INVITATIONS_GET_IDS_BY_ORGANIZATION("SELECT id FROM hawkular_accounts.invitations " +
+            "WHERE organization = :organization LIMIT :size"),
+    JOIN_REQUEST_GET_IDS_BY_ORGANIZATION("SELECT id FROM hawkular_accounts.join_requests " +
+            "WHERE organization = :organization LIMIT :size"),
+    MEMBERSHIP_GET_IDS_BY_ORGANIZATION("SELECT id FROM hawkular_accounts.organization_memberships " +
+            "WHERE organization = :organization LIMIT :size"),
     ;
 
     private String value;
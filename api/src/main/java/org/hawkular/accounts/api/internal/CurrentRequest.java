@@ -0,0 +1,65 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.accounts.api.internal;
+
+import javax.enterprise.context.RequestScoped;
+
+import org.hawkular.accounts.api.model.HawkularUser;
+import org.hawkular.accounts.api.model.Persona;
+
+/**
+ * Holds the current user and persona once they are resolved for the current request, so that each injection point of
+ * {@link org.hawkular.accounts.api.CurrentUser} or {@link Persona} on the same request gets the same instances,
+ * without going to the database again nor re-evaluating the impersonation.
+ *
+ * @author Juraci Paixão Kröhling
+ */
+@RequestScoped
+public class CurrentRequest {
+    private HawkularUser user;
+    private Persona persona;
+    private String personaId;
+
+    public HawkularUser getUser() {
+        return user;
+    }
+
+    public void setUser(HawkularUser user) {
+        this.user = user;
+    }
+
+    /**
+     * @param personaId    the persona ID requested via the {@code Hawkular-Persona} header, or null
+     * @return the persona resolved for the given persona ID, or null if it hasn't been resolved yet on this request
+     */
+    public Persona getPersona(String personaId) {
+        if (null == persona) {
+            return null;
+        }
+
+        if (null == personaId ? null != this.personaId : !personaId.equals(this.personaId)) {
+            return null;
+        }
+
+        return persona;
+    }
+
+    public void setPersona(String personaId, Persona persona) {
+        this.personaId = personaId;
+        this.persona = persona;
+    }
+}
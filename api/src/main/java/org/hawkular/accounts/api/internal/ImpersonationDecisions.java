@@ -0,0 +1,89 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.accounts.api.internal;
+
+import javax.enterprise.context.ApplicationScoped;
+
+import org.hawkular.accounts.api.model.HawkularUser;
+import org.hawkular.accounts.api.model.Member;
+import org.hawkular.accounts.api.model.Persona;
+import org.hawkular.accounts.common.internal.ExpiringCache;
+
+/**
+ * Cache for the decisions on whether a user is allowed to impersonate a persona, as the decision requires the
+ * computation of the effective roles of the user on the persona's resource.
+ * <p>
+ * Decisions are kept for {@code org.hawkular.accounts.impersonation-cache.ttl} milliseconds (30 seconds by default),
+ * up to {@code org.hawkular.accounts.impersonation-cache.max-size} entries (10000 by default). Services that change
+ * the roles or memberships of a persona are expected to call {@link #invalidate(Member)}.
+ * <p>
+ * The cache is local to each server, and so is the invalidation. On a cluster, the other servers keep using their
+ * decisions until they expire: a persona might still be impersonated for up to the TTL after its roles have been
+ * revoked. The TTL should be lowered if that's not acceptable.
+ *
+ * @author Juraci Paixão Kröhling
+ */
+@ApplicationScoped
+public class ImpersonationDecisions {
+    private static final String TTL = "org.hawkular.accounts.impersonation-cache.ttl";
+    private static final String MAX_SIZE = "org.hawkular.accounts.impersonation-cache.max-size";
+
+    private final long ttl = Long.parseLong(System.getProperty(TTL, "30000"));
+    private final ExpiringCache<String, Boolean> decisions = new ExpiringCache<>(
+            Integer.parseInt(System.getProperty(MAX_SIZE, "10000")));
+
+    /**
+     * @return the cached decision, or null if there's no decision for this user and persona
+     */
+    public Boolean get(HawkularUser user, Persona persona) {
+        return decisions.get(getKey(user, persona));
+    }
+
+    public void put(HawkularUser user, Persona persona, boolean allowed) {
+        decisions.put(getKey(user, persona), allowed, System.currentTimeMillis() + ttl);
+    }
+
+    /**
+     * Removes the decisions that might be affected by a change in the roles or memberships of the given member.
+     * For users, only the decisions for the user are removed. For organizations, all the decisions are removed, as
+     * the organization's members, and the members of their members, are affected as well.
+     * @param member    the persona whose roles or memberships have changed
+     */
+    public void invalidate(Member member) {
+        if (member instanceof HawkularUser) {
+            String prefix = member.getId() + ":";
+            decisions.removeIf(key -> key.startsWith(prefix));
+        } else {
+            invalidateAll();
+        }
+    }
+
+    public void invalidateAll() {
+        decisions.clear();
+    }
+
+    /**
+     * @return the underlying cache, for metrics purposes
+     */
+    public ExpiringCache<?, ?> getDecisions() {
+        return decisions;
+    }
+
+    private static String getKey(HawkularUser user, Persona persona) {
+        return user.getId() + ":" + persona.getId();
+    }
+}
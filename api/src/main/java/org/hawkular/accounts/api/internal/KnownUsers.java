@@ -0,0 +1,76 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.accounts.api.internal;
+
+import java.util.Objects;
+
+import javax.enterprise.context.ApplicationScoped;
+
+import org.hawkular.accounts.api.model.HawkularUser;
+import org.hawkular.accounts.common.internal.ExpiringCache;
+
+/**
+ * Copies of the users that have recently made requests, as stored in the database. If the name and email from the
+ * user's token match the copy, the user doesn't need to be read nor updated on the database.
+ * <p>
+ * Entries are kept for {@code org.hawkular.accounts.user-cache.ttl} milliseconds (60 seconds by default), up to
+ * {@code org.hawkular.accounts.user-cache.max-size} entries (10000 by default).
+ *
+ * @author Juraci Paixão Kröhling
+ */
+@ApplicationScoped
+public class KnownUsers {
+    private static final String TTL = "org.hawkular.accounts.user-cache.ttl";
+    private static final String MAX_SIZE = "org.hawkular.accounts.user-cache.max-size";
+
+    private final long ttl = Long.parseLong(System.getProperty(TTL, "60000"));
+    private final ExpiringCache<String, HawkularUser> users = new ExpiringCache<>(
+            Integer.parseInt(System.getProperty(MAX_SIZE, "10000")));
+
+    /**
+     * Retrieves a copy of the user, if it's known and its name and email match the given ones.
+     * @param id       the user's ID
+     * @param name     the user's name, as on the token
+     * @param email    the user's email, as on the token. If null, the email is not compared.
+     * @return a copy of the user, or null if the user is not known or if it has changed
+     */
+    public HawkularUser get(String id, String name, String email) {
+        HawkularUser user = users.get(id);
+        if (null == user) {
+            return null;
+        }
+
+        if (!Objects.equals(name, user.getName()) || (null != email && !email.equals(user.getEmail()))) {
+            return null;
+        }
+
+        return copyOf(user);
+    }
+
+    /**
+     * Stores a copy of the user, as it is on the database.
+     * @param user    the user
+     */
+    public void put(HawkularUser user) {
+        users.put(user.getId(), copyOf(user), System.currentTimeMillis() + ttl);
+    }
+
+    private static HawkularUser copyOf(HawkularUser user) {
+        return new HawkularUser(user.getIdAsUUID(), user.getCreatedAt(), user.getUpdatedAt(), user.getName(),
+                user.getEmail());
+    }
+}
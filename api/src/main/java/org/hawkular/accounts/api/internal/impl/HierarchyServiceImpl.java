@@ -0,0 +1,365 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.accounts.api.internal.impl;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import javax.annotation.security.PermitAll;
+import javax.ejb.Stateless;
+import javax.enterprise.inject.Instance;
+import javax.inject.Inject;
+
+import org.hawkular.accounts.api.HierarchyService;
+import org.hawkular.accounts.api.internal.BoundStatements;
+import org.hawkular.accounts.api.internal.NamedStatement;
+
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+
+/**
+ * Main implementation of the {@link HierarchyService}, backed by a closure table: there's one record for each pair of
+ * ancestor and descendant, along with the distance between them. Each node that is not a root also has a record
+ * pointing to itself, with a distance of zero. The records are stored twice, partitioned by the ancestor and by the
+ * descendant, so that both subtrees and chains of ancestors are read from a single partition. Each partition is
+ * written on its own, as the records for a large subtree would not fit in a single batch.
+ *
+ * @author Juraci Paixão Kröhling
+ */
+@Stateless
+@PermitAll
+public class HierarchyServiceImpl implements HierarchyService {
+    private static final int BATCH_SIZE = 100;
+    private static final String BACKFILL_MIGRATION = "hierarchy-backfill";
+
+    MsgLogger logger = MsgLogger.LOGGER;
+
+    @Inject
+    Session session;
+
+    @Inject @NamedStatement(BoundStatements.HIERARCHY_GET_DESCENDANTS)
+    Instance<BoundStatement> stmtGetDescendantsInstance;
+
+    @Inject @NamedStatement(BoundStatements.HIERARCHY_GET_ANCESTORS)
+    Instance<BoundStatement> stmtGetAncestorsInstance;
+
+    @Inject @NamedStatement(BoundStatements.HIERARCHY_GET_DEPTH)
+    Instance<BoundStatement> stmtGetDepthInstance;
+
+    @Inject @NamedStatement(BoundStatements.HIERARCHY_ADD_DESCENDANT)
+    Instance<BoundStatement> stmtAddDescendantInstance;
+
+    @Inject @NamedStatement(BoundStatements.HIERARCHY_ADD_ANCESTOR)
+    Instance<BoundStatement> stmtAddAncestorInstance;
+
+    @Inject @NamedStatement(BoundStatements.HIERARCHY_REMOVE_DESCENDANT)
+    Instance<BoundStatement> stmtRemoveDescendantInstance;
+
+    @Inject @NamedStatement(BoundStatements.HIERARCHY_REMOVE_ANCESTOR)
+    Instance<BoundStatement> stmtRemoveAncestorInstance;
+
+    @Inject @NamedStatement(BoundStatements.RESOURCE_GET_BY_ID)
+    Instance<BoundStatement> stmtGetResourceInstance;
+
+    @Inject @NamedStatement(BoundStatements.RESOURCE_GET_ALL_IDS)
+    Instance<BoundStatement> stmtGetAllResourcesInstance;
+
+    @Inject @NamedStatement(BoundStatements.MIGRATION_CLAIM)
+    Instance<BoundStatement> stmtClaimMigrationInstance;
+
+    @Inject @NamedStatement(BoundStatements.MIGRATION_FINISH)
+    Instance<BoundStatement> stmtFinishMigrationInstance;
+
+    @Override
+    public void attach(UUID node, UUID parent) {
+        if (null == node || null == parent) {
+            throw new IllegalArgumentException("The given node or parent is invalid (null).");
+        }
+
+        ensureAttached(parent);
+        Changes changes = new Changes();
+        for (Link ancestor : getAncestorsOrSelf(parent)) {
+            changes.add(ancestor.node, node, ancestor.depth + 1);
+        }
+        changes.add(node, node, 0);
+        changes.apply();
+        logger.hierarchyNodeAttached(node.toString(), parent.toString());
+    }
+
+    @Override
+    public void move(UUID node, UUID newParent) {
+        if (null == node || null == newParent) {
+            throw new IllegalArgumentException("The given node or new parent is invalid (null).");
+        }
+
+        ensureAttached(node);
+        ensureAttached(newParent);
+        int affected = relink(node, newParent);
+        logger.hierarchyNodeMoved(node.toString(), newParent.toString(), affected);
+    }
+
+    @Override
+    public void remove(UUID node) {
+        if (null == node) {
+            throw new IllegalArgumentException("The given node is invalid (null).");
+        }
+
+        // resources that are left behind under the node, like the ones for join requests, are detached from the
+        // node's ancestors
+        List<Link> subtree = getDescendantsOrSelf(node);
+        Changes changes = new Changes();
+        for (Link ancestor : getAncestorsOrSelf(node)) {
+            for (Link descendant : subtree) {
+                changes.remove(ancestor.node, descendant.node);
+            }
+        }
+        changes.apply();
+        logger.hierarchyNodeRemoved(node.toString());
+    }
+
+    /**
+     * The backfill is claimed on the migrations table with a lightweight transaction, so that it's run by a single
+     * node. Once finished, the record is kept forever, as the finish timestamp has no TTL: later starts skip it.
+     */
+    @Override
+    public int backfill() {
+        Date startedAt = new Date();
+        boolean claimed = session.execute(stmtClaimMigrationInstance.get()
+                .setString("name", BACKFILL_MIGRATION)
+                .setTimestamp("startedAt", startedAt)
+        ).wasApplied();
+        if (!claimed) {
+            logger.hierarchyBackfillSkipped();
+            return 0;
+        }
+
+        int attached = 0;
+        for (Row row : session.execute(stmtGetAllResourcesInstance.get().setFetchSize(100))) {
+            if (ensureAttached(row.getUUID("id"))) {
+                attached++;
+            }
+        }
+
+        session.execute(stmtFinishMigrationInstance.get()
+                .setString("name", BACKFILL_MIGRATION)
+                .setTimestamp("finishedAt", new Date()));
+        logger.hierarchyBackfilled(attached);
+        return attached;
+    }
+
+    @Override
+    public List<UUID> getDescendants(UUID node) {
+        if (null == node) {
+            throw new IllegalArgumentException("The given node is invalid (null).");
+        }
+
+        return getLinks(stmtGetDescendantsInstance.get().setUUID("ancestor", node), "descendant")
+                .stream()
+                .filter(l -> l.depth > 0)
+                .map(l -> l.node)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public List<UUID> getAncestors(UUID node) {
+        if (null == node) {
+            throw new IllegalArgumentException("The given node is invalid (null).");
+        }
+
+        ensureAttached(node);
+        return getLinks(stmtGetAncestorsInstance.get().setUUID("descendant", node), "ancestor")
+                .stream()
+                .filter(l -> l.depth > 0)
+                .sorted(Comparator.comparingInt(l -> l.depth))
+                .map(l -> l.node)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public boolean isDescendant(UUID node, UUID ancestor) {
+        if (null == node || null == ancestor) {
+            throw new IllegalArgumentException("The given node or ancestor is invalid (null).");
+        }
+
+        ensureAttached(node);
+        Row row = session.execute(stmtGetDepthInstance.get()
+                .setUUID("ancestor", ancestor)
+                .setUUID("descendant", node)
+        ).one();
+        return null != row && row.getInt("depth") > 0;
+    }
+
+    /**
+     * Links the node's subtree to the new parent and its ancestors, and unlinks it from the ancestors that are not
+     * kept. The new links are written before the old ones are removed, so, an interrupted move can just be repeated.
+     * @return the size of the subtree
+     */
+    private int relink(UUID node, UUID newParent) {
+        List<Link> subtree = getDescendantsOrSelf(node);
+        if (subtree.stream().anyMatch(l -> l.node.equals(newParent))) {
+            throw new IllegalArgumentException("A node cannot be moved to itself or to one of its descendants.");
+        }
+
+        List<Link> oldAncestors = getLinks(stmtGetAncestorsInstance.get().setUUID("descendant", node), "ancestor");
+        List<Link> newAncestors = getAncestorsOrSelf(newParent);
+        Set<UUID> newAncestorIds = newAncestors.stream().map(l -> l.node).collect(Collectors.toSet());
+
+        Changes additions = new Changes();
+        for (Link newAncestor : newAncestors) {
+            for (Link descendant : subtree) {
+                additions.add(newAncestor.node, descendant.node, newAncestor.depth + 1 + descendant.depth);
+            }
+        }
+        additions.apply();
+
+        // the ancestors that are kept have just been overwritten with their new depth
+        Changes removals = new Changes();
+        for (Link oldAncestor : oldAncestors) {
+            if (oldAncestor.depth > 0 && !newAncestorIds.contains(oldAncestor.node)) {
+                for (Link descendant : subtree) {
+                    removals.remove(oldAncestor.node, descendant.node);
+                }
+            }
+        }
+        removals.apply();
+        return subtree.size();
+    }
+
+    /**
+     * Resources created before the hierarchy was tracked have no records yet. Such a node is attached to the persona
+     * or parent stored on its resource, once the chain above it has been attached as well. Whatever has been attached
+     * under the node in the meantime comes along. Nodes that are not resources, like users, are roots.
+     * @return true if the node had to be attached
+     */
+    private boolean ensureAttached(UUID node) {
+        Row self = session.execute(stmtGetDepthInstance.get()
+                .setUUID("ancestor", node)
+                .setUUID("descendant", node)
+        ).one();
+        if (null != self) {
+            return false;
+        }
+
+        Row resource = session.execute(stmtGetResourceInstance.get().setUUID("id", node)).one();
+        if (null == resource) {
+            return false;
+        }
+
+        UUID parent = resource.isNull("persona") ? resource.getUUID("parent") : resource.getUUID("persona");
+        if (null != parent) {
+            ensureAttached(parent);
+            relink(node, parent);
+        }
+
+        // the record pointing to itself is what tells us that the node is attached, so, it's written last
+        Changes changes = new Changes();
+        changes.add(node, node, 0);
+        changes.apply();
+        logger.hierarchyNodeBackfilled(node.toString());
+        return true;
+    }
+
+    /**
+     * Roots, like users, have no record pointing to themselves, so, we add it here.
+     */
+    private List<Link> getAncestorsOrSelf(UUID node) {
+        List<Link> links = getLinks(stmtGetAncestorsInstance.get().setUUID("descendant", node), "ancestor");
+        if (links.stream().noneMatch(l -> l.node.equals(node))) {
+            links.add(new Link(node, 0));
+        }
+        return links;
+    }
+
+    private List<Link> getDescendantsOrSelf(UUID node) {
+        List<Link> links = getLinks(stmtGetDescendantsInstance.get().setUUID("ancestor", node), "descendant");
+        if (links.stream().noneMatch(l -> l.node.equals(node))) {
+            links.add(new Link(node, 0));
+        }
+        return links;
+    }
+
+    private List<Link> getLinks(BoundStatement statement, String column) {
+        List<Link> links = new ArrayList<>();
+        for (Row row : session.execute(statement)) {
+            links.add(new Link(row.getUUID(column), row.getInt("depth")));
+        }
+        return links;
+    }
+
+    /**
+     * Collects the writes for each partition of both tables, to be applied in small unlogged batches that touch a
+     * single partition each. The writes are idempotent, so, a partially applied set of changes can be applied again.
+     */
+    private class Changes {
+        private final Map<UUID, List<BoundStatement>> byAncestor = new LinkedHashMap<>();
+        private final Map<UUID, List<BoundStatement>> byDescendant = new LinkedHashMap<>();
+
+        void add(UUID ancestor, UUID descendant, int depth) {
+            byAncestor.computeIfAbsent(ancestor, k -> new ArrayList<>()).add(stmtAddDescendantInstance.get()
+                    .setUUID("ancestor", ancestor)
+                    .setUUID("descendant", descendant)
+                    .setInt("depth", depth));
+            byDescendant.computeIfAbsent(descendant, k -> new ArrayList<>()).add(stmtAddAncestorInstance.get()
+                    .setUUID("descendant", descendant)
+                    .setUUID("ancestor", ancestor)
+                    .setInt("depth", depth));
+        }
+
+        void remove(UUID ancestor, UUID descendant) {
+            byAncestor.computeIfAbsent(ancestor, k -> new ArrayList<>()).add(stmtRemoveDescendantInstance.get()
+                    .setUUID("ancestor", ancestor)
+                    .setUUID("descendant", descendant));
+            byDescendant.computeIfAbsent(descendant, k -> new ArrayList<>()).add(stmtRemoveAncestorInstance.get()
+                    .setUUID("descendant", descendant)
+                    .setUUID("ancestor", ancestor));
+        }
+
+        void apply() {
+            apply(byAncestor);
+            apply(byDescendant);
+        }
+
+        private void apply(Map<UUID, List<BoundStatement>> partitions) {
+            for (List<BoundStatement> statements : partitions.values()) {
+                for (int i = 0; i < statements.size(); i += BATCH_SIZE) {
+                    BatchStatement batch = new BatchStatement(BatchStatement.Type.UNLOGGED);
+                    statements.subList(i, Math.min(i + BATCH_SIZE, statements.size())).forEach(batch::add);
+                    session.execute(batch);
+                }
+            }
+        }
+    }
+
+    private static class Link {
+        private final UUID node;
+        private final int depth;
+
+        Link(UUID node, int depth) {
+            this.node = node;
+            this.depth = depth;
+        }
+    }
+}
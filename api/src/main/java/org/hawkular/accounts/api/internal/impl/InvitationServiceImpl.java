@@ -36,8 +36,10 @@ import org.hawkular.accounts.api.internal.NamedStatement;
 import org.hawkular.accounts.api.model.HawkularUser;
 import org.hawkular.accounts.api.model.Invitation;
 import org.hawkular.accounts.api.model.Organization;
+import org.hawkular.accounts.api.model.OutboxEntry;
 import org.hawkular.accounts.api.model.Role;
 
+import com.datastax.driver.core.BatchStatement;
 import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.Row;
 
@@ -70,6 +72,9 @@ public class InvitationServiceImpl extends BaseServiceImpl<Invitation> implement
     @Inject @NamedStatement(BoundStatements.INVITATIONS_CREATE)
     Instance<BoundStatement> stmtCreateInstance;
 
+    @Inject @NamedStatement(BoundStatements.OUTBOX_CREATE)
+    Instance<BoundStatement> stmtCreateOutboxInstance;
+
     @Inject @NamedStatement(BoundStatements.INVITATIONS_ACCEPT)
     Instance<BoundStatement> stmtAcceptInstance;
 
@@ -122,7 +127,21 @@ public class InvitationServiceImpl extends BaseServiceImpl<Invitation> implement
         stmtCreateStatement.setUUID("invitedBy", invitation.getInvitedBy().getIdAsUUID());
         stmtCreateStatement.setUUID("organization", invitation.getOrganization().getIdAsUUID());
         stmtCreateStatement.setUUID("role", invitation.getRole().getIdAsUUID());
-        session.execute(stmtCreateStatement);
+
+        // the outbox entry is what guarantees that the invitation is eventually sent, so, it has to be stored
+        // if, and only if, the invitation itself is stored: a logged batch gives us that
+        OutboxEntry outboxEntry = new OutboxEntry(invitation.getIdAsUUID(), OutboxEntry.KIND_INVITATION);
+        BoundStatement stmtCreateOutbox = stmtCreateOutboxInstance.get();
+        stmtCreateOutbox.setUUID("id", outboxEntry.getIdAsUUID());
+        stmtCreateOutbox.setString("kind", outboxEntry.getKind());
+        stmtCreateOutbox.setTimestamp("createdAt",
+                zonedDateTimeAdapter.convertToDatabaseColumn(outboxEntry.getCreatedAt()));
+        stmtCreateOutbox.setTimestamp("updatedAt",
+                zonedDateTimeAdapter.convertToDatabaseColumn(outboxEntry.getUpdatedAt()));
+
+        session.execute(new BatchStatement(BatchStatement.Type.LOGGED)
+                .add(stmtCreateStatement)
+                .add(stmtCreateOutbox));
         logger.invitationCreated(invitation.getId());
         return invitation;
     }
@@ -303,4 +303,48 @@ public interface MsgLogger extends BasicLogger {
     @Message(id = 100064, value = "Cassandra session acquired.")
     void cassandraSessionAcquired();
 
+    @LogMessage(level = Logger.Level.TRACE)
+    @Message(id = 100065, value = "Outbox entry [%s] claimed. Attempt [%d].")
+    void outboxEntryClaimed(String id, int attempt);
+
+    @LogMessage(level = Logger.Level.TRACE)
+    @Message(id = 100066, value = "Outbox entry [%s] completed.")
+    void outboxEntryCompleted(String id);
+
+    @LogMessage(level = Logger.Level.TRACE)
+    @Message(id = 100067, value = "Node [%s] added to the hierarchy under [%s].")
+    void hierarchyNodeAttached(String node, String parent);
+
+    @LogMessage(level = Logger.Level.TRACE)
+    @Message(id = 100068, value = "Node [%s] moved in the hierarchy to [%s]. Nodes affected: [%d].")
+    void hierarchyNodeMoved(String node, String newParent, int subtreeSize);
+
+    @LogMessage(level = Logger.Level.TRACE)
+    @Message(id = 100069, value = "Node [%s] removed from the hierarchy.")
+    void hierarchyNodeRemoved(String node);
+
+    @LogMessage(level = Logger.Level.INFO)
+    @Message(id = 100070, value = "Removal of organization [%s] started. Removal ID: [%s].")
+    void organizationDeletionStarted(String organizationId, String deletionId);
+
+    @LogMessage(level = Logger.Level.DEBUG)
+    @Message(id = 100071, value = "Removal of organization [%s] was already in progress. Removal ID: [%s].")
+    void organizationDeletionAlreadyStarted(String organizationId, String deletionId);
+
+    @LogMessage(level = Logger.Level.DEBUG)
+    @Message(id = 100072, value = "Removal [%s] moved to the step [%s].")
+    void organizationDeletionStepCompleted(String deletionId, String step);
+
+    @LogMessage(level = Logger.Level.TRACE)
+    @Message(id = 100073, value = "Node [%s] existed before the hierarchy and has been added to it.")
+    void hierarchyNodeBackfilled(String node);
+
+    @LogMessage(level = Logger.Level.INFO)
+    @Message(id = 100074, value = "Hierarchy checked against the existing resources. Nodes added: [%d].")
+    void hierarchyBackfilled(int attached);
+
+    @LogMessage(level = Logger.Level.INFO)
+    @Message(id = 100075, value = "Hierarchy backfill already done, or being done by another node. Skipping.")
+    void hierarchyBackfillSkipped();
+
 }
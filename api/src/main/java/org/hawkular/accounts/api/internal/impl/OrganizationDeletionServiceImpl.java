@@ -0,0 +1,325 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.accounts.api.internal.impl;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import javax.annotation.security.PermitAll;
+import javax.ejb.Stateless;
+import javax.enterprise.inject.Instance;
+import javax.inject.Inject;
+
+import org.hawkular.accounts.api.OrganizationDeletionService;
+import org.hawkular.accounts.api.OrganizationService;
+import org.hawkular.accounts.api.PersonaService;
+import org.hawkular.accounts.api.ResourceService;
+import org.hawkular.accounts.api.internal.BoundStatements;
+import org.hawkular.accounts.api.internal.ImpersonationDecisions;
+import org.hawkular.accounts.api.internal.NamedStatement;
+import org.hawkular.accounts.api.model.JoinRequestStatus;
+import org.hawkular.accounts.api.model.Organization;
+import org.hawkular.accounts.api.model.OrganizationDeletion;
+import org.hawkular.accounts.api.model.OrganizationDeletion.Step;
+import org.hawkular.accounts.api.model.Persona;
+import org.hawkular.accounts.api.model.Resource;
+
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.Row;
+
+/**
+ * Items are read and removed using only their IDs and the columns needed to revoke their permissions, so that a
+ * large organization can be removed without loading its invitations, join requests and memberships with all their
+ * relationships.
+ *
+ * @author Juraci Paixão Kröhling
+ */
+@Stateless
+@PermitAll
+public class OrganizationDeletionServiceImpl
+        extends BaseServiceImpl<OrganizationDeletion>
+        implements OrganizationDeletionService {
+
+    MsgLogger logger = MsgLogger.LOGGER;
+
+    @Inject
+    OrganizationService organizationService;
+
+    @Inject
+    ResourceService resourceService;
+
+    @Inject
+    PersonaService personaService;
+
+    @Inject
+    ImpersonationDecisions impersonationDecisions;
+
+    @Inject @NamedStatement(BoundStatements.ORGANIZATION_DELETION_GET_BY_ID)
+    Instance<BoundStatement> stmtGetByIdInstance;
+
+    @Inject @NamedStatement(BoundStatements.ORGANIZATIONS_BEING_DELETED_GET)
+    Instance<BoundStatement> stmtGetBeingDeletedInstance;
+
+    @Inject @NamedStatement(BoundStatements.ORGANIZATIONS_BEING_DELETED_GET_ALL)
+    Instance<BoundStatement> stmtGetAllBeingDeletedInstance;
+
+    @Inject @NamedStatement(BoundStatements.ORGANIZATIONS_BEING_DELETED_ADD)
+    Instance<BoundStatement> stmtAddBeingDeletedInstance;
+
+    @Inject @NamedStatement(BoundStatements.ORGANIZATIONS_BEING_DELETED_REMOVE)
+    Instance<BoundStatement> stmtRemoveBeingDeletedInstance;
+
+    @Inject @NamedStatement(BoundStatements.ORGANIZATION_DELETION_CREATE)
+    Instance<BoundStatement> stmtCreateInstance;
+
+    @Inject @NamedStatement(BoundStatements.ORGANIZATION_DELETION_UPDATE)
+    Instance<BoundStatement> stmtUpdateInstance;
+
+    @Inject @NamedStatement(BoundStatements.ORGANIZATION_DELETION_FINISH)
+    Instance<BoundStatement> stmtFinishInstance;
+
+    @Inject @NamedStatement(BoundStatements.INVITATIONS_GET_IDS_BY_ORGANIZATION)
+    Instance<BoundStatement> stmtGetInvitationIdsInstance;
+
+    @Inject @NamedStatement(BoundStatements.JOIN_REQUEST_GET_IDS_BY_ORGANIZATION)
+    Instance<BoundStatement> stmtGetJoinRequestIdsInstance;
+
+    @Inject @NamedStatement(BoundStatements.MEMBERSHIP_GET_IDS_BY_ORGANIZATION)
+    Instance<BoundStatement> stmtGetMembershipIdsInstance;
+
+    @Inject @NamedStatement(BoundStatements.INVITATION_GET_BY_TOKEN)
+    Instance<BoundStatement> stmtGetInvitationInstance;
+
+    @Inject @NamedStatement(BoundStatements.INVITATIONS_DELETE)
+    Instance<BoundStatement> stmtRemoveInvitationInstance;
+
+    @Inject @NamedStatement(BoundStatements.JOIN_REQUEST_GET_BY_ID)
+    Instance<BoundStatement> stmtGetJoinRequestInstance;
+
+    @Inject @NamedStatement(BoundStatements.JOIN_REQUEST_REMOVE)
+    Instance<BoundStatement> stmtRemoveJoinRequestInstance;
+
+    @Inject @NamedStatement(BoundStatements.MEMBERSHIP_REMOVE)
+    Instance<BoundStatement> stmtRemoveMembershipInstance;
+
+    @Override
+    public OrganizationDeletion start(Organization organization, Persona requestedBy) {
+        if (null == organization) {
+            throw new IllegalArgumentException("The given organization is invalid (null).");
+        }
+
+        if (null == requestedBy) {
+            throw new IllegalArgumentException("The given persona is invalid (null).");
+        }
+
+        Row existing = session.execute(stmtGetBeingDeletedInstance
+                .get()
+                .setList("organizations", Collections.singletonList(organization.getIdAsUUID()))
+        ).one();
+        if (null != existing) {
+            OrganizationDeletion deletion = getById(existing.getUUID("deletion"));
+            if (null != deletion) {
+                logger.organizationDeletionAlreadyStarted(organization.getId(), deletion.getId());
+                return deletion;
+            }
+        }
+
+        OrganizationDeletion deletion = new OrganizationDeletion(organization, requestedBy);
+        BoundStatement stmtCreate = stmtCreateInstance.get();
+        bindBasicParameters(deletion, stmtCreate);
+        bindDeletionParameters(deletion, stmtCreate);
+
+        // the organization stops being listed as soon as its removal is stored
+        session.execute(new BatchStatement(BatchStatement.Type.LOGGED)
+                .add(stmtCreate)
+                .add(stmtAddBeingDeletedInstance
+                        .get()
+                        .setUUID("organization", deletion.getOrganizationId())
+                        .setUUID("deletion", deletion.getIdAsUUID())));
+        logger.organizationDeletionStarted(organization.getId(), deletion.getId());
+        return deletion;
+    }
+
+    @Override
+    public OrganizationDeletion getById(UUID id) {
+        return getById(id, stmtGetByIdInstance.get());
+    }
+
+    @Override
+    public List<OrganizationDeletion> getUnfinished() {
+        return session.execute(stmtGetAllBeingDeletedInstance.get())
+                .all()
+                .stream()
+                .map(row -> getById(row.getUUID("deletion")))
+                .filter(deletion -> null != deletion)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public List<UUID> getNextBatch(OrganizationDeletion deletion, int size) {
+        BoundStatement stmtGetIds;
+        switch (deletion.getStep()) {
+            case INVITATIONS:
+                stmtGetIds = stmtGetInvitationIdsInstance.get();
+                break;
+            case JOIN_REQUESTS:
+                stmtGetIds = stmtGetJoinRequestIdsInstance.get();
+                break;
+            case MEMBERSHIPS:
+                stmtGetIds = stmtGetMembershipIdsInstance.get();
+                break;
+            default:
+                return Collections.emptyList();
+        }
+
+        stmtGetIds.setUUID("organization", deletion.getOrganizationId());
+        stmtGetIds.setInt("size", size);
+        return session.execute(stmtGetIds)
+                .all()
+                .stream()
+                .map(row -> row.getUUID("id"))
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public void removeItem(OrganizationDeletion deletion, UUID id) {
+        switch (deletion.getStep()) {
+            case INVITATIONS:
+                removeInvitation(deletion, id);
+                break;
+            case JOIN_REQUESTS:
+                removeJoinRequest(deletion, id);
+                break;
+            case MEMBERSHIPS:
+                // the impersonation decisions are invalidated once per batch, when the progress is stored
+                session.execute(stmtRemoveMembershipInstance.get().setUUID("id", id));
+                break;
+            default:
+                throw new IllegalStateException("There are no items to remove on the step " + deletion.getStep());
+        }
+    }
+
+    @Override
+    public void update(OrganizationDeletion deletion) {
+        if (deletion.isFinished()) {
+            finish(deletion);
+            return;
+        }
+
+        BoundStatement stmtUpdate = stmtUpdateInstance.get();
+        stmtUpdate.setString("step", deletion.getStep().name());
+        stmtUpdate.setInt("removed", deletion.getRemoved());
+        stmtUpdate.setBool("finished", deletion.isFinished());
+        stmtUpdate.setString("error", deletion.getError());
+        update(deletion, stmtUpdate);
+
+        if (Step.MEMBERSHIPS.equals(deletion.getStep())) {
+            // the memberships removed so far are used when determining the indirect roles of their members
+            impersonationDecisions.invalidateAll();
+        }
+    }
+
+    @Override
+    public void completeStep(OrganizationDeletion deletion) {
+        if (deletion.isFinished()) {
+            return;
+        }
+
+        if (Step.ORGANIZATION.equals(deletion.getStep())) {
+            // at this point, there's nothing left but the organization itself, so, this is a quick operation
+            Organization organization = organizationService.getById(deletion.getOrganizationId());
+            if (null != organization) {
+                organizationService.deleteOrganization(organization);
+            }
+        }
+
+        deletion.setStep(Step.values()[deletion.getStep().ordinal() + 1]);
+        update(deletion);
+        logger.organizationDeletionStepCompleted(deletion.getId(), deletion.getStep().name());
+    }
+
+    private void finish(OrganizationDeletion deletion) {
+        // the finished removal is written again as a whole, so that it expires entirely
+        deletion.setUpdatedAt();
+        BoundStatement stmtFinish = stmtFinishInstance.get();
+        bindBasicParameters(deletion, stmtFinish);
+        bindDeletionParameters(deletion, stmtFinish);
+
+        session.execute(new BatchStatement(BatchStatement.Type.LOGGED)
+                .add(stmtFinish)
+                .add(stmtRemoveBeingDeletedInstance
+                        .get()
+                        .setUUID("organization", deletion.getOrganizationId())));
+    }
+
+    private void bindDeletionParameters(OrganizationDeletion deletion, BoundStatement statement) {
+        statement.setUUID("organization", deletion.getOrganizationId());
+        statement.setUUID("persona", deletion.getRequestedBy());
+        statement.setString("step", deletion.getStep().name());
+        statement.setInt("removed", deletion.getRemoved());
+        statement.setBool("finished", deletion.isFinished());
+        statement.setString("error", deletion.getError());
+    }
+
+    private void removeInvitation(OrganizationDeletion deletion, UUID id) {
+        Row row = session.execute(stmtGetInvitationInstance.get().setUUID("id", id)).one();
+        if (null == row) {
+            return;
+        }
+
+        if (!row.isNull("acceptedBy")) {
+            revokeAll(deletion, row.getUUID("acceptedBy"));
+        }
+        session.execute(stmtRemoveInvitationInstance.get().setUUID("id", id));
+    }
+
+    private void removeJoinRequest(OrganizationDeletion deletion, UUID id) {
+        Row row = session.execute(stmtGetJoinRequestInstance.get().setUUID("id", id)).one();
+        if (null == row) {
+            return;
+        }
+
+        if (JoinRequestStatus.ACCEPTED.name().equals(row.getString("status"))) {
+            revokeAll(deletion, row.getUUID("persona"));
+        }
+        session.execute(stmtRemoveJoinRequestInstance.get().setUUID("id", id));
+    }
+
+    private void revokeAll(OrganizationDeletion deletion, UUID personaId) {
+        Persona persona = personaService.getById(personaId);
+        Resource resource = resourceService.getById(deletion.getOrganizationId());
+        if (null != persona && null != resource) {
+            resourceService.revokeAllForPersona(resource, persona);
+        }
+    }
+
+    @Override
+    OrganizationDeletion getFromRow(Row row) {
+        OrganizationDeletion.Builder builder = new OrganizationDeletion.Builder();
+        mapBaseFields(row, builder);
+        return builder
+                .organizationId(row.getUUID("organization"))
+                .requestedBy(row.getUUID("persona"))
+                .step(row.getString("step"))
+                .removed(row.getInt("removed"))
+                .error(row.getString("error"))
+                .build();
+    }
+}
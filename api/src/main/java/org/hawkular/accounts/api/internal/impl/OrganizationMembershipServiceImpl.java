@@ -31,6 +31,7 @@ import org.hawkular.accounts.api.PersonaService;
 import org.hawkular.accounts.api.ResourceService;
 import org.hawkular.accounts.api.RoleService;
 import org.hawkular.accounts.api.internal.BoundStatements;
+import org.hawkular.accounts.api.internal.ImpersonationDecisions;
 import org.hawkular.accounts.api.internal.NamedStatement;
 import org.hawkular.accounts.api.model.Member;
 import org.hawkular.accounts.api.model.Organization;
@@ -64,6 +65,9 @@ public class OrganizationMembershipServiceImpl
     @Inject
     RoleService roleService;
 
+    @Inject
+    ImpersonationDecisions impersonationDecisions;
+
     @Inject @NamedStatement(BoundStatements.MEMBERSHIP_GET_BY_ID)
     Instance<BoundStatement> stmtGetByIdInstance;
 
@@ -152,12 +156,15 @@ public class OrganizationMembershipServiceImpl
 
     @Override
     public void remove(OrganizationMembership organizationMembership) {
-        remove(organizationMembership.getIdAsUUID());
+        session.execute(stmtRemoveInstance.get().setUUID("id", organizationMembership.getIdAsUUID()));
+        // memberships are used when determining the indirect roles of a persona
+        impersonationDecisions.invalidate(organizationMembership.getMember());
     }
 
     @Override
     public void remove(UUID id) {
         session.execute(stmtRemoveInstance.get().setUUID("id", id));
+        impersonationDecisions.invalidateAll();
     }
 
     @Override
@@ -16,7 +16,11 @@
  */
 package org.hawkular.accounts.api.internal.impl;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.stream.Collectors;
 
@@ -25,6 +29,7 @@ import javax.ejb.Stateless;
 import javax.enterprise.inject.Instance;
 import javax.inject.Inject;
 
+import org.hawkular.accounts.api.HierarchyService;
 import org.hawkular.accounts.api.InvitationService;
 import org.hawkular.accounts.api.NamedRole;
 import org.hawkular.accounts.api.OrganizationJoinRequestService;
@@ -52,6 +57,8 @@ import com.datastax.driver.core.Row;
 @Stateless
 @PermitAll
 public class OrganizationServiceImpl extends BaseServiceImpl<Organization> implements OrganizationService {
+    private static final int IDS_PER_QUERY = 100;
+
     MsgLogger logger = MsgLogger.LOGGER;
 
     @Inject
@@ -69,6 +76,9 @@ public class OrganizationServiceImpl extends BaseServiceImpl<Organization> imple
     @Inject
     PersonaService personaService;
 
+    @Inject
+    HierarchyService hierarchyService;
+
     @Inject
     @NamedRole("SuperUser")
     Role superUser;
@@ -76,6 +86,9 @@ public class OrganizationServiceImpl extends BaseServiceImpl<Organization> imple
     @Inject @NamedStatement(BoundStatements.ORGANIZATION_GET_BY_ID)
     Instance<BoundStatement> stmtGetByIdInstance;
 
+    @Inject @NamedStatement(BoundStatements.ORGANIZATION_GET_BY_IDS)
+    Instance<BoundStatement> stmtGetByIdsInstance;
+
     @Inject @NamedStatement(BoundStatements.ORGANIZATION_GET_APPLY)
     Instance<BoundStatement> stmtGetApplyInstance;
 
@@ -94,6 +107,9 @@ public class OrganizationServiceImpl extends BaseServiceImpl<Organization> imple
     @Inject @NamedStatement(BoundStatements.ORGANIZATION_TRANSFER)
     Instance<BoundStatement> stmtTransferInstance;
 
+    @Inject @NamedStatement(BoundStatements.ORGANIZATIONS_BEING_DELETED_GET)
+    Instance<BoundStatement> stmtGetBeingDeletedInstance;
+
     @Override
     public Organization getById(UUID id) {
         if (null == id) {
@@ -147,12 +163,14 @@ public class OrganizationServiceImpl extends BaseServiceImpl<Organization> imple
     @Override
     public List<Organization> getOrganizationsToJoin() {
         // TODO: this is dangerous!! we need pagination here, but for now, this is sufficient
-        return getFromRows(session.execute(stmtGetApplyInstance.get()).all());
+        return withoutBeingDeleted(getFromRows(session.execute(stmtGetApplyInstance.get()).all()));
     }
 
     @Override
     public List<Organization> getOrganizationsForPersona(Persona persona) {
-        return getOrganizationsFromMemberships(membershipService.getMembershipsForPersona(persona));
+        return withoutBeingDeleted(
+                getOrganizationsFromMemberships(membershipService.getMembershipsForPersona(persona))
+        );
     }
 
     @Override
@@ -181,7 +199,8 @@ public class OrganizationServiceImpl extends BaseServiceImpl<Organization> imple
         organization.setDescription(description);
         organization.setVisibility(visibility);
 
-        // this is for the permission checker itself
+        // this is for the permission checker itself. as the resource shares the organization's ID, this also adds
+        // the organization to the hierarchy, under its owner
         Resource resource = resourceService.create(organization.getId(), owner);
         resourceService.addRoleToPersona(resource, owner, superUser);
 
@@ -226,6 +245,7 @@ public class OrganizationServiceImpl extends BaseServiceImpl<Organization> imple
         membershipService.getMembershipsForOrganization(organization).stream().forEach(membershipService::remove);
         resourceService.revokeAllForPersona(resource, organization.getOwner());
         resourceService.delete(organization.getId());
+        hierarchyService.remove(organization.getIdAsUUID());
         session.execute(stmtRemoveInstance.get().setUUID("id", organization.getIdAsUUID()));
         logger.finishedRemovalOfOrganization(organization.getId());
     }
@@ -234,33 +254,93 @@ public class OrganizationServiceImpl extends BaseServiceImpl<Organization> imple
     public void transfer(Organization organization, Persona newOwner) {
         logger.startingTransferOfOrganization(organization.getId(), organization.getOwner().getId(), newOwner.getId());
         BoundStatement stmtTransfer = stmtTransferInstance.get();
-        // first, we remove all the current memberships of the new owner, as it will now be super user
+        // first, we change the Resource's owner, which also moves the organization's subtree on the hierarchy. This
+        // is done before anything else, as the move rejects transfers to the organization itself or to one of its
+        // sub organizations
+        Resource resource = resourceService.getById(organization.getIdAsUUID());
+        resourceService.transfer(resource, newOwner);
+
+        // now, we remove all the current memberships of the new owner, as it will now be super user
         membershipService.getPersonaMembershipsForOrganization(newOwner, organization)
                 .stream()
                 .forEach(membershipService::remove);
 
-        // now, we add as super user
+        // and we add it as super user
         membershipService.create(organization, newOwner, superUser);
 
-        // we change the Resource's owner
-        Resource resource = resourceService.getById(organization.getIdAsUUID());
-        resourceService.transfer(resource, newOwner);
-
         // and finally, we change the owner on the organization
         organization.setOwner(newOwner);
         stmtTransfer.setUUID("owner", organization.getOwner().getIdAsUUID());
-        session.execute(stmtTransfer);
+        update(organization, stmtTransfer);
         logger.finishedTransferOfOrganization(organization.getId(), organization.getOwner().getId(), newOwner.getId());
     }
 
     @Override
     public List<Organization> getSubOrganizations(Organization organization) {
-        return getList(stmtGetByOwnerInstance.get().setUUID("owner", organization.getIdAsUUID()));
+        return withoutBeingDeleted(
+                getList(stmtGetByOwnerInstance.get().setUUID("owner", organization.getIdAsUUID()))
+        );
+    }
+
+    /**
+     * The descendants on the hierarchy also include resources, so, the organizations are read by ID in chunks: only
+     * the descendants that are organizations are found. Owners are sub organizations as well, and each one of them is
+     * read only once.
+     */
+    @Override
+    public List<Organization> getAllSubOrganizations(Organization organization) {
+        List<UUID> descendants = hierarchyService.getDescendants(organization.getIdAsUUID());
+        Map<UUID, Persona> owners = new HashMap<>();
+        List<Organization> organizations = new ArrayList<>();
+        for (int i = 0; i < descendants.size(); i += IDS_PER_QUERY) {
+            List<UUID> ids = descendants.subList(i, Math.min(i + IDS_PER_QUERY, descendants.size()));
+            for (Row row : session.execute(stmtGetByIdsInstance.get().setList("ids", ids))) {
+                Persona owner = owners.computeIfAbsent(row.getUUID("owner"), personaService::getById);
+                organizations.add(getFromRow(row, owner));
+            }
+        }
+        return withoutBeingDeleted(organizations);
+    }
+
+    @Override
+    public boolean isSubOrganization(Persona persona, Organization organization) {
+        return hierarchyService.isDescendant(persona.getIdAsUUID(), organization.getIdAsUUID());
+    }
+
+    /**
+     * Organizations that are being removed in background should not be listed anymore. Only the given organizations
+     * are looked up.
+     * @param organizations    the organizations to filter
+     * @return the organizations that are not being removed
+     */
+    private List<Organization> withoutBeingDeleted(List<Organization> organizations) {
+        if (organizations.isEmpty()) {
+            return organizations;
+        }
+
+        List<UUID> ids = organizations.stream().map(Organization::getIdAsUUID).collect(Collectors.toList());
+        Set<UUID> beingDeleted = session.execute(stmtGetBeingDeletedInstance.get().setList("organizations", ids))
+                .all()
+                .stream()
+                .map(row -> row.getUUID("organization"))
+                .collect(Collectors.toSet());
+
+        if (beingDeleted.isEmpty()) {
+            return organizations;
+        }
+
+        return organizations
+                .stream()
+                .filter(o -> !beingDeleted.contains(o.getIdAsUUID()))
+                .collect(Collectors.toList());
     }
 
     @Override
     Organization getFromRow(Row row) {
-        Persona owner = personaService.getById(row.getUUID("owner"));
+        return getFromRow(row, personaService.getById(row.getUUID("owner")));
+    }
+
+    private Organization getFromRow(Row row, Persona owner) {
         String name = row.getString("name");
         String description = row.getString("description");
         String visibility = row.getString("visibility");
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.accounts.api.internal.impl;
+
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import javax.annotation.security.PermitAll;
+import javax.ejb.Stateless;
+import javax.enterprise.inject.Instance;
+import javax.inject.Inject;
+
+import org.hawkular.accounts.api.OutboxService;
+import org.hawkular.accounts.api.internal.BoundStatements;
+import org.hawkular.accounts.api.internal.NamedStatement;
+import org.hawkular.accounts.api.model.OutboxEntry;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.Row;
+
+/**
+ * Claims are made with a lightweight transaction on the number of attempts, so that only one sender wins when two of
+ * them try to claim the same entry at the same time, even on different nodes.
+ * <p>
+ * Completed entries are deleted, and the deletions are then skipped over by each scan for pending entries. To keep
+ * the scans from accumulating tombstones, the outbox table has a {@code gc_grace_seconds} of one hour, instead of the
+ * default of ten days. An entry that comes back because a replica missed its deletion for longer than that is
+ * harmless: its invitation is marked as dispatched, so the entry is completed again without sending anything.
+ *
+ * @author Juraci Paixão Kröhling
+ */
+@Stateless
+@PermitAll
+public class OutboxServiceImpl extends BaseServiceImpl<OutboxEntry> implements OutboxService {
+    private static final int PAGE_SIZE = 100;
+
+    MsgLogger logger = MsgLogger.LOGGER;
+
+    @Inject @NamedStatement(BoundStatements.OUTBOX_GET_BY_ID)
+    Instance<BoundStatement> stmtGetByIdInstance;
+
+    @Inject @NamedStatement(BoundStatements.OUTBOX_GET_ALL)
+    Instance<BoundStatement> stmtGetAllInstance;
+
+    @Inject @NamedStatement(BoundStatements.OUTBOX_CLAIM)
+    Instance<BoundStatement> stmtClaimInstance;
+
+    @Inject @NamedStatement(BoundStatements.OUTBOX_REMOVE)
+    Instance<BoundStatement> stmtRemoveInstance;
+
+    @Override
+    public OutboxEntry getById(UUID id) {
+        return getById(id, stmtGetByIdInstance.get());
+    }
+
+    @Override
+    public OutboxEntry claim(UUID id, long lease) {
+        OutboxEntry entry = getById(id);
+        if (null == entry || isClaimed(entry, ZonedDateTime.now())) {
+            return null;
+        }
+        return claim(entry, lease) ? entry : null;
+    }
+
+    @Override
+    public List<OutboxEntry> claimPending(int max, long lease, long minAge) {
+        ZonedDateTime now = ZonedDateTime.now();
+        ZonedDateTime createdBefore = now.minus(minAge, ChronoUnit.MILLIS);
+        List<OutboxEntry> claimed = new ArrayList<>();
+
+        // the outbox only holds the notifications that haven't been sent yet, so, it's small enough to be scanned.
+        // the rows are fetched page by page, so, we stop reading as soon as we have enough entries.
+        BoundStatement stmtGetAll = stmtGetAllInstance.get();
+        stmtGetAll.setFetchSize(PAGE_SIZE);
+        for (Row row : session.execute(stmtGetAll)) {
+            if (claimed.size() >= max) {
+                break;
+            }
+
+            OutboxEntry entry = getFromRow(row);
+            if (entry.getCreatedAt().isAfter(createdBefore) || isClaimed(entry, now)) {
+                continue;
+            }
+
+            if (claim(entry, lease)) {
+                claimed.add(entry);
+            }
+        }
+        return claimed;
+    }
+
+    @Override
+    public void complete(OutboxEntry entry) {
+        if (null == entry) {
+            throw new IllegalArgumentException("The given outbox entry is invalid (null).");
+        }
+        BoundStatement stmtRemove = stmtRemoveInstance.get();
+        stmtRemove.setUUID("id", entry.getIdAsUUID());
+        session.execute(stmtRemove);
+        logger.outboxEntryCompleted(entry.getId());
+    }
+
+    private boolean isClaimed(OutboxEntry entry, ZonedDateTime now) {
+        return null != entry.getClaimedUntil() && entry.getClaimedUntil().isAfter(now);
+    }
+
+    private boolean claim(OutboxEntry entry, long lease) {
+        int previousAttempts = entry.getAttempts();
+        ZonedDateTime claimedUntil = ZonedDateTime.now().plus(lease, ChronoUnit.MILLIS);
+
+        BoundStatement stmtClaim = stmtClaimInstance.get();
+        stmtClaim.setInt("attempts", previousAttempts + 1);
+        stmtClaim.setInt("previousAttempts", previousAttempts);
+        stmtClaim.setTimestamp("claimedUntil", zonedDateTimeAdapter.convertToDatabaseColumn(claimedUntil));
+        entry.setUpdatedAt();
+        stmtClaim.setTimestamp("updatedAt", zonedDateTimeAdapter.convertToDatabaseColumn(entry.getUpdatedAt()));
+        stmtClaim.setUUID("id", entry.getIdAsUUID());
+
+        if (!session.execute(stmtClaim).wasApplied()) {
+            // someone else claimed it in the meantime
+            return false;
+        }
+
+        entry.setAttempts(previousAttempts + 1);
+        entry.setClaimedUntil(claimedUntil);
+        logger.outboxEntryClaimed(entry.getId(), entry.getAttempts());
+        return true;
+    }
+
+    @Override
+    OutboxEntry getFromRow(Row row) {
+        ZonedDateTime claimedUntil = null;
+        if (!row.isNull("claimedUntil")) {
+            claimedUntil = zonedDateTimeAdapter.convertToEntityAttribute(row.getTimestamp("claimedUntil"));
+        }
+
+        OutboxEntry.Builder builder = new OutboxEntry.Builder();
+        mapBaseFields(row, builder);
+        return builder
+                .kind(row.getString("kind"))
+                .attempts(row.getInt("attempts"))
+                .claimedUntil(claimedUntil)
+                .build();
+    }
+}
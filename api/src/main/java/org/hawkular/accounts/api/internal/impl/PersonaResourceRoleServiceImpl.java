@@ -30,6 +30,7 @@ import org.hawkular.accounts.api.PersonaService;
 import org.hawkular.accounts.api.ResourceService;
 import org.hawkular.accounts.api.RoleService;
 import org.hawkular.accounts.api.internal.BoundStatements;
+import org.hawkular.accounts.api.internal.ImpersonationDecisions;
 import org.hawkular.accounts.api.internal.NamedStatement;
 import org.hawkular.accounts.api.model.Persona;
 import org.hawkular.accounts.api.model.PersonaResourceRole;
@@ -58,6 +59,9 @@ public class PersonaResourceRoleServiceImpl
     @Inject
     RoleService roleService;
 
+    @Inject
+    ImpersonationDecisions impersonationDecisions;
+
     @Inject @NamedStatement(BoundStatements.PRR_GET_BY_ID)
     Instance<BoundStatement> stmtGetByIdInstance;
 
@@ -98,19 +102,22 @@ public class PersonaResourceRoleServiceImpl
         stmtCreate.setUUID("resource", resource.getIdAsUUID());
         stmtCreate.setUUID("role", role.getIdAsUUID());
         session.execute(stmtCreate);
+        impersonationDecisions.invalidate(persona);
         logger.personaResourceRoleCreated(persona.getId(), resource.getId(), role.getName());
         return prr;
     }
 
     @Override
     public void remove(UUID id) {
-        logger.personaResourceRoleRemoved(id.toString());
-        session.execute(stmtRemoveInstance.get().setUUID("id", id));
+        delete(id);
+        // we don't know whose role this was, so, we can't tell which decisions are affected
+        impersonationDecisions.invalidateAll();
     }
 
     @Override
     public void remove(PersonaResourceRole personaResourceRole) {
-        remove(personaResourceRole.getIdAsUUID());
+        delete(personaResourceRole.getIdAsUUID());
+        impersonationDecisions.invalidate(personaResourceRole.getPersona());
         logger.personaResourceRoleRemoved(
                 personaResourceRole.getPersona().getId(),
                 personaResourceRole.getResource().getId(),
@@ -135,4 +142,9 @@ public class PersonaResourceRoleServiceImpl
     public List<PersonaResourceRole> getByResource(Resource resource) {
         return getList(stmtGetByResourceInstance.get().setUUID("resource", resource.getIdAsUUID()));
     }
+
+    private void delete(UUID id) {
+        logger.personaResourceRoleRemoved(id.toString());
+        session.execute(stmtRemoveInstance.get().setUUID("id", id));
+    }
 }
@@ -37,6 +37,8 @@ import org.hawkular.accounts.api.PersonaService;
 import org.hawkular.accounts.api.ResourceService;
 import org.hawkular.accounts.api.RoleService;
 import org.hawkular.accounts.api.UserService;
+import org.hawkular.accounts.api.internal.CurrentRequest;
+import org.hawkular.accounts.api.internal.ImpersonationDecisions;
 import org.hawkular.accounts.api.model.HawkularUser;
 import org.hawkular.accounts.api.model.Organization;
 import org.hawkular.accounts.api.model.OrganizationMembership;
@@ -77,6 +79,12 @@ public class PersonaServiceImpl implements PersonaService {
     @Inject
     private HttpServletRequest httpRequest;
 
+    @Inject
+    CurrentRequest currentRequest;
+
+    @Inject
+    ImpersonationDecisions impersonationDecisions;
+
     public Persona getById(UUID id) {
         return get(id.toString());
     }
@@ -189,6 +197,19 @@ public class PersonaServiceImpl implements PersonaService {
     @Produces
     public Persona getCurrent() {
         String personaId = httpRequest.getHeader("Hawkular-Persona");
+
+        // this is called for each injection point, so, we resolve the persona only once per request
+        Persona current = currentRequest.getPersona(personaId);
+        if (null != current) {
+            return current;
+        }
+
+        current = resolveCurrent(personaId);
+        currentRequest.setPersona(personaId, current);
+        return current;
+    }
+
+    private Persona resolveCurrent(String personaId) {
         if (personaId != null && !personaId.isEmpty()) {
             Persona persona = get(personaId);
             if (null == persona) {
@@ -216,9 +237,16 @@ public class PersonaServiceImpl implements PersonaService {
             return false; // user cannot impersonate another user
         }
 
+        Boolean cached = impersonationDecisions.get(actual, toImpersonate);
+        if (null != cached) {
+            return cached;
+        }
+
         // an organization is a resource
         Resource resource = resourceService.getById(toImpersonate.getIdAsUUID());
         Set<Role> roles = getEffectiveRolesForResource(actual, resource);
-        return roles != null && roles.size() > 0; // at least one role is enough
+        boolean allowed = roles != null && roles.size() > 0; // at least one role is enough
+        impersonationDecisions.put(actual, toImpersonate, allowed);
+        return allowed;
     }
 }
@@ -26,6 +26,7 @@ import javax.ejb.Stateless;
 import javax.enterprise.inject.Instance;
 import javax.inject.Inject;
 
+import org.hawkular.accounts.api.HierarchyService;
 import org.hawkular.accounts.api.NamedRole;
 import org.hawkular.accounts.api.PersonaResourceRoleService;
 import org.hawkular.accounts.api.PersonaService;
@@ -64,6 +65,9 @@ public class ResourceServiceImpl extends BaseServiceImpl<Resource> implements Re
     @Inject
     PersonaService personaService;
 
+    @Inject
+    HierarchyService hierarchyService;
+
     @Inject @NamedStatement(BoundStatements.RESOURCE_GET_BY_ID)
     Instance<BoundStatement> stmtGetByIdInstance;
 
@@ -136,8 +140,12 @@ public class ResourceServiceImpl extends BaseServiceImpl<Resource> implements Re
 
         session.execute(stmtCreate);
 
+        // the persona takes precedence over the parent, just like on the permission checks
         if (persona != null) {
+            hierarchyService.attach(resource.getIdAsUUID(), persona.getIdAsUUID());
             personaResourceRoleService.create(persona, resource, superUser);
+        } else {
+            hierarchyService.attach(resource.getIdAsUUID(), parent.getIdAsUUID());
         }
 
         logger.resourceCreated(resource.getId());
@@ -175,6 +183,8 @@ public class ResourceServiceImpl extends BaseServiceImpl<Resource> implements Re
         } else {
             logger.resourceTransferringNoOwner(resource.getId(), persona.getId());
         }
+        // moving it first also rejects transfers to the resource itself or to one of its descendants
+        hierarchyService.move(resource.getIdAsUUID(), persona.getIdAsUUID());
         resource.setPersona(persona);
         update(resource, stmtTransferInstance.get().setUUID("persona", persona.getIdAsUUID()));
         revokeAllForPersona(resource, persona);
@@ -31,6 +31,8 @@ import javax.inject.Inject;
 import org.hawkular.accounts.api.CurrentUser;
 import org.hawkular.accounts.api.UserService;
 import org.hawkular.accounts.api.internal.BoundStatements;
+import org.hawkular.accounts.api.internal.CurrentRequest;
+import org.hawkular.accounts.api.internal.KnownUsers;
 import org.hawkular.accounts.api.internal.NamedStatement;
 import org.hawkular.accounts.api.model.HawkularUser;
 import org.keycloak.KeycloakPrincipal;
@@ -64,9 +66,20 @@ public class UserServiceImpl extends BaseServiceImpl<HawkularUser> implements Us
     @Inject @NamedStatement(BoundStatements.USER_ALL)
     Instance<BoundStatement> stmtAllUsersInstance;
 
+    @Inject
+    CurrentRequest currentRequest;
+
+    @Inject
+    KnownUsers knownUsers;
+
     @Produces @CurrentUser
     @Override
     public HawkularUser getCurrent() {
+        HawkularUser current = currentRequest.getUser();
+        if (null != current) {
+            return current;
+        }
+
         Principal p = sessionContext.getCallerPrincipal();
         if (!(p instanceof KeycloakPrincipal)) {
             logger.nonAuthRequestWantsPersona();
@@ -77,6 +90,20 @@ public class UserServiceImpl extends BaseServiceImpl<HawkularUser> implements Us
         String id = principal.getName();
         String name = principal.getKeycloakSecurityContext().getToken().getName();
         String email = principal.getKeycloakSecurityContext().getToken().getEmail();
+
+        // if we have seen this user recently and the data on the token is still the same, there's nothing to
+        // read or to write
+        HawkularUser user = knownUsers.get(id, name, email);
+        if (null == user) {
+            user = getOrUpdateCurrent(id, name, email);
+            knownUsers.put(user);
+        }
+
+        currentRequest.setUser(user);
+        return user;
+    }
+
+    private HawkularUser getOrUpdateCurrent(String id, String name, String email) {
         HawkularUser user = getOrCreateByIdAndName(id, name);
 
         boolean needsUpdate = false;
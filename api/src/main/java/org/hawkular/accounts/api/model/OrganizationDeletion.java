@@ -0,0 +1,138 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.accounts.api.model;
+
+import java.time.ZonedDateTime;
+import java.util.UUID;
+
+/**
+ * Tracks the progress of the removal of an organization. Organizations are removed step by step, in background: their
+ * invitations, join requests and memberships are removed first, and the organization itself is removed last. While
+ * the removal is not finished, the organization is not listed anymore.
+ *
+ * @author Juraci Paixão Kröhling
+ */
+public class OrganizationDeletion extends BaseEntity {
+    public enum Step {
+        INVITATIONS, JOIN_REQUESTS, MEMBERSHIPS, ORGANIZATION, FINISHED
+    }
+
+    private final UUID organizationId;
+    private final UUID requestedBy;
+    private Step step = Step.INVITATIONS;
+    private int removed;
+    private String error;
+
+    public OrganizationDeletion(Organization organization, Persona requestedBy) {
+        this.organizationId = organization.getIdAsUUID();
+        this.requestedBy = requestedBy.getIdAsUUID();
+    }
+
+    public OrganizationDeletion(UUID id, ZonedDateTime createdAt, ZonedDateTime updatedAt,
+                                UUID organizationId, UUID requestedBy, Step step, int removed, String error) {
+        super(id, createdAt, updatedAt);
+        this.organizationId = organizationId;
+        this.requestedBy = requestedBy;
+        this.step = step;
+        this.removed = removed;
+        this.error = error;
+    }
+
+    public UUID getOrganizationId() {
+        return organizationId;
+    }
+
+    /**
+     * @return the ID of the persona who requested the removal
+     */
+    public UUID getRequestedBy() {
+        return requestedBy;
+    }
+
+    public Step getStep() {
+        return step;
+    }
+
+    public void setStep(Step step) {
+        this.step = step;
+    }
+
+    /**
+     * @return the number of invitations, join requests and memberships removed so far
+     */
+    public int getRemoved() {
+        return removed;
+    }
+
+    public void addRemoved(int removed) {
+        this.removed += removed;
+    }
+
+    /**
+     * @return why the latest attempt to run the removal has failed, or null if it hasn't. A failed removal is
+     * retried later, from its current step.
+     */
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    public boolean isFinished() {
+        return Step.FINISHED.equals(step);
+    }
+
+    public static class Builder extends BaseEntity.Builder {
+        private UUID organizationId;
+        private UUID requestedBy;
+        private Step step;
+        private int removed;
+        private String error;
+
+        public Builder organizationId(UUID organizationId) {
+            this.organizationId = organizationId;
+            return this;
+        }
+
+        public Builder requestedBy(UUID requestedBy) {
+            this.requestedBy = requestedBy;
+            return this;
+        }
+
+        public Builder step(String step) {
+            this.step = Step.valueOf(step);
+            return this;
+        }
+
+        public Builder removed(int removed) {
+            this.removed = removed;
+            return this;
+        }
+
+        public Builder error(String error) {
+            this.error = error;
+            return this;
+        }
+
+        public OrganizationDeletion build() {
+            return new OrganizationDeletion(id, createdAt, updatedAt, organizationId, requestedBy, step, removed,
+                    error);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.accounts.api.model;
+
+import java.time.ZonedDateTime;
+import java.util.UUID;
+
+/**
+ * Records a notification that still has to be sent for a change that has been stored. The entry is written together
+ * with the change that triggered it and shares its ID, so, the notification survives a restart of the server that
+ * was about to send it.
+ *
+ * @author Juraci Paixão Kröhling
+ */
+public class OutboxEntry extends BaseEntity {
+    public static final String KIND_INVITATION = "invitation";
+
+    private final String kind;
+    private int attempts;
+    private ZonedDateTime claimedUntil;
+
+    public OutboxEntry(UUID id, String kind) {
+        super(id);
+        this.kind = kind;
+    }
+
+    public OutboxEntry(UUID id, ZonedDateTime createdAt, ZonedDateTime updatedAt,
+                       String kind, int attempts, ZonedDateTime claimedUntil) {
+        super(id, createdAt, updatedAt);
+        this.kind = kind;
+        this.attempts = attempts;
+        this.claimedUntil = claimedUntil;
+    }
+
+    public String getKind() {
+        return kind;
+    }
+
+    /**
+     * @return how many times this entry has been claimed for sending
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    /**
+     * @return until when the current claim is valid, or null if the entry has never been claimed
+     */
+    public ZonedDateTime getClaimedUntil() {
+        return claimedUntil;
+    }
+
+    public void setClaimedUntil(ZonedDateTime claimedUntil) {
+        this.claimedUntil = claimedUntil;
+    }
+
+    public static class Builder extends BaseEntity.Builder {
+        private String kind;
+        private int attempts;
+        private ZonedDateTime claimedUntil;
+
+        public Builder kind(String kind) {
+            this.kind = kind;
+            return this;
+        }
+
+        public Builder attempts(int attempts) {
+            this.attempts = attempts;
+            return this;
+        }
+
+        public Builder claimedUntil(ZonedDateTime claimedUntil) {
+            this.claimedUntil = claimedUntil;
+            return this;
+        }
+
+        public OutboxEntry build() {
+            return new OutboxEntry(id, createdAt, updatedAt, kind, attempts, claimedUntil);
+        }
+    }
+}
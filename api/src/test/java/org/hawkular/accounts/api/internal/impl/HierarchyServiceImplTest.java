@@ -0,0 +1,127 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.accounts.api.internal.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import org.hawkular.accounts.api.model.HawkularUser;
+import org.hawkular.accounts.api.model.Organization;
+import org.hawkular.accounts.api.model.Resource;
+import org.junit.Test;
+
+/**
+ * @author Juraci Paixão Kröhling
+ */
+public class HierarchyServiceImplTest extends SessionEnabledTest {
+    @Test
+    public void organizationsAndResourcesAreAddedToHierarchy() {
+        HawkularUser jdoe = userService.getOrCreateById(UUID.randomUUID().toString());
+        Organization acme = organizationService.createOrganization(UUID.randomUUID().toString(), "", jdoe);
+        Organization marketing = organizationService.createOrganization(UUID.randomUUID().toString(), "", acme);
+        Resource website = resourceService.create(UUID.randomUUID().toString(), marketing);
+        Resource page = resourceService.create(UUID.randomUUID().toString(), website);
+
+        assertEquals("The page should have all the nodes above it as ancestors, from the closest",
+                Arrays.asList(website.getIdAsUUID(), marketing.getIdAsUUID(), acme.getIdAsUUID(), jdoe.getIdAsUUID()),
+                hierarchyService.getAncestors(page.getIdAsUUID()));
+
+        List<UUID> descendants = hierarchyService.getDescendants(acme.getIdAsUUID());
+        assertEquals("The organization should have all the nodes below it as descendants", 3, descendants.size());
+        assertTrue(descendants.contains(page.getIdAsUUID()));
+
+        assertTrue("The page should be under the user", hierarchyService.isDescendant(page.getIdAsUUID(),
+                jdoe.getIdAsUUID()));
+        assertFalse("The user should not be under the page", hierarchyService.isDescendant(jdoe.getIdAsUUID(),
+                page.getIdAsUUID()));
+        assertFalse("A node should not be under itself", hierarchyService.isDescendant(page.getIdAsUUID(),
+                page.getIdAsUUID()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void existingResourcesAreAddedWhenTouched() {
+        HawkularUser jdoe = userService.getOrCreateById(UUID.randomUUID().toString());
+        Organization acme = organizationService.createOrganization(UUID.randomUUID().toString(), "", jdoe);
+        Organization marketing = organizationService.createOrganization(UUID.randomUUID().toString(), "", acme);
+        Resource website = resourceService.create(UUID.randomUUID().toString(), marketing);
+
+        // as if they had been created before the hierarchy was tracked
+        hierarchyService.remove(website.getIdAsUUID());
+        hierarchyService.remove(marketing.getIdAsUUID());
+        hierarchyService.remove(acme.getIdAsUUID());
+
+        assertTrue("The resource should be found under the user", hierarchyService.isDescendant(
+                website.getIdAsUUID(), jdoe.getIdAsUUID()));
+        assertTrue("The sub organization should be found under the organization",
+                organizationService.isSubOrganization(marketing, acme));
+
+        // an organization cannot be transferred to its own sub organization
+        organizationService.transfer(acme, marketing);
+    }
+
+    @Test
+    public void subtreeIsMovedOnTransfer() {
+        HawkularUser jdoe = userService.getOrCreateById(UUID.randomUUID().toString());
+        Organization acme = organizationService.createOrganization(UUID.randomUUID().toString(), "", jdoe);
+        Organization marketing = organizationService.createOrganization(UUID.randomUUID().toString(), "", acme);
+        Organization sales = organizationService.createOrganization(UUID.randomUUID().toString(), "", jdoe);
+        Resource website = resourceService.create(UUID.randomUUID().toString(), marketing);
+
+        organizationService.transfer(marketing, sales);
+
+        assertEquals("The resource should have been moved along with its organization",
+                Arrays.asList(marketing.getIdAsUUID(), sales.getIdAsUUID(), jdoe.getIdAsUUID()),
+                hierarchyService.getAncestors(website.getIdAsUUID()));
+        assertFalse("The old organization should not have the resource anymore",
+                hierarchyService.isDescendant(website.getIdAsUUID(), acme.getIdAsUUID()));
+        assertTrue("The user should still have the resource",
+                hierarchyService.isDescendant(website.getIdAsUUID(), jdoe.getIdAsUUID()));
+        assertEquals("The new organization should have the sub organization",
+                1, organizationService.getAllSubOrganizations(sales).size());
+        assertEquals("The old organization should have no sub organizations",
+                0, organizationService.getAllSubOrganizations(acme).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cannotTransferToSubOrganization() {
+        HawkularUser jdoe = userService.getOrCreateById(UUID.randomUUID().toString());
+        Organization acme = organizationService.createOrganization(UUID.randomUUID().toString(), "", jdoe);
+        Organization marketing = organizationService.createOrganization(UUID.randomUUID().toString(), "", acme);
+        Organization campaigns = organizationService.createOrganization(UUID.randomUUID().toString(), "", marketing);
+
+        organizationService.transfer(acme, campaigns);
+    }
+
+    @Test
+    public void removedNodeIsNotPartOfHierarchy() {
+        HawkularUser jdoe = userService.getOrCreateById(UUID.randomUUID().toString());
+        Organization acme = organizationService.createOrganization(UUID.randomUUID().toString(), "", jdoe);
+        Organization marketing = organizationService.createOrganization(UUID.randomUUID().toString(), "", acme);
+
+        organizationService.deleteOrganization(marketing);
+
+        assertFalse("The removed organization should not be under its owner anymore",
+                hierarchyService.isDescendant(marketing.getIdAsUUID(), acme.getIdAsUUID()));
+        assertTrue("The removed organization should not have ancestors",
+                hierarchyService.getAncestors(marketing.getIdAsUUID()).isEmpty());
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.accounts.api.internal.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.UUID;
+
+import org.hawkular.accounts.api.model.HawkularUser;
+import org.hawkular.accounts.api.model.Organization;
+import org.hawkular.accounts.api.model.OrganizationDeletion;
+import org.hawkular.accounts.api.model.OrganizationJoinRequest;
+import org.hawkular.accounts.api.model.Visibility;
+import org.junit.Test;
+
+/**
+ * @author Juraci Paixão Kröhling
+ */
+public class OrganizationDeletionServiceImplTest extends SessionEnabledTest {
+    @Test
+    public void organizationBeingDeletedIsNotListed() {
+        HawkularUser jdoe = userService.getOrCreateById(UUID.randomUUID().toString());
+        HawkularUser jsmith = userService.getOrCreateById(UUID.randomUUID().toString());
+        Organization acme = organizationService.createOrganization(UUID.randomUUID().toString(), "",
+                Visibility.APPLY, jdoe);
+
+        deletionService.start(acme, jdoe);
+
+        assertFalse("The organization should not be listed for its owner",
+                organizationService.getOrganizationsForPersona(jdoe).contains(acme));
+        assertFalse("The organization should not be available to join",
+                organizationService.getFilteredOrganizationsToJoin(jsmith).contains(acme));
+    }
+
+    @Test
+    public void subOrganizationBeingDeletedIsNotListed() {
+        HawkularUser jdoe = userService.getOrCreateById(UUID.randomUUID().toString());
+        Organization acme = organizationService.createOrganization(UUID.randomUUID().toString(), "", jdoe);
+        Organization marketing = organizationService.createOrganization(UUID.randomUUID().toString(), "", acme);
+
+        deletionService.start(marketing, jdoe);
+
+        assertFalse("The sub-organization should not be listed",
+                organizationService.getSubOrganizations(acme).contains(marketing));
+        assertFalse("The sub-organization should not be listed among all sub-organizations",
+                organizationService.getAllSubOrganizations(acme).contains(marketing));
+    }
+
+    @Test
+    public void removalIsStartedOnlyOnce() {
+        HawkularUser jdoe = userService.getOrCreateById(UUID.randomUUID().toString());
+        Organization acme = organizationService.createOrganization(UUID.randomUUID().toString(), "", jdoe);
+
+        OrganizationDeletion first = deletionService.start(acme, jdoe);
+        OrganizationDeletion second = deletionService.start(acme, jdoe);
+        assertEquals("The removal in progress should have been returned", first, second);
+        assertTrue("The removal should be unfinished", deletionService.getUnfinished().contains(first));
+    }
+
+    @Test
+    public void removeOrganizationInBatches() {
+        HawkularUser jdoe = userService.getOrCreateById(UUID.randomUUID().toString());
+        HawkularUser jsmith = userService.getOrCreateById(UUID.randomUUID().toString());
+        Organization acme = organizationService.createOrganization(UUID.randomUUID().toString(), "",
+                Visibility.APPLY, jdoe);
+
+        invitationService.create("jsmith@example.com", jdoe, acme, monitor);
+        invitationService.accept(invitationService.create("jane@example.com", jdoe, acme, monitor), jsmith);
+        OrganizationJoinRequest request = joinRequestService.create(acme, jsmith);
+        joinRequestService.reject(request);
+
+        OrganizationDeletion deletion = deletionService.start(acme, jdoe);
+        int batches = 0;
+        while (!deletion.isFinished()) {
+            List<UUID> batch = deletionService.getNextBatch(deletion, 1);
+            if (batch.isEmpty()) {
+                deletionService.completeStep(deletion);
+                continue;
+            }
+            batch.forEach(item -> deletionService.removeItem(deletion, item));
+            deletion.addRemoved(batch.size());
+            deletionService.update(deletion);
+            batches++;
+        }
+
+        // two invitations, one join request and two memberships (the owner's and the one from the invitation)
+        assertEquals("Each item should have been removed in its own batch", 5, batches);
+        assertNull("The organization should have been removed", organizationService.getById(acme.getIdAsUUID()));
+        assertTrue("The invitations should have been removed",
+                invitationService.getInvitationsForOrganization(acme).isEmpty());
+
+        OrganizationDeletion stored = deletionService.getById(deletion.getIdAsUUID());
+        assertTrue("The removal should be finished", stored.isFinished());
+        assertEquals("The progress should have been stored", 5, stored.getRemoved());
+        assertFalse("The removal should not be unfinished", deletionService.getUnfinished().contains(stored));
+    }
+}
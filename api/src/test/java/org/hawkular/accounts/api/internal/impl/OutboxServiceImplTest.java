@@ -0,0 +1,103 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.accounts.api.internal.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import org.hawkular.accounts.api.model.HawkularUser;
+import org.hawkular.accounts.api.model.Invitation;
+import org.hawkular.accounts.api.model.Organization;
+import org.hawkular.accounts.api.model.OutboxEntry;
+import org.junit.Test;
+
+/**
+ * @author Juraci Paixão Kröhling
+ */
+public class OutboxServiceImplTest extends SessionEnabledTest {
+    @Test
+    public void invitationIsAddedToOutbox() {
+        Invitation invitation = createInvitation();
+        OutboxEntry entry = outboxService.getById(invitation.getIdAsUUID());
+        assertNotNull("The outbox entry should have been created with the invitation", entry);
+        assertEquals("The entry should be for an invitation", OutboxEntry.KIND_INVITATION, entry.getKind());
+        assertEquals("The entry should not have been attempted yet", 0, entry.getAttempts());
+        assertNull("The entry should not have been claimed yet", entry.getClaimedUntil());
+    }
+
+    @Test
+    public void entryIsClaimedOnlyOnce() {
+        Invitation invitation = createInvitation();
+        OutboxEntry entry = outboxService.claim(invitation.getIdAsUUID(), 60000);
+        assertNotNull("The first claim should succeed", entry);
+        assertEquals("The claim should count as an attempt", 1, entry.getAttempts());
+        assertNull("The second claim should fail", outboxService.claim(invitation.getIdAsUUID(), 60000));
+    }
+
+    @Test
+    public void expiredClaimCanBeClaimedAgain() throws InterruptedException {
+        Invitation invitation = createInvitation();
+        assertNotNull(outboxService.claim(invitation.getIdAsUUID(), 1));
+        Thread.sleep(10);
+        OutboxEntry entry = outboxService.claim(invitation.getIdAsUUID(), 60000);
+        assertNotNull("The entry should be claimable once the claim expires", entry);
+        assertEquals("The second claim should count as another attempt", 2, entry.getAttempts());
+    }
+
+    @Test
+    public void claimPendingSkipsClaimedAndRecentEntries() throws InterruptedException {
+        Invitation claimed = createInvitation();
+        Invitation pending = createInvitation();
+        outboxService.claim(claimed.getIdAsUUID(), 60000);
+
+        List<UUID> recent = outboxService.claimPending(Integer.MAX_VALUE, 60000, 60000)
+                .stream()
+                .map(OutboxEntry::getIdAsUUID)
+                .collect(Collectors.toList());
+        assertFalse("Recent entries should not be claimed", recent.contains(pending.getIdAsUUID()));
+
+        Thread.sleep(10);
+        List<UUID> ids = outboxService.claimPending(Integer.MAX_VALUE, 60000, 1)
+                .stream()
+                .map(OutboxEntry::getIdAsUUID)
+                .collect(Collectors.toList());
+        assertTrue("The pending entry should have been claimed", ids.contains(pending.getIdAsUUID()));
+        assertFalse("The claimed entry should have been skipped", ids.contains(claimed.getIdAsUUID()));
+    }
+
+    @Test
+    public void completedEntryIsRemoved() {
+        Invitation invitation = createInvitation();
+        OutboxEntry entry = outboxService.claim(invitation.getIdAsUUID(), 60000);
+        outboxService.complete(entry);
+        assertNull("The entry should have been removed", outboxService.getById(invitation.getIdAsUUID()));
+        assertNull("A completed entry cannot be claimed", outboxService.claim(invitation.getIdAsUUID(), 60000));
+    }
+
+    private Invitation createInvitation() {
+        HawkularUser jdoe = userService.getOrCreateById(UUID.randomUUID().toString());
+        Organization acme = organizationService.createOrganization(UUID.randomUUID().toString(), "", jdoe);
+        return invitationService.create("email", jdoe, acme, monitor);
+    }
+}
@@ -28,6 +28,7 @@ import java.util.function.Predicate;
 
 import org.hawkular.accounts.api.model.HawkularUser;
 import org.hawkular.accounts.api.model.Organization;
+import org.hawkular.accounts.api.model.OrganizationMembership;
 import org.hawkular.accounts.api.model.Resource;
 import org.hawkular.accounts.api.model.Role;
 import org.junit.Test;
@@ -151,6 +152,20 @@ public class PersonaServiceImplTest extends SessionEnabledTest {
                 personaService.isAllowedToImpersonate(jdoe, org1));
     }
 
+    @Test
+    public void userCannotImpersonateOrganizationAfterLeavingIt() {
+        HawkularUser jdoe = userService.getOrCreateById(UUID.randomUUID().toString());
+        HawkularUser jsmith = userService.getOrCreateById(UUID.randomUUID().toString());
+        Organization org1 = organizationService.createOrganization(UUID.randomUUID().toString(), "Acme", jsmith);
+        OrganizationMembership membership = membershipService.create(org1, jdoe, monitor);
+        assertTrue("User should be allowed to impersonate org", personaService.isAllowedToImpersonate(jdoe, org1));
+
+        membershipService.remove(membership);
+        resourceService.revokeAllForPersona(resourceService.get(org1.getId()), jdoe);
+        assertFalse("User should not be allowed to impersonate org after leaving it",
+                personaService.isAllowedToImpersonate(jdoe, org1));
+    }
+
     @Test
     public void userCannotImpersonateAnotherUser() {
         HawkularUser jdoe = userService.getOrCreateById(UUID.randomUUID().toString());
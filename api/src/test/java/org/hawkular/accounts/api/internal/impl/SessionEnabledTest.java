@@ -35,6 +35,9 @@ import org.apache.cassandra.service.EmbeddedCassandraService;
 import org.apache.thrift.transport.TTransportException;
 import org.hawkular.accounts.api.internal.ApplicationResources;
 import org.hawkular.accounts.api.internal.BoundStatements;
+import org.hawkular.accounts.api.internal.CurrentRequest;
+import org.hawkular.accounts.api.internal.ImpersonationDecisions;
+import org.hawkular.accounts.api.internal.KnownUsers;
 import org.hawkular.accounts.api.model.Role;
 import org.hawkular.accounts.common.ZonedDateTimeAdapter;
 import org.hawkular.commons.cassandra.CassandraYaml;
@@ -43,6 +46,7 @@ import org.junit.Before;
 
 import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.PreparedStatement;
 import com.datastax.driver.core.ProtocolVersion;
 import com.datastax.driver.core.Session;
 import com.datastax.driver.core.exceptions.NoHostAvailableException;
@@ -73,6 +77,9 @@ public abstract class SessionEnabledTest {
     PermissionCheckerImpl permissionChecker = new PermissionCheckerImpl();
     UserSettingsServiceImpl settingsService = new UserSettingsServiceImpl();
     OrganizationJoinRequestServiceImpl joinRequestService = new OrganizationJoinRequestServiceImpl();
+    OutboxServiceImpl outboxService = new OutboxServiceImpl();
+    HierarchyServiceImpl hierarchyService = new HierarchyServiceImpl();
+    OrganizationDeletionServiceImpl deletionService = new OrganizationDeletionServiceImpl();
     Role superUser;
     Role administrator;
     Role auditor;
@@ -86,6 +93,7 @@ public abstract class SessionEnabledTest {
         prepareCassandra();
         ApplicationResources resources = new ApplicationResources();
         resources.setSession(session);
+        ImpersonationDecisions impersonationDecisions = new ImpersonationDecisions();
 
         ZonedDateTimeAdapter zonedDateTimeAdapter = new ZonedDateTimeAdapter();
 
@@ -101,6 +109,8 @@ public abstract class SessionEnabledTest {
         userService.stmtAllUsersInstance = getMocked(BoundStatements.USER_ALL);
         userService.stmtGetByIdInstance = getMocked(BoundStatements.USER_GET_BY_ID);
         userService.stmtUpdateInstance = getMocked(BoundStatements.USER_UPDATE);
+        userService.currentRequest = new CurrentRequest();
+        userService.knownUsers = new KnownUsers();
 
         permissionService.session = session;
         permissionService.zonedDateTimeAdapter = zonedDateTimeAdapter;
@@ -123,6 +133,7 @@ public abstract class SessionEnabledTest {
         resourceService.zonedDateTimeAdapter = zonedDateTimeAdapter;
         resourceService.personaResourceRoleService = personaResourceRoleService;
         resourceService.personaService = personaService;
+        resourceService.hierarchyService = hierarchyService;
         resourceService.stmtGetByIdInstance = getMocked(BoundStatements.RESOURCE_GET_BY_ID);
         resourceService.stmtGetByPersonaInstance = getMocked(BoundStatements.RESOURCE_GET_BY_PERSONA);
         resourceService.stmtCreateInstance = getMocked(BoundStatements.RESOURCE_CREATE);
@@ -138,6 +149,7 @@ public abstract class SessionEnabledTest {
         personaResourceRoleService.stmtGetByPersonaInstance = getMocked(BoundStatements.PRR_GET_BY_PERSONA);
         personaResourceRoleService.stmtGetByResourceInstance = getMocked(BoundStatements.PRR_GET_BY_RESOURCE);
         personaResourceRoleService.stmtRemoveInstance = getMocked(BoundStatements.PRR_REMOVE);
+        personaResourceRoleService.impersonationDecisions = impersonationDecisions;
 
         membershipService.session = session;
         membershipService.zonedDateTimeAdapter = zonedDateTimeAdapter;
@@ -151,6 +163,7 @@ public abstract class SessionEnabledTest {
         membershipService.stmtCreateInstance = getMocked(BoundStatements.MEMBERSHIP_CREATE);
         membershipService.stmtChangeRoleInstance = getMocked(BoundStatements.MEMBERSHIP_CHANGE_ROLE);
         membershipService.stmtGetByOrganizationInstance = getMocked(BoundStatements.MEMBERSHIP_GET_BY_ORGANIZATION);
+        membershipService.impersonationDecisions = impersonationDecisions;
 
         organizationService.session = session;
         organizationService.zonedDateTimeAdapter = zonedDateTimeAdapter;
@@ -158,14 +171,17 @@ public abstract class SessionEnabledTest {
         organizationService.resourceService = resourceService;
         organizationService.invitationService = invitationService;
         organizationService.personaService = personaService;
+        organizationService.hierarchyService = hierarchyService;
         organizationService.joinRequestService = joinRequestService;
         organizationService.stmtCreateInstance = getMocked(BoundStatements.ORGANIZATION_CREATE);
         organizationService.stmtGetByIdInstance = getMocked(BoundStatements.ORGANIZATION_GET_BY_ID);
+        organizationService.stmtGetByIdsInstance = getMocked(BoundStatements.ORGANIZATION_GET_BY_IDS);
         organizationService.stmtGetByNameInstance = getMocked(BoundStatements.ORGANIZATION_GET_BY_NAME);
         organizationService.stmtGetByOwnerInstance = getMocked(BoundStatements.ORGANIZATION_GET_BY_OWNER);
         organizationService.stmtTransferInstance = getMocked(BoundStatements.ORGANIZATION_TRANSFER);
         organizationService.stmtRemoveInstance = getMocked(BoundStatements.ORGANIZATION_REMOVE);
         organizationService.stmtGetApplyInstance = getMocked(BoundStatements.ORGANIZATION_GET_APPLY);
+        organizationService.stmtGetBeingDeletedInstance = getMocked(BoundStatements.ORGANIZATIONS_BEING_DELETED_GET);
 
         invitationService.session = session;
         invitationService.zonedDateTimeAdapter = zonedDateTimeAdapter;
@@ -179,6 +195,53 @@ public abstract class SessionEnabledTest {
         invitationService.stmtDeleteInstance = getMocked(BoundStatements.INVITATIONS_DELETE);
         invitationService.stmtDispatchedInstance = getMocked(BoundStatements.INVITATIONS_DISPATCH);
         invitationService.stmtGetByOrganizationInstance = getMocked(BoundStatements.INVITATIONS_GET_BY_ORGANIZATION);
+        invitationService.stmtCreateOutboxInstance = getMocked(BoundStatements.OUTBOX_CREATE);
+
+        outboxService.session = session;
+        outboxService.zonedDateTimeAdapter = zonedDateTimeAdapter;
+        outboxService.stmtGetByIdInstance = getMocked(BoundStatements.OUTBOX_GET_BY_ID);
+        outboxService.stmtGetAllInstance = getMocked(BoundStatements.OUTBOX_GET_ALL);
+        outboxService.stmtClaimInstance = getMocked(BoundStatements.OUTBOX_CLAIM);
+        outboxService.stmtRemoveInstance = getMocked(BoundStatements.OUTBOX_REMOVE);
+
+        hierarchyService.session = session;
+        hierarchyService.stmtGetDescendantsInstance = getMocked(BoundStatements.HIERARCHY_GET_DESCENDANTS);
+        hierarchyService.stmtGetAncestorsInstance = getMocked(BoundStatements.HIERARCHY_GET_ANCESTORS);
+        hierarchyService.stmtGetDepthInstance = getMocked(BoundStatements.HIERARCHY_GET_DEPTH);
+        hierarchyService.stmtAddDescendantInstance = getMocked(BoundStatements.HIERARCHY_ADD_DESCENDANT);
+        hierarchyService.stmtAddAncestorInstance = getMocked(BoundStatements.HIERARCHY_ADD_ANCESTOR);
+        hierarchyService.stmtRemoveDescendantInstance = getMocked(BoundStatements.HIERARCHY_REMOVE_DESCENDANT);
+        hierarchyService.stmtRemoveAncestorInstance = getMocked(BoundStatements.HIERARCHY_REMOVE_ANCESTOR);
+        hierarchyService.stmtGetResourceInstance = getMocked(BoundStatements.RESOURCE_GET_BY_ID);
+        hierarchyService.stmtGetAllResourcesInstance = getMocked(BoundStatements.RESOURCE_GET_ALL_IDS);
+        hierarchyService.stmtClaimMigrationInstance = getMocked(BoundStatements.MIGRATION_CLAIM);
+        hierarchyService.stmtFinishMigrationInstance = getMocked(BoundStatements.MIGRATION_FINISH);
+
+        deletionService.session = session;
+        deletionService.zonedDateTimeAdapter = zonedDateTimeAdapter;
+        deletionService.organizationService = organizationService;
+        deletionService.resourceService = resourceService;
+        deletionService.personaService = personaService;
+        deletionService.impersonationDecisions = impersonationDecisions;
+        deletionService.stmtGetByIdInstance = getMocked(BoundStatements.ORGANIZATION_DELETION_GET_BY_ID);
+        deletionService.stmtGetBeingDeletedInstance = getMocked(BoundStatements.ORGANIZATIONS_BEING_DELETED_GET);
+        deletionService.stmtGetAllBeingDeletedInstance =
+                getMocked(BoundStatements.ORGANIZATIONS_BEING_DELETED_GET_ALL);
+        deletionService.stmtAddBeingDeletedInstance = getMocked(BoundStatements.ORGANIZATIONS_BEING_DELETED_ADD);
+        deletionService.stmtRemoveBeingDeletedInstance =
+                getMocked(BoundStatements.ORGANIZATIONS_BEING_DELETED_REMOVE);
+        deletionService.stmtCreateInstance = getMocked(BoundStatements.ORGANIZATION_DELETION_CREATE);
+        deletionService.stmtUpdateInstance = getMocked(BoundStatements.ORGANIZATION_DELETION_UPDATE);
+        deletionService.stmtFinishInstance = getMocked(BoundStatements.ORGANIZATION_DELETION_FINISH);
+        deletionService.stmtGetInvitationIdsInstance = getMocked(BoundStatements.INVITATIONS_GET_IDS_BY_ORGANIZATION);
+        deletionService.stmtGetJoinRequestIdsInstance =
+                getMocked(BoundStatements.JOIN_REQUEST_GET_IDS_BY_ORGANIZATION);
+        deletionService.stmtGetMembershipIdsInstance = getMocked(BoundStatements.MEMBERSHIP_GET_IDS_BY_ORGANIZATION);
+        deletionService.stmtGetInvitationInstance = getMocked(BoundStatements.INVITATION_GET_BY_TOKEN);
+        deletionService.stmtRemoveInvitationInstance = getMocked(BoundStatements.INVITATIONS_DELETE);
+        deletionService.stmtGetJoinRequestInstance = getMocked(BoundStatements.JOIN_REQUEST_GET_BY_ID);
+        deletionService.stmtRemoveJoinRequestInstance = getMocked(BoundStatements.JOIN_REQUEST_REMOVE);
+        deletionService.stmtRemoveMembershipInstance = getMocked(BoundStatements.MEMBERSHIP_REMOVE);
 
         settingsService.session = session;
         settingsService.zonedDateTimeAdapter = zonedDateTimeAdapter;
@@ -207,6 +270,8 @@ public abstract class SessionEnabledTest {
         personaService.resourceService = resourceService;
         personaService.roleService = roleService;
         personaService.personaResourceRoleService = personaResourceRoleService;
+        personaService.currentRequest = new CurrentRequest();
+        personaService.impersonationDecisions = impersonationDecisions;
 
         permissionChecker.permissionService = permissionService;
         permissionChecker.personaService = personaService;
@@ -303,9 +368,11 @@ public abstract class SessionEnabledTest {
     }
 
     private Instance<BoundStatement> getMocked(BoundStatements stmtName) {
+        // just like the CDI producer, each call returns a new statement, as a batch might have several of them
+        PreparedStatement prepared = session.prepare(stmtName.getValue());
         Instance<BoundStatement> mocked = mock(Instance.class);
         when(mocked.get())
-                .thenReturn(new BoundStatement(session.prepare(stmtName.getValue())));
+                .thenAnswer(invocation -> new BoundStatement(prepared));
         return mocked;
     }
 
@@ -19,6 +19,7 @@ package org.hawkular.accounts.api.internal.impl;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 
 import java.io.IOException;
 import java.security.Identity;
@@ -61,6 +62,16 @@ public class UserServiceImplTest extends SessionEnabledTest {
         assertEquals("There should 1 persona at the end of the test", numExistingUsers+1, existingUsers.size());
     }
 
+    @Test
+    public void currentUserIsResolvedOncePerRequest() throws IOException {
+        int numExistingUsers = userService.getAll().size();
+        HawkularUser user = userService.getCurrent();
+        assertSame("The current user should be the same for the whole request", user, userService.getCurrent());
+
+        List<HawkularUser> existingUsers = userService.getAll();
+        assertEquals("There should 1 persona at the end of the test", numExistingUsers+1, existingUsers.size());
+    }
+
     @Test
     public void createUserOnDemandBasedOnUserId() throws IOException {
         int numExistingUsers = userService.getAll().size();
@@ -44,6 +44,7 @@ public class ApplicationResources {
     private String serverUrl;
     private String resourceName;
     private String secret;
+    private String realmPublicKey;
     private String cassandraPort;
     private String cassandraNodes;
 
@@ -116,6 +117,14 @@ public class ApplicationResources {
         return secret;
     }
 
+    @Produces @RealmPublicKey
+    public String getRealmPublicKey() {
+        if (!realmConfigurationParsed) {
+            parseRealmConfiguration();
+        }
+        return realmPublicKey;
+    }
+
     private void parseRealmConfiguration() {
         logger.parsingRealmConfiguration();
         JsonReader jsonReader = Json.createReader(new StringReader(getRealmConfiguration()));
@@ -125,6 +134,7 @@ public class ApplicationResources {
         realmName = configurationJson.getString("realm");
         resourceName = configurationJson.getString("resource");
         secret = credentials.getString("secret");
+        realmPublicKey = configurationJson.getString("realm-public-key", null);
 
         if (configurationJson.containsKey("auth-server-url-for-backend-requests")) {
             serverUrl = configurationJson.getString("auth-server-url-for-backend-requests");
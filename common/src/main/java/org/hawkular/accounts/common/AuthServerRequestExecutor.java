@@ -16,33 +16,103 @@
  */
 package org.hawkular.accounts.common;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.SocketTimeoutException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.Base64;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedExecutorService;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 
+import org.hawkular.accounts.common.internal.Bulkhead;
+import org.hawkular.accounts.common.internal.CircuitBreaker;
 import org.hawkular.accounts.common.internal.MsgLogger;
 
 /**
+ * Executes HTTP requests against the Keycloak server.
+ * <p>
+ * Connections are kept alive and reused by the JDK's connection cache, as long as the response is fully consumed,
+ * which is always done by this executor. The connect and read timeouts are read once from the system properties
+ * {@code org.hawkular.accounts.http.connect-timeout} and {@code org.hawkular.accounts.http.read-timeout}, both
+ * defaulting to {@code org.hawkular.accounts.http.timeout} (5 seconds). The number of concurrent connections opened
+ * by this executor is limited by {@code org.hawkular.accounts.http.pool-size}, which defaults to the JDK's
+ * {@code http.maxConnections} (5): connections above that number are closed instead of being kept alive, so both
+ * properties should be raised together.
+ * <p>
+ * Requests are protected by a bulkhead and a circuit breaker, so that a degraded Keycloak server doesn't exhaust the
+ * container's threads. Callers wait at most {@code org.hawkular.accounts.http.bulkhead.max-wait} (1 second) for a
+ * free connection. Connection failures, timeouts and server errors (5xx) are recorded by the circuit breaker over the
+ * latest {@code org.hawkular.accounts.http.circuit-breaker.window-size} (20) requests. Once the failure rate reaches
+ * {@code org.hawkular.accounts.http.circuit-breaker.failure-rate-threshold} (50 percent), with at least
+ * {@code org.hawkular.accounts.http.circuit-breaker.minimum-calls} (10) recorded requests, requests fail fast for
+ * {@code org.hawkular.accounts.http.circuit-breaker.open-duration} (30 seconds). After that,
+ * {@code org.hawkular.accounts.http.circuit-breaker.half-open-probes} (3) requests are let through to probe the
+ * server. Rejected requests fail with {@link AuthServerUnavailableException}.
+ *
  * @author Juraci Paixão Kröhling
  */
 @ApplicationScoped
 public class AuthServerRequestExecutor {
     MsgLogger logger = MsgLogger.LOGGER;
 
+    private static final String TIMEOUT = "org.hawkular.accounts.http.timeout";
+    private static final String CONNECT_TIMEOUT = "org.hawkular.accounts.http.connect-timeout";
+    private static final String READ_TIMEOUT = "org.hawkular.accounts.http.read-timeout";
+    private static final String POOL_SIZE = "org.hawkular.accounts.http.pool-size";
+    private static final String BULKHEAD_MAX_WAIT = "org.hawkular.accounts.http.bulkhead.max-wait";
+    private static final String CB_PREFIX = "org.hawkular.accounts.http.circuit-breaker.";
+    private static final String CB_WINDOW_SIZE = CB_PREFIX + "window-size";
+    private static final String CB_MINIMUM_CALLS = CB_PREFIX + "minimum-calls";
+    private static final String CB_FAILURE_RATE_THRESHOLD = CB_PREFIX + "failure-rate-threshold";
+    private static final String CB_OPEN_DURATION = CB_PREFIX + "open-duration";
+    private static final String CB_HALF_OPEN_PROBES = CB_PREFIX + "half-open-probes";
+
+    private static final int BUFFER_SIZE = 4096;
+
     @Inject @RealmResourceName
     private String clientId;
 
     @Inject @RealmResourceSecret
     private String secret;
 
+    @Resource
+    private ManagedExecutorService executorService;
+
+    private int connectTimeout;
+    private int readTimeout;
+    private Bulkhead bulkhead;
+    private CircuitBreaker circuitBreaker;
+    private String authorizationHeader;
+
+    @PostConstruct
+    public void init() {
+        String timeout = System.getProperty(TIMEOUT, "5000");
+        connectTimeout = Integer.parseInt(System.getProperty(CONNECT_TIMEOUT, timeout));
+        readTimeout = Integer.parseInt(System.getProperty(READ_TIMEOUT, timeout));
+        bulkhead = new Bulkhead(
+                Integer.getInteger(POOL_SIZE, Integer.getInteger("http.maxConnections", 5)),
+                Long.parseLong(System.getProperty(BULKHEAD_MAX_WAIT, "1000"))
+        );
+        circuitBreaker = new CircuitBreaker(
+                Integer.parseInt(System.getProperty(CB_WINDOW_SIZE, "20")),
+                Integer.parseInt(System.getProperty(CB_MINIMUM_CALLS, "10")),
+                Integer.parseInt(System.getProperty(CB_FAILURE_RATE_THRESHOLD, "50")),
+                Long.parseLong(System.getProperty(CB_OPEN_DURATION, "30000")),
+                Integer.parseInt(System.getProperty(CB_HALF_OPEN_PROBES, "3"))
+        );
+    }
+
     public String execute(String url, String method) throws Exception {
         return execute(url, null, clientId, secret, method);
     }
@@ -63,15 +133,96 @@ public class AuthServerRequestExecutor {
      * @param secret           the OAuth client secret.
      * @param method           the HTTP method to use (GET or POST). If anything other than POST is sent, GET is used.
      * @return                 a String with the response from the Keycloak server, in both success and error scenarios
+     * @throws AuthServerUnavailableException if the request was rejected by the circuit breaker or by the bulkhead
      * @throws Exception       if communication problems with the Keycloak server occurs.
      */
     public String execute(String url, String urlParameters, String clientId, String secret, String method) throws
             Exception {
+        long permit = circuitBreaker.tryAcquire();
+        if (permit == CircuitBreaker.REJECTED) {
+            logger.circuitBreakerOpen(url);
+            throw new AuthServerUnavailableException("The Keycloak server is unavailable. Not sending the request.");
+        }
+
+        boolean acquired;
+        try {
+            acquired = bulkhead.tryAcquire();
+        } catch (InterruptedException e) {
+            circuitBreaker.onCancelled(permit);
+            throw e;
+        }
+
+        if (!acquired) {
+            circuitBreaker.onCancelled(permit);
+            logger.bulkheadFull(url);
+            throw new AuthServerUnavailableException("Too many concurrent requests to the Keycloak server.");
+        }
+
+        try {
+            Response response = doExecute(url, urlParameters, clientId, secret, method);
+            if (response.statusCode >= 500) {
+                circuitBreaker.onFailure(permit);
+            } else {
+                circuitBreaker.onSuccess(permit);
+            }
+            return response.body;
+        } catch (IOException | UsernamePasswordConversionException e) {
+            circuitBreaker.onFailure(permit);
+            throw e;
+        } catch (Exception e) {
+            circuitBreaker.onCancelled(permit);
+            throw e;
+        } finally {
+            bulkhead.release();
+        }
+    }
+
+    /**
+     * @return the circuit breaker protecting the requests, for metrics purposes.
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * @return the bulkhead limiting the concurrent requests, for metrics purposes.
+     */
+    public Bulkhead getBulkhead() {
+        return bulkhead;
+    }
+
+    /**
+     * Same as {@link #execute(String, String, String)}, but the call is performed by the container's managed
+     * executor, so that the caller's thread is not blocked while waiting for the Keycloak server.
+     * @see #execute(String, String, String, String, String)
+     */
+    public CompletableFuture<String> executeAsync(String url, String urlParameters, String method) {
+        return executeAsync(url, urlParameters, clientId, secret, method);
+    }
+
+    /**
+     * Same as {@link #execute(String, String, String, String, String)}, but the call is performed by the container's
+     * managed executor, so that the caller's thread is not blocked while waiting for the Keycloak server.
+     * @return a future that is completed with the response from the Keycloak server, or completed exceptionally
+     * with the same exceptions as the synchronous version.
+     */
+    public CompletableFuture<String> executeAsync(String url, String urlParameters, String clientId, String secret,
+                                                  String method) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return execute(url, urlParameters, clientId, secret, method);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, executorService);
+    }
+
+    private Response doExecute(String url, String urlParameters, String clientId, String secret, String method) throws
+            Exception {
         logger.executingAuthServerRequest(url, clientId, method);
 
         HttpURLConnection connection;
-        String credentials = clientId + ":" + secret;
-        String authorizationHeader = "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes());
+        String authorizationHeader = getAuthorizationHeader(clientId, secret);
 
         if ("POST".equalsIgnoreCase(method)) {
             connection =  (HttpURLConnection) new URL(url).openConnection();
@@ -80,26 +231,26 @@ public class AuthServerRequestExecutor {
             connection.setRequestProperty("Authorization", authorizationHeader);
             connection.setDoInput(true);
             connection.setDoOutput(true);
-
-            if (null != urlParameters) {
-                try (PrintWriter out = new PrintWriter(connection.getOutputStream())) {
-                    out.print(urlParameters);
-                }
-            }
         } else {
-            connection =  (HttpURLConnection) new URL(url + "?" + urlParameters).openConnection();
+            String fullUrl = null == urlParameters ? url : url + "?" + urlParameters;
+            connection =  (HttpURLConnection) new URL(fullUrl).openConnection();
             connection.setRequestMethod(method);
             connection.setRequestProperty("Authorization", authorizationHeader);
         }
 
-        int timeout = Integer.parseInt(System.getProperty("org.hawkular.accounts.http.timeout", "5000"));
-        connection.setConnectTimeout(timeout);
-        connection.setReadTimeout(timeout);
-
-        StringBuilder response = new StringBuilder();
+        connection.setConnectTimeout(connectTimeout);
+        connection.setReadTimeout(readTimeout);
 
         int statusCode;
         try {
+            if (connection.getDoOutput() && null != urlParameters) {
+                byte[] body = urlParameters.getBytes(StandardCharsets.UTF_8);
+                connection.setFixedLengthStreamingMode(body.length);
+                try (OutputStream out = connection.getOutputStream()) {
+                    out.write(body);
+                }
+            }
+
             statusCode = connection.getResponseCode();
             logger.requestExecuted(statusCode);
         } catch (SocketTimeoutException timeoutException) {
@@ -115,15 +266,49 @@ public class AuthServerRequestExecutor {
             inputStream = connection.getErrorStream();
         }
 
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, "UTF-8"))) {
-            for (String line; (line = reader.readLine()) != null;) {
-                response.append(line);
+        // the stream has to be fully read and closed, so that the connection can be reused
+        String responseAsString = readFully(inputStream);
+        logger.responseBody(responseAsString);
+        return new Response(statusCode, responseAsString);
+    }
+
+    private String getAuthorizationHeader(String clientId, String secret) {
+        if (Objects.equals(this.clientId, clientId) && Objects.equals(this.secret, secret)) {
+            if (null == authorizationHeader) {
+                authorizationHeader = buildAuthorizationHeader(clientId, secret);
             }
+            return authorizationHeader;
         }
+        return buildAuthorizationHeader(clientId, secret);
+    }
 
-        String responseAsString = response.toString();
-        logger.responseBody(responseAsString);
-        return responseAsString;
+    private String buildAuthorizationHeader(String clientId, String secret) {
+        String credentials = clientId + ":" + secret;
+        return "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8));
     }
 
+    private String readFully(InputStream inputStream) throws IOException {
+        if (null == inputStream) {
+            return "";
+        }
+
+        try (InputStream in = inputStream) {
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            for (int read; (read = in.read(buffer)) != -1;) {
+                response.write(buffer, 0, read);
+            }
+            return new String(response.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static class Response {
+        private final int statusCode;
+        private final String body;
+
+        Response(int statusCode, String body) {
+            this.statusCode = statusCode;
+            this.body = body;
+        }
+    }
 }
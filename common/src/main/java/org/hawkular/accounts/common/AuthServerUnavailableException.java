@@ -0,0 +1,45 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.accounts.common;
+
+/**
+ * Thrown when a request to the auth server is rejected without being executed, because the auth server is
+ * considered unavailable or because too many requests are already in flight.
+ *
+ * @author Juraci Paixão Kröhling
+ */
+public class AuthServerUnavailableException extends Exception {
+    public AuthServerUnavailableException() {
+    }
+
+    public AuthServerUnavailableException(String message) {
+        super(message);
+    }
+
+    public AuthServerUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public AuthServerUnavailableException(Throwable cause) {
+        super(cause);
+    }
+
+    public AuthServerUnavailableException(String message, Throwable cause, boolean enableSuppression,
+                                               boolean writableStackTrace) {
+        super(message, cause, enableSuppression, writableStackTrace);
+    }
+}
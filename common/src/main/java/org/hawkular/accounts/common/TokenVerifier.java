@@ -16,31 +16,195 @@
  */
 package org.hawkular.accounts.common;
 
+import java.io.StringReader;
 import java.net.URLEncoder;
+import java.util.concurrent.CompletableFuture;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+
+import org.hawkular.accounts.common.internal.Digests;
+import org.hawkular.accounts.common.internal.ExpiringCache;
+import org.hawkular.accounts.common.internal.LocalTokenVerifier;
+import org.hawkular.accounts.common.internal.MsgLogger;
+import org.hawkular.accounts.common.internal.SingleFlight;
 
 /**
+ * Verifies bearer tokens, returning a JSON String in the shape of the response from Keycloak's introspection
+ * endpoint.
+ * <p>
+ * By default, tokens are verified locally, based on the realm's public key, with the introspection endpoint used
+ * only as a fallback for tokens that cannot be verified locally. The system property
+ * {@code org.hawkular.accounts.token.verification} can be set to {@code remote} to always use the introspection
+ * endpoint, which is the only way to detect sessions that were terminated on the auth server before the token
+ * expired.
+ * <p>
+ * Responses from the introspection endpoint are cached, keyed by the SHA-256 digest of the token. Active tokens are
+ * kept until their expiration time, limited by {@code org.hawkular.accounts.token.cache.max-ttl} (milliseconds),
+ * while inactive tokens are kept for {@code org.hawkular.accounts.token.cache.negative-ttl} (milliseconds). Error
+ * responses are never cached. Concurrent introspection requests for the same token are coalesced into a single
+ * request to the auth server.
+ *
  * @author Juraci Paixão Kröhling
  */
 @ApplicationScoped
 public class TokenVerifier {
+    MsgLogger logger = MsgLogger.LOGGER;
+
+    private static final String VERIFICATION_MODE = "org.hawkular.accounts.token.verification";
+    private static final String CACHE_MAX_SIZE = "org.hawkular.accounts.token.cache.max-size";
+    private static final String CACHE_MAX_TTL = "org.hawkular.accounts.token.cache.max-ttl";
+    private static final String CACHE_NEGATIVE_TTL = "org.hawkular.accounts.token.cache.negative-ttl";
+
+    private final boolean localVerification = !"remote".equalsIgnoreCase(
+            System.getProperty(VERIFICATION_MODE, "local"));
+    private final long cacheMaxTtl = Long.parseLong(System.getProperty(CACHE_MAX_TTL, "300000"));
+    private final long cacheNegativeTtl = Long.parseLong(System.getProperty(CACHE_NEGATIVE_TTL, "5000"));
+
+    private final ExpiringCache<String, String> introspectionCache = new ExpiringCache<>(
+            Integer.parseInt(System.getProperty(CACHE_MAX_SIZE, "10000")));
+    private final SingleFlight<String, String> introspections = new SingleFlight<>();
+
     @Inject @AuthServerUrl
-    private String baseUrl;
+    String baseUrl;
 
     @Inject @RealmName
-    private String realm;
+    String realm;
 
     @Inject
     AuthServerRequestExecutor executor;
 
+    @Inject
+    LocalTokenVerifier localTokenVerifier;
+
     public String verify(String token) throws Exception {
-        String tokenUrl = baseUrl
+        if (localVerification) {
+            String verified = localTokenVerifier.verify(token);
+            if (null != verified) {
+                return verified;
+            }
+            logger.fallingBackToIntrospection();
+        }
+
+        return introspect(token);
+    }
+
+    /**
+     * Same as {@link #verify(String)}, but without blocking the caller's thread while waiting for the introspection
+     * endpoint, if it has to be called.
+     * @param token    the bearer token
+     * @return a future that is completed with the same String as returned by {@link #verify(String)}
+     */
+    public CompletableFuture<String> verifyAsync(String token) {
+        if (localVerification) {
+            String verified = localTokenVerifier.verify(token);
+            if (null != verified) {
+                return CompletableFuture.completedFuture(verified);
+            }
+            logger.fallingBackToIntrospection();
+        }
+
+        String cacheKey = Digests.sha256(token);
+        String tokenUrl;
+        String urlParameters;
+        try {
+            String cached = introspectionCache.get(cacheKey);
+            if (null != cached) {
+                logger.introspectionCacheHit();
+                return CompletableFuture.completedFuture(cached);
+            }
+            tokenUrl = getIntrospectionUrl();
+            urlParameters = getIntrospectionParameters(token);
+        } catch (Exception e) {
+            CompletableFuture<String> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+
+        return introspections.executeAsync(cacheKey, () -> executor.executeAsync(tokenUrl, urlParameters, "POST")
+                .thenApply(response -> cacheResponse(cacheKey, response)));
+    }
+
+    /**
+     * Verifies the token by calling the auth server's introspection endpoint, unless a previous response for the same
+     * token is still in the cache.
+     * @param token    the bearer token
+     * @return the response from the introspection endpoint
+     * @throws Exception if communication problems with the Keycloak server occurs.
+     */
+    public String introspect(String token) throws Exception {
+        String cacheKey = Digests.sha256(token);
+        String cached = introspectionCache.get(cacheKey);
+        if (null != cached) {
+            logger.introspectionCacheHit();
+            return cached;
+        }
+
+        return introspections.execute(cacheKey, () -> {
+            String response = executor.execute(getIntrospectionUrl(), getIntrospectionParameters(token), "POST");
+            return cacheResponse(cacheKey, response);
+        });
+    }
+
+    /**
+     * @return the cache for the introspection responses, for metrics purposes.
+     */
+    public ExpiringCache<String, String> getIntrospectionCache() {
+        return introspectionCache;
+    }
+
+    /**
+     * @return the coalescing layer for introspection requests, for metrics purposes.
+     */
+    public SingleFlight<String, String> getIntrospections() {
+        return introspections;
+    }
+
+    private String getIntrospectionUrl() throws Exception {
+        return baseUrl
                 + "/realms/"
                 + URLEncoder.encode(realm, "UTF-8")
                 + "/protocol/openid-connect/token/introspect";
-        String urlParameters = "token=" + URLEncoder.encode(token, "UTF-8");
-        return executor.execute(tokenUrl, urlParameters, "POST");
+    }
+
+    private String getIntrospectionParameters(String token) throws Exception {
+        return "token=" + URLEncoder.encode(token, "UTF-8");
+    }
+
+    private String cacheResponse(String cacheKey, String response) {
+        long expiresAt = getCacheExpiration(response);
+        if (expiresAt > 0) {
+            introspectionCache.put(cacheKey, response, expiresAt);
+        }
+        return response;
+    }
+
+    private long getCacheExpiration(String response) {
+        JsonObject responseJson;
+        try (JsonReader jsonReader = Json.createReader(new StringReader(response))) {
+            responseJson = jsonReader.readObject();
+        } catch (Exception e) {
+            // not something we can understand, so, don't cache it
+            return 0;
+        }
+
+        long now = System.currentTimeMillis();
+        if (responseJson.containsKey("error")) {
+            return 0;
+        }
+
+        if (!responseJson.getBoolean("active", false)) {
+            return now + cacheNegativeTtl;
+        }
+
+        if (!responseJson.containsKey("exp") || responseJson.isNull("exp")) {
+            return 0;
+        }
+
+        long expiresAt = responseJson.getJsonNumber("exp").longValue() * 1000;
+        return Math.min(expiresAt, now + cacheMaxTtl);
     }
 }
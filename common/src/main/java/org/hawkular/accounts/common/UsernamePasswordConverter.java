@@ -18,6 +18,8 @@ package org.hawkular.accounts.common;
 
 import java.io.StringReader;
 import java.net.URLEncoder;
+import java.security.SecureRandom;
+import java.util.Base64;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
@@ -25,10 +27,21 @@ import javax.json.Json;
 import javax.json.JsonObject;
 import javax.json.JsonReader;
 
+import org.hawkular.accounts.common.internal.Digests;
+import org.hawkular.accounts.common.internal.ExpiringCache;
 import org.hawkular.accounts.common.internal.MsgLogger;
+import org.hawkular.accounts.common.internal.SingleFlight;
 
 /**
- * Converts an username/password into a token.
+ * Converts an username/password into a token. Concurrent conversions for the same credentials are coalesced into a
+ * single request to the auth server.
+ * <p>
+ * The access and refresh tokens issued for a pair of credentials are cached, keyed by the username and a salted
+ * digest of the password, for as long as the refresh token is valid. When the access token is about to expire (by
+ * default, 30 seconds before, as set by {@code org.hawkular.accounts.credentials.cache.renew-before}), it's renewed
+ * with the refresh token. A new password grant is performed only when there's no cached token or when the refresh
+ * fails. The maximum number of cached credentials is set by {@code org.hawkular.accounts.credentials.cache.max-size}.
+ * The cached refresh tokens are used only for this renewal, they are never handed to the callers.
  *
  * @author Juraci Paixão Kröhling
  */
@@ -36,25 +49,41 @@ import org.hawkular.accounts.common.internal.MsgLogger;
 public class UsernamePasswordConverter {
     MsgLogger logger = MsgLogger.LOGGER;
 
+    private static final String CACHE_MAX_SIZE = "org.hawkular.accounts.credentials.cache.max-size";
+    private static final String CACHE_RENEW_BEFORE = "org.hawkular.accounts.credentials.cache.renew-before";
+
     @Inject @AuthServerUrl
-    private String baseUrl;
+    String baseUrl;
 
     @Inject @RealmName
-    private String realm;
+    String realm;
 
     @Inject
     AuthServerRequestExecutor executor;
 
+    private final long renewBefore = Long.parseLong(System.getProperty(CACHE_RENEW_BEFORE, "30000"));
+    private final ExpiringCache<String, IssuedTokens> issuedTokens = new ExpiringCache<>(
+            Integer.parseInt(System.getProperty(CACHE_MAX_SIZE, "1000")));
+    private final SingleFlight<String, IssuedTokens> conversions = new SingleFlight<>();
+    private final String salt = generateSalt();
+
     public String getAccessToken(String username, String password) throws Exception {
         logger.accessTokenForUsername(username);
-        JsonObject response = getResponse(username, password);
-        return response.getString("access_token");
+        return getTokens(username, password).accessToken;
     }
 
+    /**
+     * Performs a password grant for the given credentials, returning the refresh token from it. The token is not
+     * cached, so that each caller gets its own refresh token, which can be used or revoked without affecting the other
+     * callers.
+     * @param username    the username
+     * @param password    the password
+     * @return a new refresh token
+     * @throws Exception if the auth server could not be reached or if it rejected the credentials
+     */
     public String getRefreshToken(String username, String password) throws Exception {
         logger.refreshTokenForUsername(username);
-        JsonObject response = getResponse(username, password);
-        return response.getString("refresh_token");
+        return parse(getTokenResponseForUsernamePassword(username, password)).refreshToken;
     }
 
     public String getOfflineToken(String username, String password) throws Exception {
@@ -79,8 +108,59 @@ public class UsernamePasswordConverter {
         return object.getString("refresh_token");
     }
 
-    private JsonObject getResponse(String username, String password) throws Exception {
-        String sResponse = getTokenResponseForUsernamePassword(username, password);
+    /**
+     * @return the cache for the tokens issued for credentials, for metrics purposes.
+     */
+    public ExpiringCache<?, ?> getIssuedTokens() {
+        return issuedTokens;
+    }
+
+    private IssuedTokens getTokens(String username, String password) throws Exception {
+        if (username == null || username.isEmpty()) {
+            throw new UsernamePasswordConversionException("Username is not provided.");
+        }
+
+        String key = getCredentialsKey(username, password);
+        IssuedTokens cached = issuedTokens.get(key);
+        if (null != cached && cached.accessTokenExpiresAt - renewBefore > System.currentTimeMillis()) {
+            logger.cachedTokenForUsername(username);
+            return cached;
+        }
+
+        try {
+            return conversions.execute(key, () -> renew(key, cached, username, password));
+        } catch (Exception e) {
+            if (null != cached && cached.accessTokenExpiresAt > System.currentTimeMillis()) {
+                // we couldn't renew it, but the one we have is still valid for a little while
+                logger.couldNotRenewTokenForUsername(username, e.getMessage());
+                return cached;
+            }
+            throw e;
+        }
+    }
+
+    private IssuedTokens renew(String key, IssuedTokens cached, String username, String password) throws Exception {
+        IssuedTokens tokens = null;
+        if (null != cached && null != cached.refreshToken
+                && cached.refreshTokenExpiresAt > System.currentTimeMillis()) {
+            try {
+                logger.refreshingTokenForUsername(username);
+                tokens = parse(refresh(cached.refreshToken));
+            } catch (UsernamePasswordConversionException e) {
+                logger.couldNotRefreshTokenForUsername(username, e.getMessage());
+            }
+        }
+
+        if (null == tokens) {
+            tokens = parse(getTokenResponseForUsernamePassword(username, password));
+        }
+
+        issuedTokens.put(key, tokens, Math.max(tokens.accessTokenExpiresAt, tokens.refreshTokenExpiresAt));
+        return tokens;
+    }
+
+    private IssuedTokens parse(String sResponse) throws Exception {
+        long now = System.currentTimeMillis();
         JsonReader jsonReader = Json.createReader(new StringReader(sResponse));
         JsonObject object = jsonReader.readObject();
         if (object.get("error") != null) {
@@ -88,7 +168,20 @@ public class UsernamePasswordConverter {
             throw new UsernamePasswordConversionException("Error from Keycloak server: " + error);
         }
 
-        return object;
+        long accessTokenExpiresAt = now + object.getInt("expires_in", 0) * 1000L;
+        long refreshTokenExpiresAt = now + object.getInt("refresh_expires_in", 0) * 1000L;
+        return new IssuedTokens(
+                object.getString("access_token"),
+                object.getString("refresh_token", null),
+                accessTokenExpiresAt,
+                refreshTokenExpiresAt
+        );
+    }
+
+    private String refresh(String refreshToken) throws Exception {
+        String tokenUrl = baseUrl + "/realms/" + URLEncoder.encode(realm, "UTF-8") + "/protocol/openid-connect/token";
+        String urlParameters = "grant_type=refresh_token&refresh_token=" + URLEncoder.encode(refreshToken, "UTF-8");
+        return executor.execute(tokenUrl, urlParameters, "POST");
     }
 
     private String getTokenResponseForUsernamePassword(String username, String password) throws Exception {
@@ -102,4 +195,31 @@ public class UsernamePasswordConverter {
 
         return executor.execute(tokenUrl, urlParameters, "POST");
     }
+
+    private String getCredentialsKey(String username, String password) {
+        return username + ":" + Digests.sha256(salt + (null == password ? "" : password));
+    }
+
+    private static String generateSalt() {
+        byte[] salt = new byte[16];
+        new SecureRandom().nextBytes(salt);
+        return Base64.getEncoder().encodeToString(salt);
+    }
+
+    /**
+     * The tokens issued by the auth server for a pair of credentials.
+     */
+    private static class IssuedTokens {
+        private final String accessToken;
+        private final String refreshToken;
+        private final long accessTokenExpiresAt;
+        private final long refreshTokenExpiresAt;
+
+        IssuedTokens(String accessToken, String refreshToken, long accessTokenExpiresAt, long refreshTokenExpiresAt) {
+            this.accessToken = accessToken;
+            this.refreshToken = refreshToken;
+            this.accessTokenExpiresAt = accessTokenExpiresAt;
+            this.refreshTokenExpiresAt = refreshTokenExpiresAt;
+        }
+    }
 }
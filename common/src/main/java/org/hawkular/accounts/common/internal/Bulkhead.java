@@ -0,0 +1,82 @@
+/*
+ * Copyright 2015-2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.accounts.common.internal;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the number of concurrent calls to a remote resource, so that a slow resource cannot take all the threads
+ * from the caller. Callers wait at most the given time for a permit and are rejected afterwards.
+ *
+ * @author Juraci Paixão Kröhling
+ */
+public class Bulkhead {
+    private final Semaphore permits;
+    private final int maxConcurrentCalls;
+    private final long maxWait;
+
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param maxConcurrentCalls    the maximum number of calls executed concurrently
+     * @param maxWait               how long, in milliseconds, a caller waits for a permit before being rejected
+     */
+    public Bulkhead(int maxConcurrentCalls, long maxWait) {
+        if (maxConcurrentCalls <= 0) {
+            throw new IllegalArgumentException("The maximum number of concurrent calls should be greater than zero.");
+        }
+        this.permits = new Semaphore(maxConcurrentCalls, true);
+        this.maxConcurrentCalls = maxConcurrentCalls;
+        this.maxWait = maxWait;
+    }
+
+    /**
+     * @return whether a permit was acquired. If so, {@link #release()} has to be called once the call is done.
+     * @throws InterruptedException if the thread was interrupted while waiting for a permit
+     */
+    public boolean tryAcquire() throws InterruptedException {
+        if (permits.tryAcquire(maxWait, TimeUnit.MILLISECONDS)) {
+            return true;
+        }
+        rejected.increment();
+        return false;
+    }
+
+    public void release() {
+        permits.release();
+    }
+
+    /**
+     * @return the number of calls currently being executed
+     */
+    public int getActiveCalls() {
+        return maxConcurrentCalls - permits.availablePermits();
+    }
+
+    public int getMaxConcurrentCalls() {
+        return maxConcurrentCalls;
+    }
+
+    /**
+     * @return the number of calls rejected because no permit became available in time
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2015-2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.accounts.common.internal;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Count-based circuit breaker. The outcomes of the latest calls are recorded in a rolling window and, once the
+ * failure rate in the window reaches the threshold, the circuit is opened: calls are then rejected right away,
+ * without reaching the remote server. After the open duration has elapsed, a limited number of probe calls are let
+ * through (half-open state). If all of them succeed, the circuit is closed again. If any of them fails, the circuit
+ * is opened for another period.
+ * <p>
+ * Callers are expected to call {@link #tryAcquire()} before each call and then exactly one of
+ * {@link #onSuccess(long)}, {@link #onFailure(long)} or {@link #onCancelled(long)} for each call that was permitted,
+ * passing the permit returned by {@link #tryAcquire()}. Each state change starts a new generation and the permit
+ * carries the generation in which it was issued, so that only the calls permitted in the current half-open period
+ * are counted as probes. Calls that were already in flight when the circuit was opened are not.
+ *
+ * @author Juraci Paixão Kröhling
+ */
+public class CircuitBreaker {
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * Returned by {@link #tryAcquire()} when the call is not permitted.
+     */
+    public static final long REJECTED = -1;
+
+    private final boolean[] window;
+    private final int minimumCalls;
+    private final int failureRateThreshold;
+    private final long openDuration;
+    private final int halfOpenProbes;
+
+    private State state = State.CLOSED;
+    private int position = 0;
+    private int recorded = 0;
+    private int failures = 0;
+    private long openedAt = 0;
+    private long generation = 0;
+    private int probesInFlight = 0;
+    private int probesSucceeded = 0;
+
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder timesOpened = new LongAdder();
+
+    /**
+     * @param windowSize              the number of latest calls to consider when calculating the failure rate
+     * @param minimumCalls            the minimum number of calls in the window before the failure rate is evaluated
+     * @param failureRateThreshold    the failure rate, in percent, from which the circuit is opened
+     * @param openDuration            how long, in milliseconds, the circuit stays open before probing again
+     * @param halfOpenProbes          the number of probe calls allowed in the half-open state
+     */
+    public CircuitBreaker(int windowSize, int minimumCalls, int failureRateThreshold, long openDuration,
+                          int halfOpenProbes) {
+        if (windowSize <= 0 || halfOpenProbes <= 0) {
+            throw new IllegalArgumentException("The window size and number of probes should be greater than zero.");
+        }
+        this.window = new boolean[windowSize];
+        this.minimumCalls = Math.min(Math.max(minimumCalls, 1), windowSize);
+        this.failureRateThreshold = failureRateThreshold;
+        this.openDuration = openDuration;
+        this.halfOpenProbes = halfOpenProbes;
+    }
+
+    /**
+     * @return the permit for the call, or {@link #REJECTED} if the call is not permitted, in which case it should
+     * fail fast.
+     */
+    public synchronized long tryAcquire() {
+        if (state == State.OPEN) {
+            if (System.currentTimeMillis() - openedAt < openDuration) {
+                rejected.increment();
+                return REJECTED;
+            }
+            state = State.HALF_OPEN;
+            generation++;
+            probesInFlight = 0;
+            probesSucceeded = 0;
+        }
+
+        if (state == State.HALF_OPEN) {
+            if (probesInFlight + probesSucceeded >= halfOpenProbes) {
+                rejected.increment();
+                return REJECTED;
+            }
+            probesInFlight++;
+        }
+
+        return generation;
+    }
+
+    public synchronized void onSuccess(long permit) {
+        if (state == State.HALF_OPEN) {
+            if (isProbe(permit)) {
+                probesInFlight--;
+                probesSucceeded++;
+                if (probesSucceeded >= halfOpenProbes) {
+                    close();
+                }
+            }
+            return;
+        }
+
+        record(false);
+    }
+
+    public synchronized void onFailure(long permit) {
+        if (state == State.HALF_OPEN) {
+            if (isProbe(permit)) {
+                probesInFlight--;
+                open();
+            }
+            return;
+        }
+
+        record(true);
+        if (state == State.CLOSED && recorded >= minimumCalls && getFailureRate() >= failureRateThreshold) {
+            open();
+        }
+    }
+
+    /**
+     * Releases a permit obtained via {@link #tryAcquire()} for a call that was not performed after all.
+     */
+    public synchronized void onCancelled(long permit) {
+        if (state == State.HALF_OPEN && isProbe(permit)) {
+            probesInFlight--;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return the failure rate, in percent, for the calls in the current window
+     */
+    public synchronized int getFailureRate() {
+        return recorded == 0 ? 0 : failures * 100 / recorded;
+    }
+
+    /**
+     * @return the number of calls rejected because the circuit was open
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return how many times the circuit has been opened
+     */
+    public long getTimesOpened() {
+        return timesOpened.sum();
+    }
+
+    private boolean isProbe(long permit) {
+        return permit == generation;
+    }
+
+    private void record(boolean failure) {
+        if (recorded == window.length) {
+            // the slot is being reused, so, forget about its previous outcome
+            if (window[position]) {
+                failures--;
+            }
+        } else {
+            recorded++;
+        }
+
+        window[position] = failure;
+        if (failure) {
+            failures++;
+        }
+        position = (position + 1) % window.length;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        generation++;
+        openedAt = System.currentTimeMillis();
+        timesOpened.increment();
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        generation++;
+        position = 0;
+        recorded = 0;
+        failures = 0;
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2015-2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.accounts.common.internal;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Bounded, thread-safe cache where each entry has its own expiration timestamp. Expired entries are never returned
+ * and are removed lazily, when they are looked up, or when the cache grows beyond its maximum size. If the cache is
+ * still full after removing the expired entries, the entries closer to their expiration are evicted first. A tenth of
+ * the maximum size is evicted at once, so that the cost of going through the entries is shared by the next puts
+ * instead of being paid by each put on a full cache.
+ * <p>
+ * The number of hits, misses and evictions are recorded, so that callers can expose them as metrics.
+ *
+ * @author Juraci Paixão Kröhling
+ */
+public class ExpiringCache<K, V> {
+    private final Map<K, Entry<V>> entries = new ConcurrentHashMap<>();
+    private final int maxSize;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public ExpiringCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("The maximum size for the cache should be greater than zero.");
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Retrieves the value for the given key, if it's in the cache and has not expired yet.
+     * @param key    the key
+     * @return the cached value, or null if there's no valid entry for the key
+     */
+    public V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (null == entry) {
+            misses.increment();
+            return null;
+        }
+
+        if (entry.isExpired(System.currentTimeMillis())) {
+            if (entries.remove(key, entry)) {
+                evictions.increment();
+            }
+            misses.increment();
+            return null;
+        }
+
+        hits.increment();
+        return entry.value;
+    }
+
+    /**
+     * Same as {@link #get(Object)}, but without affecting the hit and miss counters. Meant for housekeeping tasks.
+     * @param key    the key
+     * @return the cached value, or null if there's no valid entry for the key
+     */
+    public V peek(K key) {
+        Entry<V> entry = entries.get(key);
+        if (null == entry || entry.isExpired(System.currentTimeMillis())) {
+            return null;
+        }
+        return entry.value;
+    }
+
+    /**
+     * Adds or replaces the value for the given key. Values that are already expired are not added.
+     * @param key          the key
+     * @param value        the value
+     * @param expiresAt    the timestamp, in milliseconds, after which the entry is not valid anymore
+     */
+    public void put(K key, V value, long expiresAt) {
+        if (expiresAt <= System.currentTimeMillis()) {
+            return;
+        }
+
+        entries.put(key, new Entry<>(value, expiresAt));
+        if (entries.size() > maxSize) {
+            evict();
+        }
+    }
+
+    public V remove(K key) {
+        Entry<V> entry = entries.remove(key);
+        return null == entry ? null : entry.value;
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Removes all the entries whose key matches the given predicate.
+     * @param keyPredicate    the predicate for the keys to remove
+     * @return the number of entries removed
+     */
+    public int removeIf(Predicate<K> keyPredicate) {
+        int removed = 0;
+        for (K key : entries.keySet()) {
+            if (keyPredicate.test(key) && null != entries.remove(key)) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Removes all the entries that have expired.
+     * @return the number of entries removed
+     */
+    public int purgeExpired() {
+        long now = System.currentTimeMillis();
+        int removed = 0;
+        for (Map.Entry<K, Entry<V>> entry : entries.entrySet()) {
+            if (entry.getValue().isExpired(now) && entries.remove(entry.getKey(), entry.getValue())) {
+                removed++;
+            }
+        }
+        evictions.add(removed);
+        return removed;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    private synchronized void evict() {
+        if (entries.size() <= maxSize) {
+            // another thread has already made room
+            return;
+        }
+
+        purgeExpired();
+        int excess = entries.size() - maxSize + maxSize / 10;
+        if (entries.size() <= maxSize || excess <= 0) {
+            return;
+        }
+
+        // keeps only the entries closest to their expiration, the one with the latest expiration at the head
+        PriorityQueue<Map.Entry<K, Entry<V>>> candidates = new PriorityQueue<>(excess,
+                Comparator.comparingLong((Map.Entry<K, Entry<V>> e) -> e.getValue().expiresAt).reversed());
+        for (Map.Entry<K, Entry<V>> entry : entries.entrySet()) {
+            if (candidates.size() < excess) {
+                candidates.add(entry);
+            } else if (entry.getValue().expiresAt < candidates.peek().getValue().expiresAt) {
+                candidates.poll();
+                candidates.add(entry);
+            }
+        }
+
+        for (Map.Entry<K, Entry<V>> candidate : candidates) {
+            if (entries.remove(candidate.getKey(), candidate.getValue())) {
+                evictions.increment();
+            }
+        }
+    }
+
+    private static class Entry<V> {
+        private final V value;
+        private final long expiresAt;
+
+        Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+    }
+}
@@ -0,0 +1,368 @@
+/*
+ * Copyright 2015-2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.accounts.common.internal;
+
+import java.io.StringReader;
+import java.math.BigInteger;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.RSAPublicKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonReader;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+
+import org.hawkular.accounts.common.AuthServerRequestExecutor;
+import org.hawkular.accounts.common.AuthServerUrl;
+import org.hawkular.accounts.common.RealmName;
+import org.hawkular.accounts.common.RealmPublicKey;
+
+/**
+ * Verifies bearer tokens locally, without contacting the auth server for each token. The signature is checked
+ * against the realm's public key (from the adapter configuration) or against the keys published by the realm on its
+ * JWKS endpoint, which are cached. The claims {@code exp}, {@code nbf}, {@code iss} and {@code aud} are then
+ * validated locally.
+ * <p>
+ * Tokens with a key ID ({@code kid}) in their header are checked against the JWKS key with that ID, refreshing the
+ * keys once if the ID is unknown, as the realm might have rotated its keys. The configured realm public key is used
+ * for tokens without a key ID, and for tokens whose key ID is not published by the realm.
+ * <p>
+ * The return value follows the same JSON shape as the response from the introspection endpoint: the token's claims
+ * plus {@code "active": true} for valid tokens, or an object with {@code error} and {@code error_description} for
+ * tokens that are definitely invalid. When the token cannot be verified locally (unsupported algorithm, no key
+ * available), null is returned and the caller is expected to fall back to the remote introspection.
+ * <p>
+ * Note that a locally verified token is accepted until its expiration time, even if the session was terminated on
+ * the auth server in the meantime.
+ *
+ * @author Juraci Paixão Kröhling
+ */
+@ApplicationScoped
+public class LocalTokenVerifier {
+    MsgLogger logger = MsgLogger.LOGGER;
+
+    private static final String JWKS_TTL = "org.hawkular.accounts.token.jwks.ttl";
+    private static final String JWKS_MIN_REFRESH_INTERVAL = "org.hawkular.accounts.token.jwks.min-refresh-interval";
+    private static final String EXPECTED_ISSUER = "org.hawkular.accounts.token.issuer";
+    private static final String EXPECTED_AUDIENCE = "org.hawkular.accounts.token.audience";
+    private static final String CLOCK_SKEW = "org.hawkular.accounts.token.clock-skew";
+
+    private static final String ALGORITHM = "RS256";
+
+    private final long jwksTtl = Long.parseLong(System.getProperty(JWKS_TTL, "3600000"));
+    long jwksMinRefreshInterval = Long.parseLong(System.getProperty(JWKS_MIN_REFRESH_INTERVAL, "10000"));
+    private final long clockSkew = Long.parseLong(System.getProperty(CLOCK_SKEW, "0"));
+
+    String expectedIssuer = System.getProperty(EXPECTED_ISSUER);
+    Set<String> expectedAudiences = parseAudiences(System.getProperty(EXPECTED_AUDIENCE));
+
+    @Inject @AuthServerUrl
+    String baseUrl;
+
+    @Inject @RealmName
+    String realm;
+
+    @Inject @RealmPublicKey
+    String encodedRealmPublicKey;
+
+    @Inject
+    AuthServerRequestExecutor executor;
+
+    private PublicKey realmPublicKey;
+    private boolean realmPublicKeyParsed = false;
+
+    private volatile Map<String, PublicKey> jwks = Collections.emptyMap();
+    private volatile long jwksFetchedAt = 0;
+
+    /**
+     * Verifies the given token locally.
+     *
+     * @param token    the bearer token, in its compact serialization form
+     * @return a JSON String in the shape of an introspection response, or null if the token cannot be verified
+     * locally.
+     */
+    public String verify(String token) {
+        String[] parts = token.split("\\.");
+        if (parts.length != 3) {
+            return error("Token is not a signed JWT.");
+        }
+
+        JsonObject header;
+        JsonObject claims;
+        byte[] signature;
+        try {
+            header = parseJson(parts[0]);
+            claims = parseJson(parts[1]);
+            signature = Base64.getUrlDecoder().decode(parts[2]);
+        } catch (Exception e) {
+            logger.couldNotParseToken(e);
+            return error("Token could not be parsed.");
+        }
+
+        String algorithm = header.getString("alg", null);
+        if (!ALGORITHM.equals(algorithm)) {
+            logger.unsupportedTokenAlgorithm(algorithm);
+            return null;
+        }
+
+        PublicKey key = getKey(header.getString("kid", null));
+        if (null == key) {
+            logger.noKeyForLocalVerification();
+            return null;
+        }
+
+        try {
+            Signature verifier = Signature.getInstance("SHA256withRSA");
+            verifier.initVerify(key);
+            verifier.update((parts[0] + "." + parts[1]).getBytes(StandardCharsets.US_ASCII));
+            if (!verifier.verify(signature)) {
+                return error("Invalid token signature.");
+            }
+        } catch (Exception e) {
+            logger.couldNotVerifySignature(e);
+            return error("Token signature could not be verified.");
+        }
+
+        String claimsError;
+        try {
+            claimsError = validateClaims(claims);
+        } catch (ClassCastException e) {
+            claimsError = "Token claims are malformed.";
+        }
+        if (null != claimsError) {
+            return error(claimsError);
+        }
+
+        JsonObjectBuilder builder = Json.createObjectBuilder();
+        for (Map.Entry<String, JsonValue> claim : claims.entrySet()) {
+            builder.add(claim.getKey(), claim.getValue());
+        }
+        builder.add("active", true);
+        logger.tokenVerifiedLocally();
+        return builder.build().toString();
+    }
+
+    private String validateClaims(JsonObject claims) {
+        long now = System.currentTimeMillis() / 1000;
+
+        if (!claims.containsKey("exp") || claims.isNull("exp")) {
+            return "Token has no expiration time.";
+        }
+
+        if (claims.getJsonNumber("exp").longValue() + clockSkew <= now) {
+            return "Token is expired.";
+        }
+
+        if (claims.containsKey("nbf") && !claims.isNull("nbf")) {
+            long notBefore = claims.getJsonNumber("nbf").longValue();
+            if (notBefore > 0 && notBefore - clockSkew > now) {
+                return "Token is not active yet.";
+            }
+        }
+
+        String type = claims.getString("typ", null);
+        if (null != type && !"Bearer".equalsIgnoreCase(type)) {
+            return "Token is not a bearer token.";
+        }
+
+        String issuer = claims.getString("iss", null);
+        if (null == issuer) {
+            return "Token has no issuer.";
+        }
+
+        if (null != expectedIssuer) {
+            if (!expectedIssuer.equals(issuer)) {
+                return "Token was issued by an unexpected issuer.";
+            }
+        } else if (!issuer.endsWith("/realms/" + realm)) {
+            // the host part of the issuer depends on how the client reached the auth server, so, without an
+            // explicitly configured issuer, we can only make sure the token is from our realm
+            return "Token was issued by a different realm.";
+        }
+
+        if (!expectedAudiences.isEmpty() && !containsExpectedAudience(claims.get("aud"))) {
+            return "Token is not intended for this audience.";
+        }
+
+        return null;
+    }
+
+    private boolean containsExpectedAudience(JsonValue audience) {
+        if (null == audience) {
+            return false;
+        }
+
+        if (audience instanceof JsonString) {
+            return expectedAudiences.contains(((JsonString) audience).getString());
+        }
+
+        if (audience instanceof JsonArray) {
+            return ((JsonArray) audience).getValuesAs(JsonString.class)
+                    .stream()
+                    .anyMatch(a -> expectedAudiences.contains(a.getString()));
+        }
+
+        return false;
+    }
+
+    private PublicKey getKey(String keyId) {
+        if (null == keyId) {
+            PublicKey publicKey = getRealmPublicKey();
+            if (null != publicKey) {
+                return publicKey;
+            }
+        }
+
+        Map<String, PublicKey> keys = getJwks(false);
+        PublicKey key = lookup(keys, keyId);
+        if (null == key && null != keyId) {
+            // the realm might have rotated its keys since our last fetch
+            key = lookup(getJwks(true), keyId);
+            if (null == key) {
+                key = getRealmPublicKey();
+            }
+        }
+        return key;
+    }
+
+    private PublicKey lookup(Map<String, PublicKey> keys, String keyId) {
+        if (null == keyId) {
+            return keys.size() == 1 ? keys.values().iterator().next() : null;
+        }
+        return keys.get(keyId);
+    }
+
+    private synchronized PublicKey getRealmPublicKey() {
+        if (!realmPublicKeyParsed) {
+            realmPublicKeyParsed = true;
+            if (null != encodedRealmPublicKey && !encodedRealmPublicKey.isEmpty()) {
+                try {
+                    byte[] encoded = Base64.getMimeDecoder().decode(encodedRealmPublicKey);
+                    realmPublicKey = KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(encoded));
+                } catch (Exception e) {
+                    logger.invalidRealmPublicKey(e);
+                }
+            }
+        }
+        return realmPublicKey;
+    }
+
+    private Map<String, PublicKey> getJwks(boolean forceRefresh) {
+        long now = System.currentTimeMillis();
+        long age = now - jwksFetchedAt;
+        boolean expired = age > jwksTtl;
+        boolean refreshAllowed = age > jwksMinRefreshInterval;
+
+        if (expired || (forceRefresh && refreshAllowed)) {
+            synchronized (this) {
+                // another thread might have refreshed it while we were waiting
+                if (jwksFetchedAt == 0 || now - jwksFetchedAt > jwksMinRefreshInterval) {
+                    Map<String, PublicKey> fetched = fetchJwks();
+                    if (null != fetched) {
+                        jwks = fetched;
+                        jwksFetchedAt = System.currentTimeMillis();
+                    } else {
+                        // keep what we have, but try again once the minimum refresh interval has elapsed
+                        jwksFetchedAt = System.currentTimeMillis() - jwksTtl + jwksMinRefreshInterval;
+                    }
+                }
+            }
+        }
+        return jwks;
+    }
+
+    private Map<String, PublicKey> fetchJwks() {
+        try {
+            String certsUrl = baseUrl
+                    + "/realms/"
+                    + URLEncoder.encode(realm, "UTF-8")
+                    + "/protocol/openid-connect/certs";
+            JsonObject response = Json.createReader(new StringReader(executor.execute(certsUrl, "GET")))
+                    .readObject();
+
+            Map<String, PublicKey> keys = new HashMap<>();
+            JsonArray jsonKeys = response.getJsonArray("keys");
+            if (null != jsonKeys) {
+                KeyFactory keyFactory = KeyFactory.getInstance("RSA");
+                for (JsonObject jsonKey : jsonKeys.getValuesAs(JsonObject.class)) {
+                    if (!"RSA".equals(jsonKey.getString("kty", null))) {
+                        continue;
+                    }
+
+                    String use = jsonKey.getString("use", "sig");
+                    if (!"sig".equals(use)) {
+                        continue;
+                    }
+
+                    BigInteger modulus = new BigInteger(1, Base64.getUrlDecoder().decode(jsonKey.getString("n")));
+                    BigInteger exponent = new BigInteger(1, Base64.getUrlDecoder().decode(jsonKey.getString("e")));
+                    PublicKey key = keyFactory.generatePublic(new RSAPublicKeySpec(modulus, exponent));
+                    keys.put(jsonKey.getString("kid", ""), key);
+                }
+            }
+            logger.jwksFetched(keys.size());
+            return Collections.unmodifiableMap(keys);
+        } catch (Exception e) {
+            logger.couldNotFetchJwks(e);
+            return null;
+        }
+    }
+
+    private JsonObject parseJson(String encoded) {
+        String json = new String(Base64.getUrlDecoder().decode(encoded), StandardCharsets.UTF_8);
+        try (JsonReader reader = Json.createReader(new StringReader(json))) {
+            return reader.readObject();
+        }
+    }
+
+    private String error(String description) {
+        logger.tokenRejectedLocally(description);
+        return Json.createObjectBuilder()
+                .add("error", "invalid_token")
+                .add("error_description", description)
+                .build()
+                .toString();
+    }
+
+    static Set<String> parseAudiences(String audiences) {
+        if (null == audiences || audiences.trim().isEmpty()) {
+            return Collections.emptySet();
+        }
+        return Arrays.stream(audiences.split(","))
+                .map(String::trim)
+                .filter(a -> !a.isEmpty())
+                .collect(Collectors.toCollection(HashSet::new));
+    }
+}
@@ -133,4 +133,74 @@ public interface MsgLogger {
     @LogMessage(level = Logger.Level.TRACE)
     @Message(id = 150023, value = "Attempting to get an offline token for username [%s].")
     void offlineTokenForUsername(String username);
+
+    @LogMessage(level = Logger.Level.DEBUG)
+    @Message(id = 150024, value = "Could not parse the token. Rejecting it.")
+    void couldNotParseToken(@Cause Throwable t);
+
+    @LogMessage(level = Logger.Level.DEBUG)
+    @Message(id = 150025, value = "Token is signed with an algorithm that cannot be verified locally: [%s].")
+    void unsupportedTokenAlgorithm(String algorithm);
+
+    @LogMessage(level = Logger.Level.DEBUG)
+    @Message(id = 150026, value = "No public key available to verify the token locally.")
+    void noKeyForLocalVerification();
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 150027, value = "Could not verify the signature of the token.")
+    void couldNotVerifySignature(@Cause Throwable t);
+
+    @LogMessage(level = Logger.Level.TRACE)
+    @Message(id = 150028, value = "Token verified locally.")
+    void tokenVerifiedLocally();
+
+    @LogMessage(level = Logger.Level.DEBUG)
+    @Message(id = 150029, value = "Token rejected by the local verification. Reason: [%s]")
+    void tokenRejectedLocally(String reason);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 150030, value = "The realm public key from the configuration is invalid. Ignoring it.")
+    void invalidRealmPublicKey(@Cause Throwable t);
+
+    @LogMessage(level = Logger.Level.DEBUG)
+    @Message(id = 150031, value = "Fetched [%d] keys from the realm's JWKS endpoint.")
+    void jwksFetched(int numberOfKeys);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 150032, value = "Could not fetch the keys from the realm's JWKS endpoint.")
+    void couldNotFetchJwks(@Cause Throwable t);
+
+    @LogMessage(level = Logger.Level.TRACE)
+    @Message(id = 150033, value = "Token could not be verified locally. Falling back to the introspection endpoint.")
+    void fallingBackToIntrospection();
+
+    @LogMessage(level = Logger.Level.TRACE)
+    @Message(id = 150034, value = "Introspection response found in the cache.")
+    void introspectionCacheHit();
+
+    @LogMessage(level = Logger.Level.DEBUG)
+    @Message(id = 150035, value = "Circuit breaker is open. Rejecting request to [%s].")
+    void circuitBreakerOpen(String url);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 150036, value = "Too many concurrent requests to the auth server. Rejecting request to [%s].")
+    void bulkheadFull(String url);
+
+    @LogMessage(level = Logger.Level.TRACE)
+    @Message(id = 150037, value = "Using cached token for username [%s].")
+    void cachedTokenForUsername(String username);
+
+    @LogMessage(level = Logger.Level.TRACE)
+    @Message(id = 150038, value = "Refreshing the cached token for username [%s].")
+    void refreshingTokenForUsername(String username);
+
+    @LogMessage(level = Logger.Level.DEBUG)
+    @Message(id = 150039, value = "Could not refresh the cached token for username [%s], falling back to the " +
+            "credentials. Reason: [%s]")
+    void couldNotRefreshTokenForUsername(String username, String reason);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 150040, value = "Could not renew the cached token for username [%s], using it while it's still " +
+            "valid. Reason: [%s]")
+    void couldNotRenewTokenForUsername(String username, String reason);
 }
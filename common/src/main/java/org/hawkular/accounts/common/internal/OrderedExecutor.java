@@ -0,0 +1,67 @@
+/*
+ * Copyright 2015-2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.accounts.common.internal;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs tasks asynchronously on the given executor, preserving the order of the tasks that share the same key: a task
+ * starts only after the previous task for the same key has finished, successfully or not. Tasks for different keys
+ * run in parallel.
+ *
+ * @author Juraci Paixão Kröhling
+ */
+public class OrderedExecutor<K> {
+    private final Executor executor;
+
+    /**
+     * The last task submitted for each key, removed once it finishes.
+     */
+    private final Map<K, CompletableFuture<Void>> tails = new ConcurrentHashMap<>();
+
+    public OrderedExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Schedules the task to run after all the previously submitted tasks for the same key.
+     * @param key     the key
+     * @param task    the task
+     * @return a future that is completed once the task has finished
+     */
+    public CompletableFuture<Void> execute(K key, Runnable task) {
+        CompletableFuture<Void> next = tails.compute(key, (k, tail) -> {
+            if (null == tail) {
+                return CompletableFuture.runAsync(task, executor);
+            }
+            // the failure of the previous task should not prevent this one from running
+            return tail.handle((result, t) -> null).thenRunAsync(task, executor);
+        });
+        next.whenComplete((result, t) -> tails.remove(key, next));
+        return next;
+    }
+
+    /**
+     * @return the number of keys with tasks running or waiting to run
+     */
+    public int getActiveKeys() {
+        return tails.size();
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2015-2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.accounts.common.internal;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent calls for the same key: while a call for a given key is in flight, other callers for the same
+ * key wait for it and receive its result (or its exception), instead of performing the same call again. Once the
+ * call finishes, the next caller for the key triggers a new call. Results are not cached.
+ *
+ * @author Juraci Paixão Kröhling
+ */
+public class SingleFlight<K, V> {
+    private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder executed = new LongAdder();
+    private final LongAdder shared = new LongAdder();
+
+    /**
+     * Executes the callable, unless there's already a call in flight for the same key, in which case the result of
+     * that call is returned.
+     * @param key         the key identifying identical calls
+     * @param callable    the actual call
+     * @return the result of the call
+     * @throws Exception the exception thrown by the call
+     */
+    public V execute(K key, Callable<V> callable) throws Exception {
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+        if (null != existing) {
+            shared.increment();
+            return await(existing);
+        }
+
+        executed.increment();
+        try {
+            V result = callable.call();
+            future.complete(result);
+            return result;
+        } catch (Throwable t) {
+            future.completeExceptionally(t);
+            throw t;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    /**
+     * Asynchronous version of {@link #execute(Object, Callable)}: the call is started only if there's no call in
+     * flight for the same key, otherwise, the future for the call in flight is returned.
+     * @param key     the key identifying identical calls
+     * @param call    supplies the future for the actual call
+     * @return a future that is completed with the result of the call
+     */
+    public CompletableFuture<V> executeAsync(K key, Supplier<CompletableFuture<V>> call) {
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+        if (null != existing) {
+            shared.increment();
+            return existing;
+        }
+
+        executed.increment();
+        CompletableFuture<V> actual;
+        try {
+            actual = call.get();
+        } catch (Throwable t) {
+            inFlight.remove(key, future);
+            future.completeExceptionally(t);
+            return future;
+        }
+
+        actual.whenComplete((result, t) -> {
+            inFlight.remove(key, future);
+            if (null != t) {
+                future.completeExceptionally(t instanceof CompletionException && null != t.getCause()
+                        ? t.getCause() : t);
+            } else {
+                future.complete(result);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * @return the number of calls that were actually executed
+     */
+    public long getExecuted() {
+        return executed.sum();
+    }
+
+    /**
+     * @return the number of callers that received the result of a call executed by another caller
+     */
+    public long getShared() {
+        return shared.sum();
+    }
+
+    private V await(CompletableFuture<V> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+}
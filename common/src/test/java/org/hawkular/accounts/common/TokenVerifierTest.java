@@ -0,0 +1,76 @@
+/*
+ * Copyright 2015-2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.accounts.common;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hawkular.accounts.common.internal.LocalTokenVerifier;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Juraci Paixão Kröhling
+ */
+public class TokenVerifierTest {
+    private TokenVerifier verifier;
+    private AtomicInteger introspections;
+    private String verifiedLocally;
+
+    @Before
+    public void setup() {
+        introspections = new AtomicInteger();
+        verifiedLocally = null;
+
+        verifier = new TokenVerifier();
+        verifier.baseUrl = "http://localhost:8080/auth";
+        verifier.realm = "hawkular";
+        verifier.localTokenVerifier = new LocalTokenVerifier() {
+            @Override
+            public String verify(String token) {
+                return verifiedLocally;
+            }
+        };
+        verifier.executor = new AuthServerRequestExecutor() {
+            @Override
+            public String execute(String url, String urlParameters, String method) throws Exception {
+                assertEquals("http://localhost:8080/auth/realms/hawkular/protocol/openid-connect/token/introspect",
+                        url);
+                assertEquals("token=abc", urlParameters);
+                introspections.incrementAndGet();
+                return "{\"active\":true,\"exp\":" + (System.currentTimeMillis() / 1000 + 60) + "}";
+            }
+        };
+    }
+
+    @Test
+    public void locallyVerifiedTokenIsNotIntrospected() throws Exception {
+        verifiedLocally = "{\"active\":true}";
+        assertEquals(verifiedLocally, verifier.verify("abc"));
+        assertEquals("The introspection endpoint should not have been called", 0, introspections.get());
+    }
+
+    @Test
+    public void fallsBackToIntrospection() throws Exception {
+        String response = verifier.verify("abc");
+        assertEquals("The introspection endpoint should have been called", 1, introspections.get());
+
+        assertEquals("The response should have been cached", response, verifier.verify("abc"));
+        assertEquals("The introspection endpoint should not have been called again", 1, introspections.get());
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2015-2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.accounts.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Juraci Paixão Kröhling
+ */
+public class UsernamePasswordConverterTest {
+    private static final String PASSWORD_GRANT = "grant_type=password&username=jdoe&password=secret";
+    private static final String REFRESH_GRANT = "grant_type=refresh_token&refresh_token=";
+
+    private UsernamePasswordConverter converter;
+    private List<String> requests;
+    private int expiresIn;
+    private int refreshExpiresIn;
+    private String refreshResponse;
+
+    @Before
+    public void setup() {
+        requests = new ArrayList<>();
+        expiresIn = 300;
+        refreshExpiresIn = 1800;
+        refreshResponse = null;
+
+        converter = new UsernamePasswordConverter();
+        converter.baseUrl = "http://localhost:8080/auth";
+        converter.realm = "hawkular";
+        converter.executor = new AuthServerRequestExecutor() {
+            @Override
+            public String execute(String url, String urlParameters, String method) throws Exception {
+                assertEquals("http://localhost:8080/auth/realms/hawkular/protocol/openid-connect/token", url);
+                requests.add(urlParameters);
+                if (urlParameters.startsWith(REFRESH_GRANT) && null != refreshResponse) {
+                    return refreshResponse;
+                }
+
+                int issued = requests.size();
+                return "{\"access_token\":\"access-" + issued + "\","
+                        + "\"refresh_token\":\"refresh-" + issued + "\","
+                        + "\"expires_in\":" + expiresIn + ","
+                        + "\"refresh_expires_in\":" + refreshExpiresIn + "}";
+            }
+        };
+    }
+
+    @Test
+    public void accessTokenIsCached() throws Exception {
+        assertEquals("access-1", converter.getAccessToken("jdoe", "secret"));
+        assertEquals("access-1", converter.getAccessToken("jdoe", "secret"));
+        assertEquals("The auth server should have been called only once", 1, requests.size());
+    }
+
+    @Test
+    public void differentPasswordIsNotServedFromCache() throws Exception {
+        converter.getAccessToken("jdoe", "secret");
+        converter.getAccessToken("jdoe", "another-secret");
+        assertEquals(2, requests.size());
+    }
+
+    @Test
+    public void expiringAccessTokenIsRenewedWithRefreshToken() throws Exception {
+        // expires before the default renewal margin of 30 seconds
+        expiresIn = 10;
+        assertEquals("access-1", converter.getAccessToken("jdoe", "secret"));
+        assertEquals("access-2", converter.getAccessToken("jdoe", "secret"));
+
+        assertEquals(PASSWORD_GRANT, requests.get(0));
+        assertEquals(REFRESH_GRANT + "refresh-1", requests.get(1));
+    }
+
+    @Test
+    public void failedRefreshFallsBackToPasswordGrant() throws Exception {
+        expiresIn = 10;
+        refreshResponse = "{\"error\":\"invalid_grant\"}";
+        converter.getAccessToken("jdoe", "secret");
+        assertEquals("access-3", converter.getAccessToken("jdoe", "secret"));
+
+        assertEquals(3, requests.size());
+        assertEquals(REFRESH_GRANT + "refresh-1", requests.get(1));
+        assertEquals(PASSWORD_GRANT, requests.get(2));
+    }
+
+    @Test
+    public void expiredRefreshTokenIsNotUsed() throws Exception {
+        expiresIn = 10;
+        refreshExpiresIn = 0;
+        converter.getAccessToken("jdoe", "secret");
+        converter.getAccessToken("jdoe", "secret");
+
+        assertEquals(2, requests.size());
+        assertEquals(PASSWORD_GRANT, requests.get(1));
+    }
+
+    @Test
+    public void refreshTokenIsNotShared() throws Exception {
+        converter.getAccessToken("jdoe", "secret");
+        String first = converter.getRefreshToken("jdoe", "secret");
+        String second = converter.getRefreshToken("jdoe", "secret");
+
+        assertNotEquals(first, second);
+        assertEquals(3, requests.size());
+        assertEquals(PASSWORD_GRANT, requests.get(2));
+        assertEquals("The cached access token should still be used", "access-1",
+                converter.getAccessToken("jdoe", "secret"));
+    }
+
+    @Test(expected = UsernamePasswordConversionException.class)
+    public void rejectedCredentials() throws Exception {
+        converter.executor = new AuthServerRequestExecutor() {
+            @Override
+            public String execute(String url, String urlParameters, String method) throws Exception {
+                return "{\"error\":\"invalid_grant\"}";
+            }
+        };
+        converter.getAccessToken("jdoe", "wrong");
+    }
+
+    @Test(expected = UsernamePasswordConversionException.class)
+    public void usernameIsRequired() throws Exception {
+        converter.getAccessToken("", "secret");
+    }
+}
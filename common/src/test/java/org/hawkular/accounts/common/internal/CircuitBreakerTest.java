@@ -0,0 +1,120 @@
+/*
+ * Copyright 2015-2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.accounts.common.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.Test;
+
+/**
+ * @author Juraci Paixão Kröhling
+ */
+public class CircuitBreakerTest {
+
+    @Test
+    public void testOpensWhenFailureRateIsReached() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(10, 4, 50, 60000, 1);
+        fail(circuitBreaker, 2);
+        succeed(circuitBreaker, 1);
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+
+        fail(circuitBreaker, 1);
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertEquals(CircuitBreaker.REJECTED, circuitBreaker.tryAcquire());
+        assertEquals(1, circuitBreaker.getRejected());
+    }
+
+    @Test
+    public void testOldOutcomesLeaveTheWindow() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(4, 4, 50, 60000, 1);
+        fail(circuitBreaker, 1);
+        succeed(circuitBreaker, 3);
+        assertEquals(25, circuitBreaker.getFailureRate());
+
+        succeed(circuitBreaker, 1);
+        assertEquals(0, circuitBreaker.getFailureRate());
+    }
+
+    @Test
+    public void testClosesAfterSuccessfulProbes() throws InterruptedException {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(2, 2, 50, 10, 2);
+        fail(circuitBreaker, 2);
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        Thread.sleep(20);
+
+        long first = circuitBreaker.tryAcquire();
+        long second = circuitBreaker.tryAcquire();
+        assertEquals("Only two probes should be allowed", CircuitBreaker.REJECTED, circuitBreaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+
+        circuitBreaker.onSuccess(first);
+        circuitBreaker.onSuccess(second);
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertEquals(0, circuitBreaker.getFailureRate());
+    }
+
+    @Test
+    public void testReopensWhenProbeFails() throws InterruptedException {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(2, 2, 50, 10, 1);
+        fail(circuitBreaker, 2);
+        Thread.sleep(20);
+
+        circuitBreaker.onFailure(circuitBreaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertEquals(2, circuitBreaker.getTimesOpened());
+    }
+
+    @Test
+    public void testCallsPermittedBeforeHalfOpenAreNotProbes() throws InterruptedException {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(2, 2, 50, 10, 1);
+        long slowSuccess = circuitBreaker.tryAcquire();
+        long slowFailure = circuitBreaker.tryAcquire();
+        fail(circuitBreaker, 2);
+        Thread.sleep(20);
+
+        long probe = circuitBreaker.tryAcquire();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+
+        circuitBreaker.onSuccess(slowSuccess);
+        assertEquals("A call permitted before the half-open period is not a probe",
+                CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        assertEquals(CircuitBreaker.REJECTED, circuitBreaker.tryAcquire());
+
+        circuitBreaker.onFailure(slowFailure);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+
+        circuitBreaker.onSuccess(probe);
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    private void fail(CircuitBreaker circuitBreaker, int times) {
+        for (int i = 0; i < times; i++) {
+            long permit = circuitBreaker.tryAcquire();
+            assertNotEquals(CircuitBreaker.REJECTED, permit);
+            circuitBreaker.onFailure(permit);
+        }
+    }
+
+    private void succeed(CircuitBreaker circuitBreaker, int times) {
+        for (int i = 0; i < times; i++) {
+            long permit = circuitBreaker.tryAcquire();
+            assertNotEquals(CircuitBreaker.REJECTED, permit);
+            circuitBreaker.onSuccess(permit);
+        }
+    }
+}
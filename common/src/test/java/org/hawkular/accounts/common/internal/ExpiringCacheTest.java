@@ -0,0 +1,110 @@
+/*
+ * Copyright 2015-2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.accounts.common.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ * @author Juraci Paixão Kröhling
+ */
+public class ExpiringCacheTest {
+
+    @Test
+    public void testHitAndMiss() {
+        ExpiringCache<String, String> cache = new ExpiringCache<>(10);
+        cache.put("key", "value", System.currentTimeMillis() + 60000);
+
+        assertEquals("value", cache.get("key"));
+        assertNull(cache.get("another-key"));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testExpiredEntryIsNotReturned() throws InterruptedException {
+        ExpiringCache<String, String> cache = new ExpiringCache<>(10);
+        cache.put("key", "value", System.currentTimeMillis() + 10);
+        Thread.sleep(20);
+
+        assertNull(cache.get("key"));
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void testAlreadyExpiredEntryIsNotAdded() {
+        ExpiringCache<String, String> cache = new ExpiringCache<>(10);
+        cache.put("key", "value", System.currentTimeMillis() - 1);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testRemoveIf() {
+        ExpiringCache<String, String> cache = new ExpiringCache<>(10);
+        long expiresAt = System.currentTimeMillis() + 60000;
+        cache.put("jdoe:acme", "value", expiresAt);
+        cache.put("jdoe:emca", "value", expiresAt);
+        cache.put("jsmith:acme", "value", expiresAt);
+
+        assertEquals(2, cache.removeIf(key -> key.startsWith("jdoe:")));
+        assertNull(cache.get("jdoe:acme"));
+        assertNull(cache.get("jdoe:emca"));
+        assertEquals("value", cache.get("jsmith:acme"));
+    }
+
+    @Test
+    public void testEntryClosestToExpirationIsEvictedWhenFull() {
+        ExpiringCache<String, String> cache = new ExpiringCache<>(2);
+        long now = System.currentTimeMillis();
+        cache.put("first", "first", now + 60000);
+        cache.put("second", "second", now + 10000);
+        cache.put("third", "third", now + 30000);
+
+        assertEquals(2, cache.size());
+        assertNull(cache.get("second"));
+        assertEquals("first", cache.get("first"));
+        assertEquals("third", cache.get("third"));
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void testTenthOfTheCacheIsEvictedWhenFull() {
+        ExpiringCache<String, String> cache = new ExpiringCache<>(20);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 21; i++) {
+            cache.put("key-" + i, "value", now + 60000 + i);
+        }
+
+        // the excess plus a tenth of the maximum size
+        assertEquals(18, cache.size());
+        assertEquals(3, cache.getEvictions());
+        assertNull(cache.get("key-0"));
+        assertNull(cache.get("key-2"));
+        assertEquals("value", cache.get("key-3"));
+
+        cache.put("key-21", "value", now + 60021);
+        assertEquals("There should be room for new entries without further evictions", 19, cache.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidMaxSize() {
+        new ExpiringCache<String, String>(0);
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2015-2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.accounts.common.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonReader;
+
+import org.hawkular.accounts.common.AuthServerRequestExecutor;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @author Juraci Paixão Kröhling
+ */
+public class LocalTokenVerifierTest {
+    private static final String ISSUER = "http://localhost:8080/auth/realms/hawkular";
+
+    private static KeyPair realmKeys;
+    private static KeyPair rotatedKeys;
+
+    private LocalTokenVerifier verifier;
+    private AtomicInteger jwksFetches;
+    private String jwks;
+
+    @BeforeClass
+    public static void generateKeys() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+        realmKeys = generator.generateKeyPair();
+        rotatedKeys = generator.generateKeyPair();
+    }
+
+    @Before
+    public void setup() {
+        jwksFetches = new AtomicInteger();
+        jwks = "{\"keys\":[]}";
+
+        verifier = new LocalTokenVerifier();
+        verifier.baseUrl = "http://localhost:8080/auth";
+        verifier.realm = "hawkular";
+        verifier.encodedRealmPublicKey = Base64.getEncoder().encodeToString(realmKeys.getPublic().getEncoded());
+        verifier.expectedIssuer = null;
+        verifier.expectedAudiences = Collections.emptySet();
+        verifier.executor = new AuthServerRequestExecutor() {
+            @Override
+            public String execute(String url, String method) throws Exception {
+                jwksFetches.incrementAndGet();
+                return jwks;
+            }
+        };
+    }
+
+    @Test
+    public void validTokenIsAccepted() throws Exception {
+        JsonObject response = verify(sign(null, claims(), realmKeys.getPrivate()));
+        assertTrue("The token should be active", response.getBoolean("active", false));
+        assertEquals("The claims should be part of the response", "jdoe", response.getString("sub"));
+    }
+
+    @Test
+    public void tokenWithInvalidSignatureIsRejected() throws Exception {
+        assertRejected("Invalid token signature.", sign(null, claims(), rotatedKeys.getPrivate()));
+    }
+
+    @Test
+    public void expiredTokenIsRejected() throws Exception {
+        JsonObjectBuilder claims = claims().add("exp", now() - 10);
+        assertRejected("Token is expired.", sign(null, claims, realmKeys.getPrivate()));
+    }
+
+    @Test
+    public void tokenNotValidYetIsRejected() throws Exception {
+        JsonObjectBuilder claims = claims().add("nbf", now() + 60);
+        assertRejected("Token is not active yet.", sign(null, claims, realmKeys.getPrivate()));
+    }
+
+    @Test
+    public void tokenFromAnotherRealmIsRejected() throws Exception {
+        JsonObjectBuilder claims = claims().add("iss", "http://localhost:8080/auth/realms/other");
+        assertRejected("Token was issued by a different realm.", sign(null, claims, realmKeys.getPrivate()));
+    }
+
+    @Test
+    public void tokenFromUnexpectedIssuerIsRejected() throws Exception {
+        verifier.expectedIssuer = "https://sso.example.com/auth/realms/hawkular";
+        assertRejected("Token was issued by an unexpected issuer.", sign(null, claims(), realmKeys.getPrivate()));
+    }
+
+    @Test
+    public void audienceAsString() throws Exception {
+        verifier.expectedAudiences = Collections.singleton("hawkular-accounts");
+
+        JsonObjectBuilder expected = claims().add("aud", "hawkular-accounts");
+        assertTrue(verify(sign(null, expected, realmKeys.getPrivate())).getBoolean("active", false));
+
+        JsonObjectBuilder unexpected = claims().add("aud", "hawkular-metrics");
+        assertRejected("Token is not intended for this audience.", sign(null, unexpected, realmKeys.getPrivate()));
+    }
+
+    @Test
+    public void audienceAsArray() throws Exception {
+        verifier.expectedAudiences = Collections.singleton("hawkular-accounts");
+
+        JsonObjectBuilder expected = claims().add("aud", Json.createArrayBuilder()
+                .add("hawkular-metrics")
+                .add("hawkular-accounts"));
+        assertTrue(verify(sign(null, expected, realmKeys.getPrivate())).getBoolean("active", false));
+
+        JsonObjectBuilder unexpected = claims().add("aud", Json.createArrayBuilder().add("hawkular-metrics"));
+        assertRejected("Token is not intended for this audience.", sign(null, unexpected, realmKeys.getPrivate()));
+    }
+
+    @Test
+    public void unknownKeyIdRefreshesTheKeys() throws Exception {
+        verifier.jwksMinRefreshInterval = -1;
+        jwks = jwks(Json.createArrayBuilder().add(jwk("first", realmKeys)));
+
+        assertTrue(verify(sign("first", claims(), realmKeys.getPrivate())).getBoolean("active", false));
+        assertEquals("The keys should have been fetched", 1, jwksFetches.get());
+
+        jwks = jwks(Json.createArrayBuilder().add(jwk("first", realmKeys)).add(jwk("second", rotatedKeys)));
+        assertTrue("The rotated key should have been found",
+                verify(sign("second", claims(), rotatedKeys.getPrivate())).getBoolean("active", false));
+        assertEquals("The keys should have been fetched again", 2, jwksFetches.get());
+
+        verify(sign("second", claims(), rotatedKeys.getPrivate()));
+        assertEquals("The known key should have been cached", 2, jwksFetches.get());
+    }
+
+    @Test
+    public void realmPublicKeyIsUsedForUnpublishedKeyId() throws Exception {
+        assertTrue(verify(sign("unpublished", claims(), realmKeys.getPrivate())).getBoolean("active", false));
+    }
+
+    @Test
+    public void unsupportedAlgorithmIsLeftForIntrospection() throws Exception {
+        String header = encode("{\"alg\":\"HS256\",\"typ\":\"JWT\"}");
+        String token = header + "." + encode(claims().build().toString()) + "." + encode("signature");
+        assertNull("The token should have been left for the introspection", verifier.verify(token));
+    }
+
+    @Test
+    public void unknownKeyIsLeftForIntrospection() throws Exception {
+        verifier.encodedRealmPublicKey = null;
+        assertNull("The token should have been left for the introspection",
+                verifier.verify(sign(null, claims(), realmKeys.getPrivate())));
+    }
+
+    private void assertRejected(String reason, String token) {
+        JsonObject response = verify(token);
+        assertEquals("invalid_token", response.getString("error"));
+        assertEquals(reason, response.getString("error_description"));
+    }
+
+    private JsonObject verify(String token) {
+        try (JsonReader reader = Json.createReader(new StringReader(verifier.verify(token)))) {
+            return reader.readObject();
+        }
+    }
+
+    private static JsonObjectBuilder claims() {
+        return Json.createObjectBuilder()
+                .add("sub", "jdoe")
+                .add("typ", "Bearer")
+                .add("iss", ISSUER)
+                .add("exp", now() + 60);
+    }
+
+    private static String sign(String keyId, JsonObjectBuilder claims, PrivateKey key) throws Exception {
+        JsonObjectBuilder header = Json.createObjectBuilder().add("alg", "RS256").add("typ", "JWT");
+        if (null != keyId) {
+            header.add("kid", keyId);
+        }
+
+        String content = encode(header.build().toString()) + "." + encode(claims.build().toString());
+        Signature signature = Signature.getInstance("SHA256withRSA");
+        signature.initSign(key);
+        signature.update(content.getBytes(StandardCharsets.US_ASCII));
+        return content + "." + Base64.getUrlEncoder().withoutPadding().encodeToString(signature.sign());
+    }
+
+    private static String jwks(JsonArrayBuilder keys) {
+        return Json.createObjectBuilder().add("keys", keys).build().toString();
+    }
+
+    private static JsonObjectBuilder jwk(String keyId, KeyPair keys) {
+        RSAPublicKey publicKey = (RSAPublicKey) keys.getPublic();
+        return Json.createObjectBuilder()
+                .add("kid", keyId)
+                .add("kty", "RSA")
+                .add("use", "sig")
+                .add("n", encode(publicKey.getModulus()))
+                .add("e", encode(publicKey.getPublicExponent()));
+    }
+
+    private static String encode(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        if (bytes.length > 1 && bytes[0] == 0) {
+            bytes = Arrays.copyOfRange(bytes, 1, bytes.length);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    private static String encode(String value) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static long now() {
+        return System.currentTimeMillis() / 1000;
+    }
+}
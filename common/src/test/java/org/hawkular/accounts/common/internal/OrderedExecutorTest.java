@@ -0,0 +1,98 @@
+/*
+ * Copyright 2015-2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.accounts.common.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * @author Juraci Paixão Kröhling
+ */
+public class OrderedExecutorTest {
+
+    @Test
+    public void testTasksForSameKeyRunInOrder() throws Exception {
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            OrderedExecutor<String> orderedExecutor = new OrderedExecutor<>(executorService);
+            List<Integer> executed = Collections.synchronizedList(new ArrayList<>());
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                int value = i;
+                futures.add(orderedExecutor.execute("jdoe", () -> executed.add(value)));
+            }
+
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[futures.size()])).get(5, TimeUnit.SECONDS);
+            for (int i = 0; i < 100; i++) {
+                assertEquals(i, (int) executed.get(i));
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testTasksForDifferentKeysRunInParallel() throws Exception {
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            OrderedExecutor<String> orderedExecutor = new OrderedExecutor<>(executorService);
+            CountDownLatch release = new CountDownLatch(1);
+            CompletableFuture<Void> blocked = orderedExecutor.execute("jdoe", () -> {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+
+            // should not wait for the task from the other key
+            orderedExecutor.execute("jsmith", () -> { }).get(5, TimeUnit.SECONDS);
+            release.countDown();
+            blocked.get(5, TimeUnit.SECONDS);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailureDoesNotBlockNextTask() throws Exception {
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            OrderedExecutor<String> orderedExecutor = new OrderedExecutor<>(executorService);
+            CompletableFuture<Void> failed = orderedExecutor.execute("jdoe", () -> {
+                throw new IllegalStateException("failed");
+            });
+            CompletableFuture<Void> next = orderedExecutor.execute("jdoe", () -> { });
+
+            next.get(5, TimeUnit.SECONDS);
+            assertTrue(failed.isCompletedExceptionally());
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+}
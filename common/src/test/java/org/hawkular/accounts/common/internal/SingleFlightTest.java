@@ -0,0 +1,108 @@
+/*
+ * Copyright 2015-2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.accounts.common.internal;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * @author Juraci Paixão Kröhling
+ */
+public class SingleFlightTest {
+
+    @Test
+    public void testConcurrentCallsAreCoalesced() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(5);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            results.add(executorService.submit(() -> singleFlight.execute("key", () -> {
+                started.countDown();
+                release.await(5, TimeUnit.SECONDS);
+                return "value-" + calls.incrementAndGet();
+            })));
+            started.await(5, TimeUnit.SECONDS);
+
+            for (int i = 0; i < 4; i++) {
+                results.add(executorService.submit(() -> singleFlight.execute("key",
+                        () -> "value-" + calls.incrementAndGet())));
+            }
+
+            // wait for the other callers to join the call in flight
+            while (singleFlight.getShared() < 4) {
+                Thread.sleep(10);
+            }
+            release.countDown();
+
+            for (Future<String> result : results) {
+                assertEquals("value-1", result.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(1, calls.get());
+            assertEquals(1, singleFlight.getExecuted());
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSequentialCallsAreNotCached() throws Exception {
+        SingleFlight<String, Integer> singleFlight = new SingleFlight<>();
+        AtomicInteger calls = new AtomicInteger();
+
+        assertEquals(1, (int) singleFlight.execute("key", calls::incrementAndGet));
+        assertEquals(2, (int) singleFlight.execute("key", calls::incrementAndGet));
+        assertEquals(0, singleFlight.getShared());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testExceptionIsPropagated() throws Exception {
+        new SingleFlight<String, String>().execute("key", () -> {
+            throw new IllegalStateException("failed");
+        });
+    }
+
+    @Test
+    public void testAsyncCallsAreCoalesced() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        CompletableFuture<String> call = new CompletableFuture<>();
+
+        CompletableFuture<String> first = singleFlight.executeAsync("key", () -> call);
+        CompletableFuture<String> second = singleFlight.executeAsync("key",
+                () -> CompletableFuture.completedFuture("other"));
+        call.complete("value");
+
+        assertEquals("value", first.get());
+        assertEquals("value", second.get());
+        assertEquals(1, singleFlight.getExecuted());
+        assertEquals(1, singleFlight.getShared());
+    }
+}
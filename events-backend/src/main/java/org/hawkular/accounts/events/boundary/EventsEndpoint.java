@@ -16,12 +16,12 @@
  */
 package org.hawkular.accounts.events.boundary;
 
+import java.util.Collections;
+import java.util.List;
+
 import javax.enterprise.context.RequestScoped;
 import javax.inject.Inject;
 import javax.jms.JMSException;
-import javax.jms.Message;
-import javax.jms.MessageProducer;
-import javax.jms.TopicSession;
 import javax.validation.Valid;
 import javax.ws.rs.BeanParam;
 import javax.ws.rs.Consumes;
@@ -30,22 +30,35 @@ import javax.ws.rs.Path;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
+import org.hawkular.accounts.events.control.EventPublisher;
 import org.hawkular.accounts.events.control.MsgLogger;
 import org.hawkular.accounts.events.entity.EventCreateRequest;
 
 /**
+ * Receives events and publishes them to the accounts events topic. When there are too many events being published
+ * at the moment, requests are rejected with the status code 429 and a {@code Retry-After} header, set by the system
+ * property {@code org.hawkular.accounts.events.retry-after} (1 second by default).
+ * <p>
+ * Batches are limited to {@code org.hawkular.accounts.events.max-batch-size} (25) events, and never to more than the
+ * number of events that can be in flight. Larger batches are rejected with the status code 413, and should be split
+ * by the client. The limit is kept well below the number of events in flight, so that a full batch is still accepted
+ * while other events are being published.
+ *
  * @author Juraci Paixão Kröhling
  */
 @Path("/events")
 @RequestScoped
 public class EventsEndpoint {
-    private final MsgLogger logger = MsgLogger.LOGGER;
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final String RETRY_AFTER = "org.hawkular.accounts.events.retry-after";
+    private static final String MAX_BATCH_SIZE = "org.hawkular.accounts.events.max-batch-size";
 
-    @Inject
-    TopicSession topicSession;
+    private final MsgLogger logger = MsgLogger.LOGGER;
+    private final String retryAfter = System.getProperty(RETRY_AFTER, "1");
+    private final int maxBatchSize = Integer.parseInt(System.getProperty(MAX_BATCH_SIZE, "25"));
 
     @Inject
-    MessageProducer messageProducer;
+    EventPublisher eventPublisher;
 
     @POST
     @Consumes(MediaType.APPLICATION_JSON)
@@ -62,15 +75,46 @@ public class EventsEndpoint {
     @POST
     public Response create(EventCreateRequest request) throws JMSException {
         logger.eventReceived(request.getAction(), request.getUserId(), request.getEventId());
-        Message message = topicSession.createMessage();
-        message.setStringProperty("action", request.getAction());
-        message.setStringProperty("userId", request.getUserId());
-        message.setStringProperty("eventId", request.getEventId());
-        messageProducer.send(message);
-        messageProducer.close();
-        logger.eventPublished();
+        return publish(Collections.singletonList(request));
+    }
 
-        return Response.noContent().build();
+    /**
+     * Publishes all the given events at once. The batch is not atomic: see {@link EventPublisher#publish(List)}.
+     * @param requests    the events to publish
+     * @return a response with no content, with the status code 413 if the batch is too large, or with the status
+     * code 429 if there are too many events being published
+     */
+    @POST
+    @Path("/batch")
+    @Consumes(MediaType.APPLICATION_JSON)
+    public Response createBatch(@Valid List<EventCreateRequest> requests) throws JMSException {
+        int limit = Math.min(maxBatchSize, eventPublisher.getMaxInFlight());
+        if (requests.size() > limit) {
+            logger.batchTooLarge(requests.size(), limit);
+            return Response.status(Response.Status.REQUEST_ENTITY_TOO_LARGE).build();
+        }
+
+        requests.forEach(r -> logger.eventReceived(r.getAction(), r.getUserId(), r.getEventId()));
+        return publish(requests);
     }
 
+    private Response publish(List<EventCreateRequest> requests) throws JMSException {
+        if (!eventPublisher.tryAcquire(requests.size())) {
+            logger.tooManyEventsInFlight();
+            return Response.status(TOO_MANY_REQUESTS).header("Retry-After", retryAfter).build();
+        }
+
+        try {
+            eventPublisher.publish(requests);
+        } finally {
+            eventPublisher.release(requests.size());
+        }
+
+        if (requests.size() == 1) {
+            logger.eventPublished();
+        } else {
+            logger.batchPublished(requests.size());
+        }
+        return Response.noContent().build();
+    }
 }
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.accounts.events.boundary;
+
+import java.io.IOException;
+import java.security.Principal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.hawkular.accounts.events.control.EventStream;
+import org.hawkular.accounts.events.control.StreamSubscriber;
+
+/**
+ * Streams the accounts events of the authenticated user to the client, as {@code text/event-stream}. The events can
+ * be filtered by action, with one or more {@code action} query parameters. The {@code persona} query parameter, if
+ * present, has to be the user's own ID, as users cannot follow the events of other users. Each event has the
+ * Keycloak event type as its name, the event ID as its ID and a JSON object with the action, user ID and event ID as
+ * its data. Clients reconnecting with a {@code Last-Event-ID} header receive the recent events they have missed.
+ * <p>
+ * This is a servlet instead of a method on {@link EventsEndpoint}, as JAX-RS 2.0 has no support for event streams
+ * and as the events are written with the non-blocking I/O from the servlet API, so that the subscribers don't hold a
+ * thread each.
+ *
+ * @author Juraci Paixão Kröhling
+ */
+@WebServlet(urlPatterns = "/events/stream", asyncSupported = true)
+public class EventsStreamServlet extends HttpServlet {
+    private static final String RETRY_AFTER = "10";
+
+    @Inject
+    EventStream eventStream;
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String[] actionValues = request.getParameterValues("action");
+        Set<String> actions = null == actionValues
+                ? Collections.emptySet()
+                : new HashSet<>(Arrays.asList(actionValues));
+        Principal principal = request.getUserPrincipal();
+        if (null == principal) {
+            response.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+            return;
+        }
+
+        String persona = principal.getName();
+        String requestedPersona = request.getParameter("persona");
+        if (null != requestedPersona && !requestedPersona.equals(persona)) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+
+        if (!eventStream.hasCapacity()) {
+            response.setHeader("Retry-After", RETRY_AFTER);
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return;
+        }
+
+        response.setContentType("text/event-stream");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "no-cache");
+
+        AsyncContext asyncContext = request.startAsync();
+        asyncContext.setTimeout(0);
+        ServletOutputStream output = response.getOutputStream();
+        StreamSubscriber subscriber = new StreamSubscriber(asyncContext, output, actions, persona,
+                eventStream.getBufferSize());
+
+        // switches the output to non-blocking mode, which has to happen before anything is written to it, and sends
+        // the headers as soon as the output is ready
+        output.setWriteListener(subscriber);
+        subscriber.offer(":\n\n");
+
+        if (!eventStream.subscribe(subscriber, request.getHeader("Last-Event-ID"))) {
+            // the last slot was taken by a concurrent request: the client is expected to reconnect
+            asyncContext.complete();
+            return;
+        }
+
+        asyncContext.addListener(new AsyncListener() {
+            @Override
+            public void onComplete(AsyncEvent event) {
+                eventStream.unsubscribe(subscriber);
+            }
+
+            @Override
+            public void onTimeout(AsyncEvent event) {
+                eventStream.unsubscribe(subscriber);
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+                eventStream.unsubscribe(subscriber);
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+    }
+}
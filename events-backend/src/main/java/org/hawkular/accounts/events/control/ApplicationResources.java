@@ -18,15 +18,9 @@ package org.hawkular.accounts.events.control;
 
 import javax.annotation.Resource;
 import javax.enterprise.context.ApplicationScoped;
-import javax.enterprise.inject.Disposes;
 import javax.enterprise.inject.Produces;
-import javax.jms.JMSException;
-import javax.jms.MessageProducer;
-import javax.jms.Session;
 import javax.jms.Topic;
-import javax.jms.TopicConnection;
 import javax.jms.TopicConnectionFactory;
-import javax.jms.TopicSession;
 
 /**
  * @author Juraci Paixão Kröhling
@@ -34,32 +28,9 @@ import javax.jms.TopicSession;
 @ApplicationScoped
 public class ApplicationResources {
 
-    @Resource(name = "java:/HawkularBusConnectionFactory")
+    @Produces @Resource(name = "java:/HawkularBusConnectionFactory")
     private TopicConnectionFactory busConnectionFactory;
 
     @Produces @Resource(name = "java:/topic/HawkularAccountsEvents")
     private Topic accountsEventsTopic;
-
-    @Produces
-    public TopicConnection createAccountsEventsConnection() throws JMSException {
-        return busConnectionFactory.createTopicConnection();
-    }
-
-    @Produces
-    public MessageProducer createAccountsEventsMessageProducer(TopicSession session) throws JMSException {
-        return session.createPublisher(accountsEventsTopic);
-    }
-
-    @Produces
-    public TopicSession createAccountsEventsSession(TopicConnection connection) throws JMSException {
-        return connection.createTopicSession(true, Session.AUTO_ACKNOWLEDGE);
-    }
-
-    public void closeAccountsEventsConnection(@Disposes TopicConnection connection) throws JMSException {
-        connection.close();
-    }
-
-    public void closeAccountsEventsSession(@Disposes TopicSession session) throws JMSException {
-        session.close();
-    }
 }
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.accounts.events.control;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Session;
+import javax.jms.Topic;
+import javax.jms.TopicConnection;
+import javax.jms.TopicConnectionFactory;
+import javax.jms.TopicPublisher;
+import javax.jms.TopicSession;
+
+import org.hawkular.accounts.events.entity.EventCreateRequest;
+
+/**
+ * Publishes events to the accounts events topic, reusing the JMS connections, sessions and publishers across
+ * requests. As a session can't be used concurrently, each publish operation borrows one from the pool, returning it
+ * once the events are sent. Up to {@code org.hawkular.accounts.events.publisher.pool-size} (10 by default) idle
+ * sessions are kept in the pool.
+ * <p>
+ * The number of events being published at any given time is limited to
+ * {@code org.hawkular.accounts.events.max-in-flight} (100 by default), so that a single request with a large batch
+ * weighs as much as the same number of requests with one event each. Callers are expected to reject the request once
+ * this limit is reached, see {@link #tryAcquire(int)}.
+ *
+ * @author Juraci Paixão Kröhling
+ */
+@ApplicationScoped
+public class EventPublisher {
+    private final MsgLogger logger = MsgLogger.LOGGER;
+
+    private static final String POOL_SIZE = "org.hawkular.accounts.events.publisher.pool-size";
+    private static final String MAX_IN_FLIGHT = "org.hawkular.accounts.events.max-in-flight";
+
+    @Inject
+    TopicConnectionFactory busConnectionFactory;
+
+    @Inject
+    Topic accountsEventsTopic;
+
+    private final int maxInFlight = Integer.parseInt(System.getProperty(MAX_IN_FLIGHT, "100"));
+    private final Semaphore inFlight = new Semaphore(maxInFlight);
+    private final BlockingQueue<PooledPublisher> idle = new LinkedBlockingQueue<>(
+            Integer.parseInt(System.getProperty(POOL_SIZE, "10")));
+
+    private final LongAdder published = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Reserves the slots for the given number of events to be published. Each successful call should be followed by a
+     * call to {@link #release(int)} with the same number, once the events are published.
+     * @param events    the number of events about to be published
+     * @return false if there are too many events in flight already
+     */
+    public boolean tryAcquire(int events) {
+        if (inFlight.tryAcquire(events)) {
+            return true;
+        }
+        rejected.increment();
+        return false;
+    }
+
+    public void release(int events) {
+        inFlight.release(events);
+    }
+
+    /**
+     * Publishes the given events on a single session. The sessions created by the container's pooled connection
+     * factory ignore the transacted flag: they are either not transacted or enlisted in the caller's JTA
+     * transaction, and the request isn't running in one. So, the events are usually sent one by one, and a failure
+     * in the middle of the batch leaves the previous events published. Only if the session is really transacted are
+     * the events committed all at once.
+     * @param requests    the events to publish
+     * @throws JMSException if the events could not be published
+     */
+    public void publish(List<EventCreateRequest> requests) throws JMSException {
+        PooledPublisher publisher = borrow();
+        try {
+            for (EventCreateRequest request : requests) {
+                Message message = publisher.session.createMessage();
+                message.setStringProperty("action", request.getAction());
+                message.setStringProperty("userId", request.getUserId());
+                message.setStringProperty("eventId", request.getEventId());
+                if (null != request.getCount()) {
+                    message.setIntProperty("count", request.getCount());
+                }
+                if (null != request.getFirstTimestamp() && null != request.getLastTimestamp()) {
+                    message.setLongProperty("firstTimestamp", request.getFirstTimestamp());
+                    message.setLongProperty("lastTimestamp", request.getLastTimestamp());
+                }
+                publisher.publisher.publish(message);
+            }
+
+            if (publisher.session.getTransacted()) {
+                publisher.session.commit();
+            }
+        } catch (JMSException | RuntimeException e) {
+            // we don't know in which state the session is, so, we don't return it to the pool
+            publisher.rollbackAndClose();
+            throw e;
+        }
+
+        published.add(requests.size());
+        giveBack(publisher);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        PooledPublisher publisher;
+        while ((publisher = idle.poll()) != null) {
+            publisher.close();
+        }
+    }
+
+    /**
+     * @return the maximum number of events that can be published at the same time
+     */
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * @return the number of events being published at the moment
+     */
+    public int getInFlight() {
+        return maxInFlight - inFlight.availablePermits();
+    }
+
+    public int getIdle() {
+        return idle.size();
+    }
+
+    public long getPublished() {
+        return published.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    private PooledPublisher borrow() throws JMSException {
+        PooledPublisher publisher = idle.poll();
+        if (null != publisher) {
+            return publisher;
+        }
+
+        // in Java EE, there should be only one session per connection, so, we need a connection for each session
+        TopicConnection connection = busConnectionFactory.createTopicConnection();
+        try {
+            TopicSession session = connection.createTopicSession(true, Session.AUTO_ACKNOWLEDGE);
+            TopicPublisher topicPublisher = session.createPublisher(accountsEventsTopic);
+            logger.publisherCreated();
+            return new PooledPublisher(connection, session, topicPublisher);
+        } catch (JMSException | RuntimeException e) {
+            connection.close();
+            throw e;
+        }
+    }
+
+    private void giveBack(PooledPublisher publisher) {
+        if (!idle.offer(publisher)) {
+            // the pool is full already
+            publisher.close();
+        }
+    }
+
+    private class PooledPublisher {
+        private final TopicConnection connection;
+        private final TopicSession session;
+        private final TopicPublisher publisher;
+
+        PooledPublisher(TopicConnection connection, TopicSession session, TopicPublisher publisher) {
+            this.connection = connection;
+            this.session = session;
+            this.publisher = publisher;
+        }
+
+        void rollbackAndClose() {
+            try {
+                if (session.getTransacted()) {
+                    session.rollback();
+                }
+            } catch (JMSException | RuntimeException e) {
+                logger.couldNotRollback(e);
+            }
+            close();
+        }
+
+        void close() {
+            try {
+                connection.close();
+            } catch (JMSException | RuntimeException e) {
+                logger.couldNotClosePublisher(e);
+            }
+        }
+    }
+}
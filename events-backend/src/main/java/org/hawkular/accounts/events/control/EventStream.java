@@ -0,0 +1,278 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.accounts.events.control;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+
+/**
+ * Fans out the events received from the accounts events topic to the clients subscribed to the event stream.
+ * <p>
+ * At most {@code org.hawkular.accounts.events.stream.max-subscribers} (1000) clients can be subscribed at the same
+ * time. Each subscriber has a buffer of {@code org.hawkular.accounts.events.stream.buffer-size} (100) events. A
+ * subscriber whose buffer is full is disconnected, so that a slow client doesn't cause memory to grow: clients are
+ * expected to reconnect, using the ID of the last event they received, as per the event stream specification. The
+ * last {@code org.hawkular.accounts.events.stream.replay-size} (100) events are kept, and the ones after the given
+ * ID are sent again to the reconnecting client. If the given ID is older than that, the events in between are lost.
+ * Events aggregated by the Keycloak listener carry their {@code count}, {@code firstTimestamp} and
+ * {@code lastTimestamp}.
+ * <p>
+ * A comment is sent to all subscribers every {@code org.hawkular.accounts.events.stream.heartbeat} milliseconds (15
+ * seconds), so that broken connections are detected and intermediaries don't close idle connections.
+ *
+ * @author Juraci Paixão Kröhling
+ */
+@ApplicationScoped
+public class EventStream {
+    private static final String MAX_SUBSCRIBERS = "org.hawkular.accounts.events.stream.max-subscribers";
+    private static final String BUFFER_SIZE = "org.hawkular.accounts.events.stream.buffer-size";
+    private static final String HEARTBEAT = "org.hawkular.accounts.events.stream.heartbeat";
+    private static final String REPLAY_SIZE = "org.hawkular.accounts.events.stream.replay-size";
+    private static final String HEARTBEAT_CHUNK = ":\n\n";
+
+    private final MsgLogger logger = MsgLogger.LOGGER;
+
+    private final int maxSubscribers = Integer.parseInt(System.getProperty(MAX_SUBSCRIBERS, "1000"));
+    private final int bufferSize = Integer.parseInt(System.getProperty(BUFFER_SIZE, "100"));
+    private final long heartbeat = Long.parseLong(System.getProperty(HEARTBEAT, "15000"));
+    private final int replaySize = Integer.parseInt(System.getProperty(REPLAY_SIZE, "100"));
+
+    private final Set<StreamSubscriber> subscribers = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The most recent events, from the oldest to the newest. Also guards the subscriptions, so that a new subscriber
+     * gets each event either from the replay or from the broadcast, but not from both.
+     */
+    private final Deque<RecentEvent> recentEvents = new ArrayDeque<>();
+    private final LongAdder broadcastEvents = new LongAdder();
+    private final LongAdder droppedSubscribers = new LongAdder();
+
+    @Resource
+    private ManagedScheduledExecutorService scheduler;
+
+    private ScheduledFuture<?> heartbeatTask;
+
+    @PostConstruct
+    public void init() {
+        heartbeatTask = scheduler.scheduleWithFixedDelay(this::sendHeartbeat, heartbeat, heartbeat,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        heartbeatTask.cancel(false);
+        subscribers.forEach(StreamSubscriber::close);
+        subscribers.clear();
+    }
+
+    /**
+     * Adds the subscriber to the stream, if the maximum number of subscribers has not been reached. The recent events
+     * after the given event ID are sent to the subscriber first.
+     * @param subscriber     the subscriber
+     * @param lastEventId    the ID of the last event the subscriber has received, or null for a new subscriber
+     * @return false if there are too many subscribers or if the recent events don't fit the subscriber's buffer, in
+     * which case the subscriber is not added
+     */
+    public boolean subscribe(StreamSubscriber subscriber, String lastEventId) {
+        synchronized (recentEvents) {
+            if (subscribers.size() >= maxSubscribers) {
+                logger.tooManySubscribers();
+                return false;
+            }
+
+            if (null != lastEventId && !replay(subscriber, lastEventId)) {
+                logger.slowSubscriberDropped();
+                return false;
+            }
+
+            subscribers.add(subscriber);
+        }
+        logger.subscriberAdded(subscribers.size());
+        return true;
+    }
+
+    /**
+     * @return whether there's room for more subscribers
+     */
+    public boolean hasCapacity() {
+        return subscribers.size() < maxSubscribers;
+    }
+
+    public void unsubscribe(StreamSubscriber subscriber) {
+        if (subscribers.remove(subscriber)) {
+            subscriber.close();
+            logger.subscriberRemoved(subscribers.size());
+        }
+    }
+
+    /**
+     * Sends the event to the subscribers that are interested in it. The event is formatted only once, and only if
+     * there's at least one interested subscriber.
+     * @param action     the event's action
+     * @param userId     the ID of the user who triggered the event
+     * @param eventId    the event's ID
+     * @param count             the number of Keycloak events represented by the event, or null if the event is not
+     *                          an aggregation
+     * @param firstTimestamp    the time of the first Keycloak event represented by the event, or null
+     * @param lastTimestamp     the time of the last Keycloak event represented by the event, or null
+     */
+    public void broadcast(String action, String userId, String eventId, Integer count, Long firstTimestamp,
+                          Long lastTimestamp) {
+        synchronized (recentEvents) {
+            String chunk = null;
+            if (replaySize > 0) {
+                chunk = format(action, userId, eventId, count, firstTimestamp, lastTimestamp);
+                if (recentEvents.size() >= replaySize) {
+                    recentEvents.poll();
+                }
+                recentEvents.add(new RecentEvent(action, userId, eventId, chunk));
+            }
+
+            for (StreamSubscriber subscriber : subscribers) {
+                if (!subscriber.accepts(action, userId)) {
+                    continue;
+                }
+
+                if (null == chunk) {
+                    chunk = format(action, userId, eventId, count, firstTimestamp, lastTimestamp);
+                }
+
+                try {
+                    if (!subscriber.offer(chunk)) {
+                        droppedSubscribers.increment();
+                        logger.slowSubscriberDropped();
+                        unsubscribe(subscriber);
+                    }
+                } catch (RuntimeException e) {
+                    // a failure on one subscriber should not prevent the others from receiving the event
+                    logger.couldNotWriteToSubscriber(e);
+                    unsubscribe(subscriber);
+                }
+            }
+        }
+        broadcastEvents.increment();
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    public long getBroadcastEvents() {
+        return broadcastEvents.sum();
+    }
+
+    public long getDroppedSubscribers() {
+        return droppedSubscribers.sum();
+    }
+
+    private boolean replay(StreamSubscriber subscriber, String lastEventId) {
+        boolean found = false;
+        for (RecentEvent event : recentEvents) {
+            if (!found) {
+                found = lastEventId.equals(event.eventId);
+                continue;
+            }
+
+            if (subscriber.accepts(event.action, event.userId) && !subscriber.offer(event.chunk)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void sendHeartbeat() {
+        for (StreamSubscriber subscriber : subscribers) {
+            try {
+                if (subscriber.isClosed() || !subscriber.offer(HEARTBEAT_CHUNK)) {
+                    unsubscribe(subscriber);
+                }
+            } catch (RuntimeException e) {
+                logger.couldNotWriteToSubscriber(e);
+                unsubscribe(subscriber);
+            }
+        }
+    }
+
+    static String format(String action, String userId, String eventId, Integer count, Long firstTimestamp,
+                         Long lastTimestamp) {
+        StringBuilder chunk = new StringBuilder();
+        if (null != eventId) {
+            chunk.append("id: ").append(singleLine(eventId)).append('\n');
+        }
+        if (null != action) {
+            chunk.append("event: ").append(singleLine(action)).append('\n');
+        }
+
+        JsonObjectBuilder data = Json.createObjectBuilder();
+        add(data, "action", action);
+        add(data, "userId", userId);
+        add(data, "eventId", eventId);
+        if (null != count) {
+            data.add("count", count);
+        }
+        if (null != firstTimestamp && null != lastTimestamp) {
+            data.add("firstTimestamp", firstTimestamp).add("lastTimestamp", lastTimestamp);
+        }
+
+        // the JSON is written on a single line, as line breaks in strings are escaped
+        chunk.append("data: ").append(data.build().toString()).append("\n\n");
+        return chunk.toString();
+    }
+
+    private static class RecentEvent {
+        private final String action;
+        private final String userId;
+        private final String eventId;
+        private final String chunk;
+
+        RecentEvent(String action, String userId, String eventId, String chunk) {
+            this.action = action;
+            this.userId = userId;
+            this.eventId = eventId;
+            this.chunk = chunk;
+        }
+    }
+
+    private static String singleLine(String value) {
+        return value.replace('\r', ' ').replace('\n', ' ');
+    }
+
+    private static void add(JsonObjectBuilder data, String name, String value) {
+        if (null == value) {
+            data.addNull(name);
+        } else {
+            data.add(name, value);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.accounts.events.control;
+
+import javax.ejb.ActivationConfigProperty;
+import javax.ejb.MessageDriven;
+import javax.inject.Inject;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+
+/**
+ * The single consumer of the accounts events topic for the {@link EventStream}. A single session is used, so that
+ * events are sent to the subscribers in the order they were published.
+ *
+ * @author Juraci Paixão Kröhling
+ */
+@MessageDriven(activationConfig = {
+        @ActivationConfigProperty(
+                propertyName = "destinationLookup",
+                propertyValue = "topic/HawkularAccountsEvents"
+        ),
+
+        @ActivationConfigProperty(
+                propertyName = "destination",
+                propertyValue = "HawkularAccountsEvents"
+        ),
+
+        @ActivationConfigProperty(
+                propertyName = "destinationType",
+                propertyValue = "javax.jms.Topic"
+        ),
+
+        @ActivationConfigProperty(
+                propertyName = "connectionFactoryJndiName",
+                propertyValue = "java:/HawkularBusConnectionFactory"
+        ),
+
+        @ActivationConfigProperty(
+                propertyName = "maxSession",
+                propertyValue = "1"
+        )
+})
+public class EventStreamListener implements MessageListener {
+    private final MsgLogger logger = MsgLogger.LOGGER;
+
+    @Inject
+    EventStream eventStream;
+
+    @Override
+    public void onMessage(Message message) {
+        // even without subscribers, the event is kept for the clients that are about to reconnect
+        try {
+            eventStream.broadcast(
+                    message.getStringProperty("action"),
+                    message.getStringProperty("userId"),
+                    message.getStringProperty("eventId"),
+                    message.propertyExists("count") ? message.getIntProperty("count") : null,
+                    message.propertyExists("firstTimestamp") ? message.getLongProperty("firstTimestamp") : null,
+                    message.propertyExists("lastTimestamp") ? message.getLongProperty("lastTimestamp") : null
+            );
+        } catch (JMSException e) {
+            logger.couldNotReadEvent(e);
+        }
+    }
+}
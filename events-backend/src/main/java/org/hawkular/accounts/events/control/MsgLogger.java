@@ -17,6 +17,7 @@
 package org.hawkular.accounts.events.control;
 
 import org.jboss.logging.Logger;
+import org.jboss.logging.annotations.Cause;
 import org.jboss.logging.annotations.LogMessage;
 import org.jboss.logging.annotations.Message;
 import org.jboss.logging.annotations.ValidIdRange;
@@ -38,4 +39,52 @@ public interface MsgLogger {
     @LogMessage(level = Logger.Level.DEBUG)
     @Message(id = 130001, value = "Event published to the queue by Accounts")
     void eventPublished();
+
+    @LogMessage(level = Logger.Level.DEBUG)
+    @Message(id = 130002, value = "New JMS session created for publishing events")
+    void publisherCreated();
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 130003, value = "Could not roll back the JMS session after a failure to publish events")
+    void couldNotRollback(@Cause Throwable t);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 130004, value = "Could not close the JMS connection used for publishing events")
+    void couldNotClosePublisher(@Cause Throwable t);
+
+    @LogMessage(level = Logger.Level.DEBUG)
+    @Message(id = 130005, value = "Batch of [%d] events published to the queue by Accounts")
+    void batchPublished(int size);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 130006, value = "Too many events being published at the moment. Rejecting request.")
+    void tooManyEventsInFlight();
+
+    @LogMessage(level = Logger.Level.DEBUG)
+    @Message(id = 130007, value = "Event stream subscriber added. Subscribers: [%d]")
+    void subscriberAdded(int subscribers);
+
+    @LogMessage(level = Logger.Level.DEBUG)
+    @Message(id = 130008, value = "Event stream subscriber removed. Subscribers: [%d]")
+    void subscriberRemoved(int subscribers);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 130009, value = "Too many event stream subscribers. Rejecting subscription.")
+    void tooManySubscribers();
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 130010, value = "Event stream subscriber is too slow to consume the events. Disconnecting it.")
+    void slowSubscriberDropped();
+
+    @LogMessage(level = Logger.Level.DEBUG)
+    @Message(id = 130011, value = "Could not write to the event stream subscriber")
+    void couldNotWriteToSubscriber(@Cause Throwable t);
+
+    @LogMessage(level = Logger.Level.ERROR)
+    @Message(id = 130012, value = "Could not read the event from the accounts events topic")
+    void couldNotReadEvent(@Cause Throwable t);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 130013, value = "Batch of [%d] events is larger than the maximum of [%d]. Rejecting request.")
+    void batchTooLarge(int size, int maxBatchSize);
 }
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.accounts.events.control;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.Set;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+
+/**
+ * A client subscribed to the stream of events. Events are written with non-blocking I/O, so that a slow client
+ * doesn't hold a thread. Events that cannot be written right away are kept on a bounded buffer:
+ * {@link #offer(String)} returns false once the buffer is full.
+ *
+ * @author Juraci Paixão Kröhling
+ */
+public class StreamSubscriber implements WriteListener {
+    private final MsgLogger logger = MsgLogger.LOGGER;
+
+    private final AsyncContext asyncContext;
+    private final ServletOutputStream output;
+    private final Set<String> actions;
+    private final String persona;
+    private final int bufferSize;
+
+    private final Queue<byte[]> pending = new ArrayDeque<>();
+    private boolean pendingFlush = false;
+    private boolean closed = false;
+
+    /**
+     * @param asyncContext    the context for the client's request
+     * @param output          the output stream for the client's response, already set to non-blocking mode
+     * @param actions         the actions the client is interested in, or an empty set for all actions
+     * @param persona         the persona the client is interested in, or null for all personas
+     * @param bufferSize      the maximum number of events waiting to be written
+     */
+    public StreamSubscriber(AsyncContext asyncContext, ServletOutputStream output, Set<String> actions,
+                            String persona, int bufferSize) {
+        this.asyncContext = asyncContext;
+        this.output = output;
+        this.actions = actions;
+        this.persona = persona;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * @param action    the event's action
+     * @param userId    the ID of the user who triggered the event
+     * @return whether the client is interested in the event
+     */
+    public boolean accepts(String action, String userId) {
+        return (actions.isEmpty() || actions.contains(action)) && (null == persona || persona.equals(userId));
+    }
+
+    /**
+     * Writes the given chunk to the client, or adds it to the buffer if the client is not ready to receive it.
+     * @param chunk    the chunk, already formatted as per the event stream format
+     * @return false if the buffer is full or if the subscriber is closed, in which case the chunk is discarded
+     */
+    public boolean offer(String chunk) {
+        IOException failure;
+        synchronized (this) {
+            if (closed || pending.size() >= bufferSize) {
+                return false;
+            }
+
+            pending.add(chunk.getBytes(StandardCharsets.UTF_8));
+            try {
+                onWritePossible();
+                return true;
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+
+        // the response is completed outside of the lock, as the container might call us back
+        onError(failure);
+        return false;
+    }
+
+    @Override
+    public synchronized void onWritePossible() throws IOException {
+        while (!closed && output.isReady()) {
+            byte[] next = pending.poll();
+            if (null == next) {
+                if (!pendingFlush) {
+                    return;
+                }
+                pendingFlush = false;
+                output.flush();
+                continue;
+            }
+
+            output.write(next);
+            pendingFlush = true;
+        }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        logger.couldNotWriteToSubscriber(t);
+        close();
+    }
+
+    /**
+     * Discards the buffered events and ends the client's response.
+     */
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            pending.clear();
+        }
+
+        try {
+            asyncContext.complete();
+        } catch (IllegalStateException e) {
+            // the response has already been completed by the container
+        }
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    public synchronized int size() {
+        return pending.size();
+    }
+}
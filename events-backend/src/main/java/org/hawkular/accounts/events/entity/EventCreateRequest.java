@@ -36,6 +36,15 @@ public class EventCreateRequest {
     @NotNull
     private String action;
 
+    @FormParam("count")
+    private Integer count;
+
+    @FormParam("firstTimestamp")
+    private Long firstTimestamp;
+
+    @FormParam("lastTimestamp")
+    private Long lastTimestamp;
+
     public EventCreateRequest(String userId, String eventId, String action) {
         this.userId = userId;
         this.eventId = eventId;
@@ -68,4 +77,33 @@ public class EventCreateRequest {
     public void setAction(String action) {
         this.action = action;
     }
+
+    /**
+     * How many events of the same type, for the same user, this event represents, when the events are aggregated by
+     * the Keycloak event listener.
+     * @return the number of events represented by this event, or null if it represents a single event
+     */
+    public Integer getCount() {
+        return count;
+    }
+
+    public void setCount(Integer count) {
+        this.count = count;
+    }
+
+    public Long getFirstTimestamp() {
+        return firstTimestamp;
+    }
+
+    public void setFirstTimestamp(Long firstTimestamp) {
+        this.firstTimestamp = firstTimestamp;
+    }
+
+    public Long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    public void setLastTimestamp(Long lastTimestamp) {
+        this.lastTimestamp = lastTimestamp;
+    }
 }
@@ -25,11 +25,28 @@ public class AccountsEvent {
     private Persona persona;
     private String eventId;
     private String action;
+    private int count = 1;
+    private long firstTimestamp;
+    private long lastTimestamp;
+    private long journalPosition = -1;
 
     public AccountsEvent(Persona persona, String eventId, String action) {
         this.persona = persona;
         this.eventId = eventId;
         this.action = action;
+        this.firstTimestamp = System.currentTimeMillis();
+        this.lastTimestamp = firstTimestamp;
+    }
+
+    public AccountsEvent(Persona persona, String eventId, String action, int count, long firstTimestamp,
+                         long lastTimestamp, long journalPosition) {
+        this.persona = persona;
+        this.eventId = eventId;
+        this.action = action;
+        this.count = count;
+        this.firstTimestamp = firstTimestamp;
+        this.lastTimestamp = lastTimestamp;
+        this.journalPosition = journalPosition;
     }
 
     public AccountsEvent() {
@@ -59,4 +76,39 @@ public class AccountsEvent {
     public String getAction() {
         return action;
     }
+
+    /**
+     * The number of Keycloak events this event stands for. High-volume events, like logins, might be aggregated by
+     * the Keycloak listener, in which case a single event is published for all the events of the same type triggered
+     * by the same user within the aggregation window.
+     *
+     * @return the number of Keycloak events represented by this event, 1 if it's not an aggregation
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return the time of the first Keycloak event represented by this event, in milliseconds since the epoch
+     */
+    public long getFirstTimestamp() {
+        return firstTimestamp;
+    }
+
+    /**
+     * @return the time of the last Keycloak event represented by this event, in milliseconds since the epoch
+     */
+    public long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    /**
+     * The position right after this event on the {@link AccountsEventJournal}. Consumers can store this position
+     * and, after a restart, replay the events they missed from it.
+     *
+     * @return the position right after this event on the journal, or -1 if the journal is not enabled.
+     */
+    public long getJournalPosition() {
+        return journalPosition;
+    }
 }
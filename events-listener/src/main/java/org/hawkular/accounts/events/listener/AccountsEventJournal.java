@@ -0,0 +1,170 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.accounts.events.listener;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.hawkular.accounts.events.listener.internal.AccountsEventDispatcher;
+import org.hawkular.accounts.events.listener.internal.EventJournal;
+import org.hawkular.accounts.events.listener.internal.MsgLogger;
+
+/**
+ * Optional local journal of the {@link AccountsEvent}s received by this node. Consumers that keep state derived from
+ * the events can store the {@link AccountsEvent#getJournalPosition()} of the last event they processed and, after a
+ * restart, call {@link #replay(long, Consumer)} to catch up with the events they missed, instead of rebuilding their
+ * state from the database.
+ * <p>
+ * The journal is disabled by default and can be enabled by setting
+ * {@code org.hawkular.accounts.events.journal.enabled} to {@code true}. It's stored on
+ * {@code org.hawkular.accounts.events.journal.directory} (the {@code hawkular-accounts-events-journal} directory on
+ * the server's data directory, by default), as segments of {@code org.hawkular.accounts.events.journal.segment-size}
+ * bytes (64 MB) each. Only the latest {@code org.hawkular.accounts.events.journal.max-segments} (16) segments are
+ * kept. The journal is flushed to disk every {@code org.hawkular.accounts.events.journal.fsync-interval} milliseconds
+ * (1 second), so, the events received right before a crash of the operating system might be lost.
+ *
+ * @author Juraci Paixão Kröhling
+ */
+@ApplicationScoped
+public class AccountsEventJournal {
+    private static final String ENABLED = "org.hawkular.accounts.events.journal.enabled";
+    private static final String DIRECTORY = "org.hawkular.accounts.events.journal.directory";
+    private static final String SEGMENT_SIZE = "org.hawkular.accounts.events.journal.segment-size";
+    private static final String MAX_SEGMENTS = "org.hawkular.accounts.events.journal.max-segments";
+    private static final String FSYNC_INTERVAL = "org.hawkular.accounts.events.journal.fsync-interval";
+
+    private final MsgLogger logger = MsgLogger.LOGGER;
+
+    @Resource
+    private ManagedScheduledExecutorService scheduler;
+
+    @Inject
+    AccountsEventDispatcher dispatcher;
+
+    private EventJournal journal;
+    private ScheduledFuture<?> fsyncTask;
+
+    @PostConstruct
+    public void init() {
+        if (!Boolean.parseBoolean(System.getProperty(ENABLED, "false"))) {
+            return;
+        }
+
+        String dataDir = System.getProperty("jboss.server.data.dir", System.getProperty("java.io.tmpdir"));
+        String directory = System.getProperty(DIRECTORY,
+                new File(dataDir, "hawkular-accounts-events-journal").getPath());
+        int segmentSize = Integer.parseInt(System.getProperty(SEGMENT_SIZE, String.valueOf(64 * 1024 * 1024)));
+        int maxSegments = Integer.parseInt(System.getProperty(MAX_SEGMENTS, "16"));
+        long fsyncInterval = Long.parseLong(System.getProperty(FSYNC_INTERVAL, "1000"));
+
+        try {
+            journal = new EventJournal(new File(directory).toPath(), segmentSize, maxSegments);
+            fsyncTask = scheduler.scheduleWithFixedDelay(journal::force, fsyncInterval, fsyncInterval,
+                    TimeUnit.MILLISECONDS);
+            logger.journalOpened(directory, journal.getEnd());
+        } catch (IOException e) {
+            logger.errorOpeningJournal(directory, e);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (null == journal) {
+            return;
+        }
+
+        fsyncTask.cancel(false);
+        try {
+            journal.close();
+        } catch (IOException e) {
+            logger.errorClosingJournal(e);
+        }
+    }
+
+    /**
+     * Records an event on the journal. Called by the message listener for each event it receives.
+     * @param action     the event's action
+     * @param eventId    the event's ID
+     * @param userId     the ID of the user who triggered the event
+     * @param count      the number of Keycloak events represented by the event
+     * @param firstTimestamp    the time of the first Keycloak event represented by the event
+     * @param lastTimestamp     the time of the last Keycloak event represented by the event
+     * @return the position right after the event, or -1 if the journal is not enabled or if the event could not be
+     * recorded
+     */
+    public long append(String action, String eventId, String userId, int count, long firstTimestamp,
+                       long lastTimestamp) {
+        if (null == journal) {
+            return -1;
+        }
+
+        try {
+            return journal.append(System.currentTimeMillis(), action, eventId, userId, count, firstTimestamp,
+                    lastTimestamp);
+        } catch (IOException | RuntimeException e) {
+            logger.errorAppendingToJournal(action, eventId, userId, e);
+            return -1;
+        }
+    }
+
+    /**
+     * Reads the events recorded after the given position, in the order they were received. The events are passed to
+     * the consumer on the caller's thread. If the journal doesn't go as far back as the given position anymore, the
+     * replay starts from the oldest recorded event.
+     * @param from        the journal position of the last event processed by the consumer, or zero to replay all
+     *                    the recorded events
+     * @param consumer    the consumer for the events
+     * @return the position right after the last replayed event, or the given position if the journal is not enabled
+     * @throws IOException if the journal could not be read
+     */
+    public long replay(long from, Consumer<AccountsEvent> consumer) throws IOException {
+        if (null == journal) {
+            return from;
+        }
+
+        return journal.replay(from, entry -> consumer.accept(new AccountsEvent(
+                dispatcher.resolvePersona(entry.getUserId()),
+                entry.getEventId(),
+                entry.getAction(),
+                entry.getCount(),
+                entry.getFirstTimestamp(),
+                entry.getLastTimestamp(),
+                entry.getPosition()
+        )));
+    }
+
+    /**
+     * @return the position right after the latest recorded event, or -1 if the journal is not enabled
+     */
+    public long getEndPosition() {
+        return null == journal ? -1 : journal.getEnd();
+    }
+
+    public boolean isEnabled() {
+        return null != journal;
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.accounts.events.listener.internal;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Event;
+import javax.inject.Inject;
+
+import org.hawkular.accounts.api.UserService;
+import org.hawkular.accounts.api.model.Persona;
+import org.hawkular.accounts.common.internal.ExpiringCache;
+import org.hawkular.accounts.common.internal.OrderedExecutor;
+import org.hawkular.accounts.events.listener.AccountsEvent;
+
+/**
+ * Fires the {@link AccountsEvent} for the messages received by the {@link AccountsMessageListener}, off the
+ * listener's thread. Events for the same user are fired in the order they were received, while events for different
+ * users are fired in parallel, on the container's managed executor.
+ * <p>
+ * Events come from Keycloak, so, the user ID is always the ID of a user, never of an organization. The users are
+ * kept on a cache for {@code org.hawkular.accounts.events.persona-cache.ttl} milliseconds (60 seconds by default),
+ * up to {@code org.hawkular.accounts.events.persona-cache.max-size} entries (10000 by default). On a miss, the user
+ * is retrieved or created in one step. As the events for a given user are processed one at a time, a burst of events
+ * for a new user causes the user to be created only once.
+ *
+ * @author Juraci Paixão Kröhling
+ */
+@ApplicationScoped
+public class AccountsEventDispatcher {
+    private static final String TTL = "org.hawkular.accounts.events.persona-cache.ttl";
+    private static final String MAX_SIZE = "org.hawkular.accounts.events.persona-cache.max-size";
+
+    private final MsgLogger logger = MsgLogger.LOGGER;
+
+    private final long ttl = Long.parseLong(System.getProperty(TTL, "60000"));
+    private final ExpiringCache<String, Persona> personas = new ExpiringCache<>(
+            Integer.parseInt(System.getProperty(MAX_SIZE, "10000")));
+
+    private final LongAdder dispatched = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    @Resource
+    ManagedExecutorService executor;
+
+    @Inject
+    Event<AccountsEvent> event;
+
+    @Inject
+    UserService userService;
+
+    private OrderedExecutor<String> orderedExecutor;
+
+    @PostConstruct
+    public void init() {
+        orderedExecutor = new OrderedExecutor<>(executor);
+    }
+
+    /**
+     * Schedules the event to be fired after the previous events for the same user.
+     * @param action     the event's action
+     * @param eventId    the event's ID
+     * @param userId     the ID of the user who triggered the event
+     * @param count      the number of Keycloak events represented by the event
+     * @param firstTimestamp    the time of the first Keycloak event represented by the event
+     * @param lastTimestamp     the time of the last Keycloak event represented by the event
+     * @param journalPosition    the position right after the event on the journal, or -1
+     * @return a future that is completed once the observers have been notified
+     */
+    public CompletableFuture<Void> dispatch(String action, String eventId, String userId, int count,
+                                            long firstTimestamp, long lastTimestamp, long journalPosition) {
+        return orderedExecutor.execute(userId,
+                () -> fire(action, eventId, userId, count, firstTimestamp, lastTimestamp, journalPosition));
+    }
+
+    /**
+     * Retrieves the persona for the user who triggered an event, creating the user if it doesn't exist yet.
+     * @param userId    the ID of the user
+     * @return the user
+     */
+    public Persona resolvePersona(String userId) {
+        Persona persona = personas.get(userId);
+        if (null == persona) {
+            // it's probably a new user
+            persona = userService.getOrCreateById(userId);
+            personas.put(userId, persona, System.currentTimeMillis() + ttl);
+        }
+        return persona;
+    }
+
+    private void fire(String action, String eventId, String userId, int count, long firstTimestamp,
+                      long lastTimestamp, long journalPosition) {
+        try {
+            Persona persona = resolvePersona(userId);
+            event.fire(new AccountsEvent(persona, eventId, action, count, firstTimestamp, lastTimestamp,
+                    journalPosition));
+            dispatched.increment();
+            logger.eventProcessed(action, eventId, userId);
+        } catch (RuntimeException e) {
+            failed.increment();
+            logger.errorFiringEvent(action, eventId, userId, e);
+        }
+    }
+
+    /**
+     * @return the number of users with events being fired or waiting to be fired
+     */
+    public int getPendingUsers() {
+        return orderedExecutor.getActiveKeys();
+    }
+
+    public long getDispatchedEvents() {
+        return dispatched.sum();
+    }
+
+    public long getFailedEvents() {
+        return failed.sum();
+    }
+
+    /**
+     * @return the persona cache, for metrics purposes
+     */
+    public ExpiringCache<?, ?> getPersonas() {
+        return personas;
+    }
+}
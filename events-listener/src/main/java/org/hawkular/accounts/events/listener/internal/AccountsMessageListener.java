@@ -20,18 +20,19 @@ package org.hawkular.accounts.events.listener.internal;
 import javax.annotation.security.PermitAll;
 import javax.ejb.ActivationConfigProperty;
 import javax.ejb.MessageDriven;
-import javax.enterprise.event.Event;
 import javax.inject.Inject;
 import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.MessageListener;
 
-import org.hawkular.accounts.api.PersonaService;
-import org.hawkular.accounts.api.UserService;
-import org.hawkular.accounts.api.model.Persona;
-import org.hawkular.accounts.events.listener.AccountsEvent;
+import org.hawkular.accounts.events.listener.AccountsEventJournal;
 
 /**
+ * Receives the events published by the events backend and hands them over to the {@link AccountsEventDispatcher},
+ * which notifies the {@link org.hawkular.accounts.events.listener.AccountsEvent} observers asynchronously. Events
+ * that have been received recently are discarded, based on their IDs. If enabled, events are recorded on the
+ * {@link AccountsEventJournal} before being dispatched.
+ *
  * @author Juraci Paixão Kröhling
  */
 @MessageDriven(activationConfig = {
@@ -60,13 +61,13 @@ public class AccountsMessageListener implements MessageListener {
     private final MsgLogger logger = MsgLogger.LOGGER;
 
     @Inject
-    Event<AccountsEvent> event;
+    DuplicateEventFilter duplicateEventFilter;
 
     @Inject
-    PersonaService personaService;
+    AccountsEventJournal journal;
 
     @Inject
-    UserService userService;
+    AccountsEventDispatcher dispatcher;
 
     @Override
     public void onMessage(Message message) {
@@ -75,18 +76,28 @@ public class AccountsMessageListener implements MessageListener {
             String action = message.getStringProperty("action");
             String eventId = message.getStringProperty("eventId");
             String userId = message.getStringProperty("userId");
-            Persona persona = personaService.get(userId);
-
-            if (null == persona) {
-                // it's probably a new user
-                persona = userService.getOrCreateById(userId);
+            if (duplicateEventFilter.isDuplicate(eventId)) {
+                logger.duplicateEventDiscarded(action, eventId, userId);
+                return;
             }
 
-            AccountsEvent accountsEvent = new AccountsEvent(persona, eventId, action);
-            event.fire(accountsEvent);
-            logger.eventProcessed(action, eventId, userId);
+            // high-volume events might have been aggregated by the Keycloak listener
+            int count = message.propertyExists("count") ? message.getIntProperty("count") : 1;
+            long lastTimestamp = message.propertyExists("lastTimestamp")
+                    ? message.getLongProperty("lastTimestamp") : receivedAt(message);
+            long firstTimestamp = message.propertyExists("firstTimestamp")
+                    ? message.getLongProperty("firstTimestamp") : lastTimestamp;
+
+            long journalPosition = journal.append(action, eventId, userId, count, firstTimestamp, lastTimestamp);
+            dispatcher.dispatch(action, eventId, userId, count, firstTimestamp, lastTimestamp, journalPosition);
         } catch (JMSException e) {
             logger.errorProcessingEvent(e);
         }
     }
+
+    private static long receivedAt(Message message) throws JMSException {
+        // the timestamp is zero if the producer disabled it
+        long timestamp = message.getJMSTimestamp();
+        return timestamp > 0 ? timestamp : System.currentTimeMillis();
+    }
 }
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.accounts.events.listener.internal;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.enterprise.context.ApplicationScoped;
+
+/**
+ * Remembers the IDs of the recently received events, so that redeliveries from the broker and retries from the
+ * event publishers are not fired twice.
+ * <p>
+ * IDs are kept on two generations: new IDs are added to the current generation, which becomes the previous one
+ * once it's older than half of {@code org.hawkular.accounts.events.dedup.window} milliseconds (5 minutes by default)
+ * or once it holds half of {@code org.hawkular.accounts.events.dedup.max-size} IDs (100000 by default). The previous
+ * generation is then discarded. This way, an ID is remembered for at least half of the window and for at most the
+ * whole window, and the memory used is bounded, without having to track the age of each ID. Under heavy load, the
+ * size limit is reached first, shortening the period during which duplicates are detected.
+ *
+ * @author Juraci Paixão Kröhling
+ */
+@ApplicationScoped
+public class DuplicateEventFilter {
+    private static final String WINDOW = "org.hawkular.accounts.events.dedup.window";
+    private static final String MAX_SIZE = "org.hawkular.accounts.events.dedup.max-size";
+
+    long generationDuration = Long.parseLong(System.getProperty(WINDOW, "300000")) / 2;
+    int generationSize = Integer.parseInt(System.getProperty(MAX_SIZE, "100000")) / 2;
+
+    private volatile Set<String> current = ConcurrentHashMap.newKeySet();
+    private volatile Set<String> previous = ConcurrentHashMap.newKeySet();
+    private volatile long currentStartedAt = System.currentTimeMillis();
+
+    private final LongAdder received = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+
+    /**
+     * Records the given event ID, returning whether it has been seen recently. Events without an ID are never
+     * considered duplicates.
+     * @param eventId    the event's ID
+     * @return true if the event ID has been recorded before, within the deduplication window
+     */
+    public boolean isDuplicate(String eventId) {
+        received.increment();
+        if (null == eventId) {
+            return false;
+        }
+
+        rotateIfNeeded();
+        if (previous.contains(eventId) || !current.add(eventId)) {
+            duplicates.increment();
+            return true;
+        }
+
+        return false;
+    }
+
+    private void rotateIfNeeded() {
+        if (!isCurrentFull()) {
+            return;
+        }
+
+        synchronized (this) {
+            if (isCurrentFull()) {
+                previous = current;
+                current = ConcurrentHashMap.newKeySet();
+                currentStartedAt = System.currentTimeMillis();
+            }
+        }
+    }
+
+    private boolean isCurrentFull() {
+        return current.size() >= generationSize
+                || System.currentTimeMillis() - currentStartedAt >= generationDuration;
+    }
+
+    public long getReceivedEvents() {
+        return received.sum();
+    }
+
+    public long getDuplicateEvents() {
+        return duplicates.sum();
+    }
+
+    /**
+     * @return the ratio of duplicate events over all the received events, between 0 and 1
+     */
+    public double getDuplicateRate() {
+        long total = received.sum();
+        return total == 0 ? 0 : (double) duplicates.sum() / total;
+    }
+
+    /**
+     * @return the number of event IDs currently remembered
+     */
+    public int size() {
+        return current.size() + previous.size();
+    }
+}
@@ -0,0 +1,547 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.accounts.events.listener.internal;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of events, stored on a directory as a sequence of fixed-size segment files, which are written
+ * through a memory-mapped buffer.
+ * <p>
+ * Each event is identified by its position on the journal, which is the number of bytes written to the journal
+ * before the event. Segments are named after the position of their first event, so that the segment holding a given
+ * position can be found without reading the segments. Once a segment is full, a new one is started and, if there
+ * are more than the maximum number of segments, the oldest ones are deleted.
+ * <p>
+ * Each record is written as its payload length, followed by the payload's CRC32 and by the payload itself. As
+ * segments are zero-filled when created, a length of zero marks the end of a segment. When the journal is opened,
+ * the last segment is scanned up to the first invalid record, so that a record partially written before a crash is
+ * discarded.
+ * <p>
+ * Appended records are not guaranteed to survive a crash of the operating system until {@link #force()} is called.
+ * <p>
+ * Only the segment being written is mapped: replays read it through the writer's mapping, while the other segments
+ * are read through a file channel. The mapping is released as soon as the segment is full, instead of waiting for
+ * the garbage collector, so that the memory and the file are not held after the segment is closed or deleted.
+ *
+ * @author Juraci Paixão Kröhling
+ */
+public class EventJournal implements Closeable {
+    private static final String SUFFIX = ".journal";
+    private static final int HEADER_SIZE = 8;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private long segmentStart;
+    private boolean dirty;
+
+    /**
+     * Guards the uses of the mapping outside of the journal's lock, so that it's not released while it's still in use.
+     */
+    private final ReadWriteLock mappingLock = new ReentrantReadWriteLock();
+
+    /**
+     * The position right after the last record, published after the record has been fully written.
+     */
+    private volatile long end;
+
+    /**
+     * Opens the journal on the given directory, creating it if needed.
+     * @param directory      the directory holding the segment files
+     * @param segmentSize    the size of each segment file, in bytes
+     * @param maxSegments    how many segments to keep
+     * @throws IOException if the journal cannot be opened
+     */
+    public EventJournal(Path directory, int segmentSize, int maxSegments) throws IOException {
+        if (segmentSize <= HEADER_SIZE || maxSegments <= 0) {
+            throw new IllegalArgumentException("Invalid segment size or maximum number of segments.");
+        }
+
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+
+        Files.createDirectories(directory);
+        List<Long> segments = listSegments();
+        if (segments.isEmpty()) {
+            openSegment(0);
+        } else {
+            recover(segments.get(segments.size() - 1));
+        }
+    }
+
+    /**
+     * Appends an event to the journal.
+     * @param timestamp    when the event was received
+     * @param action       the event's action
+     * @param eventId      the event's ID
+     * @param userId       the ID of the user who triggered the event
+     * @param count        the number of Keycloak events represented by the event
+     * @param firstTimestamp    the time of the first Keycloak event represented by the event
+     * @param lastTimestamp     the time of the last Keycloak event represented by the event
+     * @return the position right after the appended event
+     * @throws IOException if a new segment is needed and it cannot be created
+     */
+    public long append(long timestamp, String action, String eventId, String userId, int count,
+                       long firstTimestamp, long lastTimestamp) throws IOException {
+        byte[] payload = encode(timestamp, action, eventId, userId, count, firstTimestamp, lastTimestamp);
+        int recordSize = HEADER_SIZE + payload.length;
+        if (recordSize > segmentSize) {
+            throw new IllegalArgumentException("The event is larger than the journal's segment size.");
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        MappedByteBuffer full = null;
+        long appended;
+        synchronized (this) {
+            if (null == buffer) {
+                throw new IllegalStateException("The journal is closed.");
+            }
+
+            if (buffer.remaining() < recordSize) {
+                full = rotate();
+            }
+
+            int position = buffer.position();
+            buffer.putInt(position + 4, (int) crc.getValue());
+            buffer.position(position + HEADER_SIZE);
+            buffer.put(payload);
+            // the length is written last, so that the record is only valid once it's complete
+            buffer.putInt(position, payload.length);
+
+            dirty = true;
+            end = segmentStart + buffer.position();
+            appended = end;
+        }
+
+        if (null != full) {
+            release(full);
+        }
+        return appended;
+    }
+
+    /**
+     * Reads the events from the given position up to the end of the journal, in the order they were appended. If the
+     * segment holding the position has already been deleted, the replay starts from the oldest event available.
+     * @param from        the position to start from, as returned by {@link #append} or by
+     *                    {@link Entry#getPosition()}, or zero to read the whole journal
+     * @param consumer    the consumer for the events
+     * @return the position right after the last event read, from where a subsequent replay should start
+     * @throws IOException if the segments cannot be read
+     */
+    public long replay(long from, Consumer<Entry> consumer) throws IOException {
+        long limit = end;
+        long position = Math.min(from, limit);
+
+        List<Long> segments = listSegments();
+        for (int i = 0; i < segments.size() && position < limit; i++) {
+            long start = segments.get(i);
+            long next = i + 1 < segments.size() ? segments.get(i + 1) : Long.MAX_VALUE;
+            if (position >= next) {
+                continue;
+            }
+
+            if (position < start) {
+                // the segment holding the position was already deleted
+                position = start;
+            }
+
+            try {
+                position = replaySegment(start, position, Math.min(next, limit), consumer);
+            } catch (NoSuchFileException e) {
+                // deleted after being listed, the next segment is tried
+            }
+            if (position < next && next != Long.MAX_VALUE) {
+                // the rest of the segment was not used
+                position = next;
+            }
+        }
+
+        return Math.min(position, limit);
+    }
+
+    /**
+     * Flushes the appended events to the storage device, if there's anything new.
+     */
+    public void force() {
+        mappingLock.readLock().lock();
+        try {
+            MappedByteBuffer toForce;
+            synchronized (this) {
+                if (!dirty || null == buffer) {
+                    return;
+                }
+                dirty = false;
+                toForce = buffer;
+            }
+            toForce.force();
+        } finally {
+            mappingLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the position right after the last event
+     */
+    public long getEnd() {
+        return end;
+    }
+
+    @Override
+    public void close() throws IOException {
+        MappedByteBuffer closed;
+        synchronized (this) {
+            if (null == buffer) {
+                return;
+            }
+            buffer.force();
+            closed = buffer;
+            buffer = null;
+            channel.close();
+        }
+        release(closed);
+    }
+
+    private long replaySegment(long start, long from, long limit, Consumer<Entry> consumer) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        long position = -1;
+
+        mappingLock.readLock().lock();
+        try {
+            ByteBuffer active = null;
+            synchronized (this) {
+                if (null != buffer && start == segmentStart) {
+                    active = buffer.duplicate();
+                }
+            }
+            if (null != active) {
+                // the records up to the limit were fully written before the limit was published
+                active.position((int) (from - start));
+                position = from;
+                byte[] payload;
+                while (position < limit && null != (payload = readRecord(active))) {
+                    position = start + active.position();
+                    entries.add(decode(payload, position));
+                }
+            }
+        } finally {
+            mappingLock.readLock().unlock();
+        }
+
+        if (position < 0) {
+            // not the segment being written, so it's complete and won't change anymore
+            try (FileChannel readChannel = FileChannel.open(segmentPath(start), StandardOpenOption.READ)) {
+                long remaining = readChannel.size() - (from - start);
+                readChannel.position(from - start);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(readChannel)));
+                position = from;
+                byte[] payload;
+                while (position < limit && null != (payload = readRecord(in, remaining))) {
+                    position += HEADER_SIZE + payload.length;
+                    remaining -= HEADER_SIZE + payload.length;
+                    entries.add(decode(payload, position));
+                }
+            }
+        }
+
+        entries.forEach(consumer);
+        return position;
+    }
+
+    private void recover(long start) throws IOException {
+        openSegment(start);
+        byte[] payload;
+        do {
+            payload = readRecord(buffer);
+        } while (null != payload);
+
+        // wipes what's left from a partially written record
+        int position = buffer.position();
+        while (buffer.hasRemaining()) {
+            buffer.put((byte) 0);
+        }
+        buffer.position(position);
+        end = segmentStart + position;
+    }
+
+    /**
+     * Starts a new segment, deleting the oldest ones if needed.
+     * @return the mapping of the segment that became full, to be released once the journal's lock is released
+     */
+    private MappedByteBuffer rotate() throws IOException {
+        MappedByteBuffer full = buffer;
+        long next = segmentStart + full.position();
+        full.force();
+        channel.close();
+        openSegment(next);
+
+        List<Long> segments = listSegments();
+        for (int i = 0; i < segments.size() - maxSegments; i++) {
+            Files.deleteIfExists(segmentPath(segments.get(i)));
+        }
+        return full;
+    }
+
+    /**
+     * Unmaps a segment right away, waiting for the current users of the mapping to finish. If the JVM doesn't allow
+     * it, the mapping is left for the garbage collector.
+     */
+    private void release(MappedByteBuffer mapping) {
+        mappingLock.writeLock().lock();
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            try {
+                // Java 9 and later
+                Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                invokeCleaner.invoke(theUnsafe.get(null), mapping);
+            } catch (NoSuchMethodException e) {
+                // Java 8
+                Method cleanerMethod = mapping.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(mapping);
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // left for the garbage collector
+        } finally {
+            mappingLock.writeLock().unlock();
+        }
+    }
+
+    private void openSegment(long start) throws IOException {
+        channel = FileChannel.open(segmentPath(start), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        segmentStart = start;
+        end = start;
+    }
+
+    private List<Long> listSegments() throws IOException {
+        List<Long> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    segments.add(Long.parseLong(name.substring(0, name.length() - SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // not a segment
+                }
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    /**
+     * Reads the record at the segment's position, leaving the segment right after it.
+     * @return the record's payload, or null if there's no valid record at the position, in which case the position
+     * is left unchanged
+     */
+    private static byte[] readRecord(ByteBuffer segment) {
+        int position = segment.position();
+        if (segment.remaining() < HEADER_SIZE) {
+            return null;
+        }
+
+        int length = segment.getInt();
+        int checksum = segment.getInt();
+        if (length <= 0 || length > segment.remaining()) {
+            segment.position(position);
+            return null;
+        }
+
+        byte[] payload = new byte[length];
+        segment.get(payload);
+        if (!isValid(payload, checksum)) {
+            segment.position(position);
+            return null;
+        }
+        return payload;
+    }
+
+    /**
+     * Reads the next record from a segment's stream.
+     * @param remaining    how many bytes are left on the segment
+     * @return the record's payload, or null if there's no valid record
+     */
+    private static byte[] readRecord(DataInputStream segment, long remaining) throws IOException {
+        if (remaining < HEADER_SIZE) {
+            return null;
+        }
+
+        int length = segment.readInt();
+        int checksum = segment.readInt();
+        if (length <= 0 || length > remaining - HEADER_SIZE) {
+            return null;
+        }
+
+        byte[] payload = new byte[length];
+        segment.readFully(payload);
+        return isValid(payload, checksum) ? payload : null;
+    }
+
+    private static boolean isValid(byte[] payload, int checksum) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue() == checksum;
+    }
+
+    private Path segmentPath(long start) {
+        return directory.resolve(String.format("%020d%s", start, SUFFIX));
+    }
+
+    private static byte[] encode(long timestamp, String action, String eventId, String userId, int count,
+                                 long firstTimestamp, long lastTimestamp) {
+        byte[][] values = {bytesOf(action), bytesOf(eventId), bytesOf(userId)};
+        int size = 8 + 4 + 8 + 8;
+        for (byte[] value : values) {
+            size += 4 + (null == value ? 0 : value.length);
+        }
+
+        ByteBuffer payload = ByteBuffer.allocate(size);
+        payload.putLong(timestamp);
+        for (byte[] value : values) {
+            if (null == value) {
+                payload.putInt(-1);
+            } else {
+                payload.putInt(value.length);
+                payload.put(value);
+            }
+        }
+        payload.putInt(count);
+        payload.putLong(firstTimestamp);
+        payload.putLong(lastTimestamp);
+        return payload.array();
+    }
+
+    private static Entry decode(byte[] bytes, long position) {
+        ByteBuffer payload = ByteBuffer.wrap(bytes);
+        long timestamp = payload.getLong();
+        String action = readString(payload);
+        String eventId = readString(payload);
+        String userId = readString(payload);
+        int count = payload.getInt();
+        long firstTimestamp = payload.getLong();
+        long lastTimestamp = payload.getLong();
+        return new Entry(position, timestamp, action, eventId, userId, count, firstTimestamp, lastTimestamp);
+    }
+
+    private static byte[] bytesOf(String value) {
+        return null == value ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String readString(ByteBuffer payload) {
+        int length = payload.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] value = new byte[length];
+        payload.get(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * An event, as read from the journal.
+     */
+    public static class Entry {
+        private final long position;
+        private final long timestamp;
+        private final String action;
+        private final String eventId;
+        private final String userId;
+        private final int count;
+        private final long firstTimestamp;
+        private final long lastTimestamp;
+
+        Entry(long position, long timestamp, String action, String eventId, String userId, int count,
+              long firstTimestamp, long lastTimestamp) {
+            this.position = position;
+            this.timestamp = timestamp;
+            this.action = action;
+            this.eventId = eventId;
+            this.userId = userId;
+            this.count = count;
+            this.firstTimestamp = firstTimestamp;
+            this.lastTimestamp = lastTimestamp;
+        }
+
+        /**
+         * @return the position right after this event on the journal
+         */
+        public long getPosition() {
+            return position;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public String getAction() {
+            return action;
+        }
+
+        public String getEventId() {
+            return eventId;
+        }
+
+        public String getUserId() {
+            return userId;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public long getFirstTimestamp() {
+            return firstTimestamp;
+        }
+
+        public long getLastTimestamp() {
+            return lastTimestamp;
+        }
+    }
+}
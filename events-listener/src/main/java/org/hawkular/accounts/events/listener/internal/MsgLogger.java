@@ -42,4 +42,28 @@ public interface MsgLogger {
     @LogMessage(level = Logger.Level.DEBUG)
     @Message(id = 140002, value = "Event processed by Accounts API: %s, %s, %s")
     void eventProcessed(String action, String eventId, String userId);
+
+    @LogMessage(level = Logger.Level.ERROR)
+    @Message(id = 140003, value = "An error occurred while firing the event: %s, %s, %s")
+    void errorFiringEvent(String action, String eventId, String userId, @Cause Throwable e);
+
+    @LogMessage(level = Logger.Level.DEBUG)
+    @Message(id = 140004, value = "Duplicate event discarded: %s, %s, %s")
+    void duplicateEventDiscarded(String action, String eventId, String userId);
+
+    @LogMessage(level = Logger.Level.INFO)
+    @Message(id = 140005, value = "Accounts events journal opened at [%s], at position [%d].")
+    void journalOpened(String directory, long position);
+
+    @LogMessage(level = Logger.Level.ERROR)
+    @Message(id = 140006, value = "Could not open the accounts events journal at [%s]. Events are not being recorded.")
+    void errorOpeningJournal(String directory, @Cause Throwable e);
+
+    @LogMessage(level = Logger.Level.ERROR)
+    @Message(id = 140007, value = "Could not record the event on the journal: %s, %s, %s")
+    void errorAppendingToJournal(String action, String eventId, String userId, @Cause Throwable e);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 140008, value = "Could not close the accounts events journal.")
+    void errorClosingJournal(@Cause Throwable e);
 }
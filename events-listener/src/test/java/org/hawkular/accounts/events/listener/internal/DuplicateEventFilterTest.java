@@ -0,0 +1,133 @@
+/*
+ * Copyright 2015-2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.accounts.events.listener.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+/**
+ * @author Juraci Paixão Kröhling
+ */
+public class DuplicateEventFilterTest {
+
+    @Test
+    public void testDuplicateWithinWindow() {
+        DuplicateEventFilter filter = new DuplicateEventFilter();
+        assertFalse(filter.isDuplicate("event-1"));
+        assertFalse(filter.isDuplicate("event-2"));
+        assertTrue(filter.isDuplicate("event-1"));
+
+        assertEquals(3, filter.getReceivedEvents());
+        assertEquals(1, filter.getDuplicateEvents());
+        assertEquals(2, filter.size());
+    }
+
+    @Test
+    public void testEventWithoutIdIsNeverDuplicate() {
+        DuplicateEventFilter filter = new DuplicateEventFilter();
+        assertFalse(filter.isDuplicate(null));
+        assertFalse(filter.isDuplicate(null));
+        assertEquals(0, filter.getDuplicateEvents());
+    }
+
+    @Test
+    public void testDuplicateOnPreviousGeneration() {
+        DuplicateEventFilter filter = new DuplicateEventFilter();
+        filter.generationSize = 2;
+        filter.isDuplicate("event-1");
+        filter.isDuplicate("event-2");
+
+        // the current generation is full, so, event-1 is now on the previous generation
+        assertFalse(filter.isDuplicate("event-3"));
+        assertTrue(filter.isDuplicate("event-1"));
+    }
+
+    @Test
+    public void testEventIsAcceptedAfterTwoRotationsBySize() {
+        DuplicateEventFilter filter = new DuplicateEventFilter();
+        filter.generationSize = 2;
+        filter.isDuplicate("event-1");
+        filter.isDuplicate("event-2");
+        filter.isDuplicate("event-3");
+        filter.isDuplicate("event-4");
+        filter.isDuplicate("event-5");
+
+        assertFalse(filter.isDuplicate("event-1"));
+        assertEquals(0, filter.getDuplicateEvents());
+    }
+
+    @Test
+    public void testEventIsAcceptedAfterTwoRotationsByAge() throws InterruptedException {
+        DuplicateEventFilter filter = new DuplicateEventFilter();
+        filter.generationDuration = 10;
+        filter.isDuplicate("event-1");
+
+        Thread.sleep(20);
+        assertTrue(filter.isDuplicate("event-1"));
+
+        Thread.sleep(20);
+        filter.isDuplicate("event-2");
+        Thread.sleep(20);
+        assertFalse(filter.isDuplicate("event-1"));
+    }
+
+    @Test
+    public void testConcurrentAdd() throws Exception {
+        int threads = 8;
+        int events = 1000;
+        DuplicateEventFilter filter = new DuplicateEventFilter();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<Integer>> accepted = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                accepted.add(executor.submit(() -> {
+                    start.await();
+                    int count = 0;
+                    for (int i = 0; i < events; i++) {
+                        if (!filter.isDuplicate("event-" + i)) {
+                            count++;
+                        }
+                    }
+                    return count;
+                }));
+            }
+            start.countDown();
+
+            int total = 0;
+            for (Future<Integer> future : accepted) {
+                total += future.get();
+            }
+
+            // each event is accepted by exactly one of the threads
+            assertEquals(events, total);
+            assertEquals((threads - 1) * events, filter.getDuplicateEvents());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2015-2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.accounts.events.listener.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Juraci Paixão Kröhling
+ */
+public class EventJournalTest {
+    /**
+     * Room for two of the events appended by these tests, so that every other event starts a new segment.
+     */
+    private static final int SEGMENT_SIZE = 150;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testEventsAreReplayedAcrossSegments() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        try (EventJournal journal = new EventJournal(directory, SEGMENT_SIZE, 100)) {
+            long end = append(journal, 0, 5);
+
+            List<EventJournal.Entry> entries = new ArrayList<>();
+            assertEquals(end, journal.replay(0, entries::add));
+            assertEquals(3, segments(directory).length);
+            assertEquals(5, entries.size());
+
+            long previous = 0;
+            for (int i = 0; i < entries.size(); i++) {
+                EventJournal.Entry entry = entries.get(i);
+                assertEquals("event-" + i, entry.getEventId());
+                assertEquals("LOGIN", entry.getAction());
+                assertEquals("user", entry.getUserId());
+                assertEquals(i + 1, entry.getCount());
+                assertEquals(1000 + i, entry.getFirstTimestamp());
+                assertEquals(2000 + i, entry.getLastTimestamp());
+                assertTrue(entry.getPosition() > previous);
+                previous = entry.getPosition();
+            }
+            assertEquals(end, previous);
+        }
+    }
+
+    @Test
+    public void testReplayFromPositionAfterEvent() throws IOException {
+        try (EventJournal journal = new EventJournal(folder.getRoot().toPath(), SEGMENT_SIZE, 100)) {
+            append(journal, 0, 2);
+            long position = journal.getEnd();
+            append(journal, 2, 3);
+
+            List<EventJournal.Entry> entries = new ArrayList<>();
+            journal.replay(position, entries::add);
+            assertEquals(3, entries.size());
+            assertEquals("event-2", entries.get(0).getEventId());
+        }
+    }
+
+    @Test
+    public void testReplayFromDeletedSegmentStartsFromOldestEvent() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        try (EventJournal journal = new EventJournal(directory, SEGMENT_SIZE, 2)) {
+            long afterFirstEvent = append(journal, 0, 1);
+            append(journal, 1, 9);
+            assertEquals(2, segments(directory).length);
+
+            List<EventJournal.Entry> fromDeleted = new ArrayList<>();
+            long end = journal.replay(afterFirstEvent, fromDeleted::add);
+            assertEquals(journal.getEnd(), end);
+            assertEquals(4, fromDeleted.size());
+            assertEquals("event-6", fromDeleted.get(0).getEventId());
+            assertEquals("event-9", fromDeleted.get(3).getEventId());
+
+            List<EventJournal.Entry> fromStart = new ArrayList<>();
+            journal.replay(0, fromStart::add);
+            assertEquals(fromDeleted.size(), fromStart.size());
+            assertEquals(fromDeleted.get(0).getEventId(), fromStart.get(0).getEventId());
+        }
+    }
+
+    @Test
+    public void testReplayFromBeyondTheEnd() throws IOException {
+        try (EventJournal journal = new EventJournal(folder.getRoot().toPath(), SEGMENT_SIZE, 100)) {
+            long end = append(journal, 0, 3);
+
+            List<EventJournal.Entry> entries = new ArrayList<>();
+            assertEquals(end, journal.replay(end + 1000, entries::add));
+            assertEquals(0, entries.size());
+
+            assertEquals(end, journal.replay(end, entries::add));
+            assertEquals(0, entries.size());
+        }
+    }
+
+    @Test
+    public void testSegmentBeingWrittenIsReplayedAfterClose() throws IOException {
+        EventJournal journal = new EventJournal(folder.getRoot().toPath(), SEGMENT_SIZE, 100);
+        long end = append(journal, 0, 5);
+        List<EventJournal.Entry> beforeClose = replayAll(journal);
+        journal.close();
+
+        List<EventJournal.Entry> afterClose = new ArrayList<>();
+        assertEquals(end, journal.replay(0, afterClose::add));
+        assertEquals(beforeClose.size(), afterClose.size());
+        assertEquals("event-4", afterClose.get(4).getEventId());
+        assertEquals(end, afterClose.get(4).getPosition());
+    }
+
+    @Test
+    public void testPartiallyWrittenRecordIsDiscardedOnRecovery() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        long end;
+        try (EventJournal journal = new EventJournal(directory, SEGMENT_SIZE, 100)) {
+            end = append(journal, 0, 1);
+        }
+
+        // a crash after the length has been written, but before the payload
+        try (RandomAccessFile segment = new RandomAccessFile(lastSegment(directory), "rw")) {
+            segment.seek(end);
+            segment.writeInt(40);
+            segment.writeInt(12345);
+            segment.write(new byte[] {1, 2, 3});
+        }
+
+        try (EventJournal journal = new EventJournal(directory, SEGMENT_SIZE, 100)) {
+            assertEquals(end, journal.getEnd());
+            assertEquals(1, replayAll(journal).size());
+
+            // the new event overwrites the partial record
+            append(journal, 1, 1);
+            List<EventJournal.Entry> entries = replayAll(journal);
+            assertEquals(2, entries.size());
+            assertEquals("event-1", entries.get(1).getEventId());
+        }
+    }
+
+    @Test
+    public void testCorruptedRecordIsDiscardedOnRecovery() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        long afterFirstEvent;
+        try (EventJournal journal = new EventJournal(directory, SEGMENT_SIZE, 100)) {
+            afterFirstEvent = append(journal, 0, 1);
+            append(journal, 1, 1);
+        }
+
+        // flips the last byte of the second record's payload, which then doesn't match its checksum
+        try (RandomAccessFile segment = new RandomAccessFile(lastSegment(directory), "rw")) {
+            long lastByte = 2 * afterFirstEvent - 1;
+            segment.seek(lastByte);
+            int value = segment.read();
+            segment.seek(lastByte);
+            segment.write(value ^ 0xFF);
+        }
+
+        try (EventJournal journal = new EventJournal(directory, SEGMENT_SIZE, 100)) {
+            assertEquals(afterFirstEvent, journal.getEnd());
+            List<EventJournal.Entry> entries = replayAll(journal);
+            assertEquals(1, entries.size());
+            assertEquals("event-0", entries.get(0).getEventId());
+        }
+    }
+
+    private long append(EventJournal journal, int first, int count) throws IOException {
+        long end = -1;
+        for (int i = first; i < first + count; i++) {
+            end = journal.append(System.currentTimeMillis(), "LOGIN", "event-" + i, "user", i + 1, 1000 + i,
+                    2000 + i);
+        }
+        return end;
+    }
+
+    private List<EventJournal.Entry> replayAll(EventJournal journal) throws IOException {
+        List<EventJournal.Entry> entries = new ArrayList<>();
+        journal.replay(0, entries::add);
+        return entries;
+    }
+
+    private File[] segments(Path directory) {
+        File[] segments = directory.toFile().listFiles((dir, name) -> name.endsWith(".journal"));
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    private File lastSegment(Path directory) {
+        File[] segments = segments(directory);
+        return segments[segments.length - 1];
+    }
+}
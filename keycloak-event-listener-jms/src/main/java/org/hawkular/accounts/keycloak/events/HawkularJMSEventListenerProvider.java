@@ -19,40 +19,28 @@ package org.hawkular.accounts.keycloak.events;
 import java.util.Set;
 import java.util.UUID;
 
-import javax.jms.Message;
-import javax.jms.MessageProducer;
-import javax.jms.Session;
-import javax.jms.Topic;
-import javax.jms.TopicConnection;
-import javax.jms.TopicConnectionFactory;
-import javax.naming.Context;
-import javax.naming.InitialContext;
-import javax.naming.NamingException;
-
 import org.keycloak.events.Event;
 import org.keycloak.events.EventListenerProvider;
 import org.keycloak.events.EventType;
 import org.keycloak.events.admin.AdminEvent;
 
 /**
+ * Hands the events over to the {@link HawkularJMSEventPublisher} owned by the factory, which publishes them in
+ * background. Events of the types that are aggregated are handed over to the {@link EventAggregator} instead, which
+ * publishes a summary of them once in a while.
+ *
  * @author Juraci Paixão Kröhling
  */
 public class HawkularJMSEventListenerProvider implements EventListenerProvider {
     private final Set<EventType> excludedEvents;
+    private final HawkularJMSEventPublisher publisher;
+    private final EventAggregator aggregator;
 
-    private Topic topic;
-    private TopicConnectionFactory connectionFactory;
-
-    public HawkularJMSEventListenerProvider(Set<EventType> excludedEvents) {
+    public HawkularJMSEventListenerProvider(Set<EventType> excludedEvents, HawkularJMSEventPublisher publisher,
+                                            EventAggregator aggregator) {
         this.excludedEvents = excludedEvents;
-
-        try {
-            Context ctx = new InitialContext();
-            this.topic = (Topic) ctx.lookup("java:/topic/HawkularAccountsEvents");
-            this.connectionFactory = (TopicConnectionFactory) ctx.lookup("java:/HawkularBusConnectionFactory");
-        } catch (NamingException e) {
-            throw new RuntimeException(e);
-        }
+        this.publisher = publisher;
+        this.aggregator = aggregator;
     }
 
     @Override
@@ -61,48 +49,22 @@ public class HawkularJMSEventListenerProvider implements EventListenerProvider {
             return;
         }
 
-        try {
-            publishToHawkular(event);
-        } catch (Exception e) {
-            String message = "WARNING: Couldn't publish event to Hawkular. Event: " + event.toString();
-            message += ". Cause: " + e.getMessage();
-
-            // yes, System.out.println :-) This gets logged back via jboss-logging into the main server log,
-            // and as this is deployed as a module, we don't get in trouble with classpath/module dependencies.
-            System.out.println(message);
-        }
+        publishToHawkular(event);
     }
 
-    public void publishToHawkular(Event event) throws Exception {
+    public void publishToHawkular(Event event) {
         if (event.getUserId() == null) {
             return;
         }
 
-        String eventId = UUID.randomUUID().toString();
         String userId = event.getUserId();
-        String action = event.getType().name();
-
-        try {
-            TopicConnection connection = connectionFactory.createTopicConnection();
-            Session session = connection.createTopicSession(true, Session.AUTO_ACKNOWLEDGE);
-            MessageProducer messageProducer = session.createProducer(topic);
-            Message message = session.createMessage();
-            message.setStringProperty("action", action);
-            message.setStringProperty("userId", userId);
-            message.setStringProperty("eventId", eventId);
-            messageProducer.send(message);
-            messageProducer.close();
-            session.close();
-            connection.close();
-        } catch (Exception e) {
-            String message = "WARNING: Couldn't publish event to Hawkular. Event: " + event.toString();
-            message += ". Cause: " + e.getMessage();
-
-            // yes, System.out.println :-) This gets logged back via jboss-logging into the main server log,
-            // and as this is deployed as a module, we don't get in trouble with classpath/module dependencies.
-            System.out.println(message);
+        if (null != aggregator && aggregator.aggregate(event.getType(), userId, event.getTime())) {
+            return;
         }
 
+        String eventId = UUID.randomUUID().toString();
+        String action = event.getType().name();
+        publisher.offer(action, userId, eventId, event.getTime());
     }
 
     @Override
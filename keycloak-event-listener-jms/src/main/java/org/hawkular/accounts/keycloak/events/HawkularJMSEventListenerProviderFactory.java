@@ -28,14 +28,32 @@ import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.KeycloakSessionFactory;
 
 /**
+ * Creates the providers for each Keycloak session. The factory owns the {@link HawkularJMSEventPublisher}, which is
+ * shared by all providers. The publisher can be tuned via the options {@code queueSize} (10000 by default), for the
+ * maximum number of events waiting to be published, and {@code batchSize} (100 by default), for the maximum number of
+ * events published on a single commit.
+ * <p>
+ * High-volume events can be aggregated by setting the option {@code aggregationWindow} to a number of milliseconds
+ * greater than 0, which is not done by default. Events of the types listed on the option {@code aggregate} (by
+ * default, {@code LOGIN}, {@code CODE_TO_TOKEN} and {@code REFRESH_TOKEN}) are then collapsed by an
+ * {@link EventAggregator} into one event per user and type every window. Such an event carries the number of events
+ * it represents and the timestamps of the first and last of them. Up to {@code aggregationMaxSummaries} (100000)
+ * users and types are aggregated at the same time. Events of other types, like {@code REGISTER} and
+ * {@code UPDATE_PROFILE}, are published right away.
+ *
  * @author Juraci Paixão Kröhling
  */
 public class HawkularJMSEventListenerProviderFactory implements EventListenerProviderFactory {
+    private static final String[] DEFAULT_AGGREGATED_EVENTS = {"LOGIN", "CODE_TO_TOKEN", "REFRESH_TOKEN"};
+
     private final Set<EventType> excludedEvents = new HashSet<>();
+    private HawkularJMSEventPublisher publisher;
+    private EventAggregator aggregator;
 
     @Override
     public EventListenerProvider create(KeycloakSession keycloakSession) {
-        return new HawkularJMSEventListenerProvider(Collections.unmodifiableSet(excludedEvents));
+        return new HawkularJMSEventListenerProvider(Collections.unmodifiableSet(excludedEvents), publisher,
+                aggregator);
     }
 
     @Override
@@ -46,6 +64,22 @@ public class HawkularJMSEventListenerProviderFactory implements EventListenerPro
                 excludedEvents.add(EventType.valueOf(e));
             }
         }
+
+        publisher = new HawkularJMSEventPublisher(config.getInt("queueSize", 10000), config.getInt("batchSize", 100));
+        publisher.start();
+
+        long aggregationWindow = config.getLong("aggregationWindow", 0L);
+        if (aggregationWindow > 0) {
+            Set<EventType> aggregatedEvents = new HashSet<>();
+            String[] aggregate = config.getArray("aggregate");
+            for (String e : null == aggregate ? DEFAULT_AGGREGATED_EVENTS : aggregate) {
+                aggregatedEvents.add(EventType.valueOf(e));
+            }
+
+            aggregator = new EventAggregator(aggregatedEvents, aggregationWindow,
+                    config.getInt("aggregationMaxSummaries", 100000), publisher::offer);
+            aggregator.start();
+        }
     }
 
     @Override
@@ -54,6 +88,13 @@ public class HawkularJMSEventListenerProviderFactory implements EventListenerPro
 
     @Override
     public void close() {
+        // the aggregator emits its summaries to the publisher when closing
+        if (null != aggregator) {
+            aggregator.close();
+        }
+        if (null != publisher) {
+            publisher.close();
+        }
     }
 
     @Override
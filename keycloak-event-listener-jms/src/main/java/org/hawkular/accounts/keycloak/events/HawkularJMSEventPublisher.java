@@ -0,0 +1,243 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.accounts.keycloak.events;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.Topic;
+import javax.jms.TopicConnection;
+import javax.jms.TopicConnectionFactory;
+import javax.jms.TopicSession;
+import javax.naming.Context;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+
+/**
+ * Publishes the events to Hawkular in background, so that Keycloak's threads don't wait for the broker. Events are
+ * placed on a bounded queue, which is drained by a single thread. This thread owns a long-lived connection and
+ * session, and publishes the events in batches, committing the session once per batch.
+ * <p>
+ * If the queue is full, the event is dropped. If the publishing of a batch fails, the connection is discarded and
+ * the batch is tried once more on a new connection before being dropped.
+ *
+ * @author Juraci Paixão Kröhling
+ */
+public class HawkularJMSEventPublisher implements Runnable {
+    private static final long POLL_TIMEOUT = 1000;
+
+    private final BlockingQueue<PendingEvent> queue;
+    private final int batchSize;
+    private final Thread thread;
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private volatile boolean running = true;
+
+    private Topic topic;
+    private TopicConnectionFactory connectionFactory;
+    private TopicConnection connection;
+    private TopicSession session;
+    private MessageProducer producer;
+
+    /**
+     * @param queueSize    the maximum number of events waiting to be published
+     * @param batchSize    the maximum number of events published on a single commit
+     */
+    public HawkularJMSEventPublisher(int queueSize, int batchSize) {
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.batchSize = batchSize;
+        this.thread = new Thread(this, "hawkular-jms-event-publisher");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Queues the event for publishing. Never blocks.
+     * @return false if the queue is full, in which case the event is dropped
+     */
+    public boolean offer(String action, String userId, String eventId, long timestamp) {
+        return offer(action, userId, eventId, 1, timestamp, timestamp);
+    }
+
+    /**
+     * Queues an event that represents one or more events of the same type, for the same user. Never blocks.
+     * @param count             how many events this event represents
+     * @param firstTimestamp    when the first of the represented events happened
+     * @param lastTimestamp     when the last of the represented events happened
+     * @return false if the queue is full, in which case the event is dropped
+     */
+    public boolean offer(String action, String userId, String eventId, int count, long firstTimestamp,
+                         long lastTimestamp) {
+        if (queue.offer(new PendingEvent(action, userId, eventId, count, firstTimestamp, lastTimestamp))) {
+            return true;
+        }
+
+        // log only the first of a series of dropped events, so that we don't flood the log
+        if (dropped.getAndIncrement() % 1000 == 0) {
+            // yes, System.out.println :-) This gets logged back via jboss-logging into the main server log,
+            // and as this is deployed as a module, we don't get in trouble with classpath/module dependencies.
+            System.out.println("WARNING: Queue of events to be published to Hawkular is full. Dropped events so " +
+                    "far: " + dropped.get());
+        }
+        return false;
+    }
+
+    /**
+     * Stops the publisher, publishing the events that are still on the queue.
+     */
+    public void close() {
+        running = false;
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long getPublished() {
+        return published.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public int getPending() {
+        return queue.size();
+    }
+
+    @Override
+    public void run() {
+        List<PendingEvent> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingEvent first = queue.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+                if (null == first) {
+                    continue;
+                }
+
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                publishWithRetry(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } finally {
+                batch.clear();
+            }
+        }
+        closeConnection();
+    }
+
+    private void publishWithRetry(List<PendingEvent> batch) {
+        try {
+            publish(batch);
+        } catch (Exception first) {
+            closeConnection();
+            try {
+                publish(batch);
+            } catch (Exception e) {
+                closeConnection();
+                dropped.addAndGet(batch.size());
+                System.out.println("WARNING: Couldn't publish " + batch.size() + " events to Hawkular. Cause: " +
+                        e.getMessage());
+            }
+        }
+    }
+
+    private void publish(List<PendingEvent> batch) throws Exception {
+        if (null == session) {
+            openConnection();
+        }
+
+        for (PendingEvent event : batch) {
+            Message message = session.createMessage();
+            message.setStringProperty("action", event.action);
+            message.setStringProperty("userId", event.userId);
+            message.setStringProperty("eventId", event.eventId);
+            message.setIntProperty("count", event.count);
+            message.setLongProperty("firstTimestamp", event.firstTimestamp);
+            message.setLongProperty("lastTimestamp", event.lastTimestamp);
+            producer.send(message);
+        }
+
+        if (session.getTransacted()) {
+            session.commit();
+        }
+        published.addAndGet(batch.size());
+    }
+
+    private void openConnection() throws Exception {
+        if (null == connectionFactory) {
+            lookup();
+        }
+
+        connection = connectionFactory.createTopicConnection();
+        session = connection.createTopicSession(true, Session.AUTO_ACKNOWLEDGE);
+        producer = session.createProducer(topic);
+    }
+
+    private void closeConnection() {
+        if (null != connection) {
+            try {
+                connection.close();
+            } catch (Exception e) {
+                System.out.println("WARNING: Couldn't close the connection to Hawkular. Cause: " + e.getMessage());
+            }
+        }
+        connection = null;
+        session = null;
+        producer = null;
+    }
+
+    private void lookup() throws NamingException {
+        Context ctx = new InitialContext();
+        this.topic = (Topic) ctx.lookup("java:/topic/HawkularAccountsEvents");
+        this.connectionFactory = (TopicConnectionFactory) ctx.lookup("java:/HawkularBusConnectionFactory");
+    }
+
+    private static class PendingEvent {
+        private final String action;
+        private final String userId;
+        private final String eventId;
+        private final int count;
+        private final long firstTimestamp;
+        private final long lastTimestamp;
+
+        PendingEvent(String action, String userId, String eventId, int count, long firstTimestamp,
+                     long lastTimestamp) {
+            this.action = action;
+            this.userId = userId;
+            this.eventId = eventId;
+            this.count = count;
+            this.firstTimestamp = firstTimestamp;
+            this.lastTimestamp = lastTimestamp;
+        }
+    }
+}
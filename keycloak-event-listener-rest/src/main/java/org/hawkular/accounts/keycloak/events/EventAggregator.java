@@ -0,0 +1,189 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.accounts.keycloak.events;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.keycloak.events.EventType;
+
+/**
+ * Collapses high-volume events, like logins and token refreshes, into one summary per user and event type per time
+ * window. The summary is emitted once the window is over, with the number of events it represents and the timestamps
+ * of the first and last events. Events of other types are not aggregated and should be published right away.
+ * <p>
+ * Windows are checked by a single background thread, about once a second. Up to a given number of summaries are kept
+ * at the same time: once this limit is reached, events for new users are not aggregated, so that memory doesn't
+ * grow unbounded.
+ *
+ * @author Juraci Paixão Kröhling
+ */
+public class EventAggregator implements Runnable {
+    private static final long CHECK_INTERVAL = 1000;
+
+    private final Set<EventType> aggregatedEvents;
+    private final long window;
+    private final int maxSummaries;
+    private final Sink sink;
+    private final Thread thread;
+
+    private final Map<String, Summary> summaries = new ConcurrentHashMap<>();
+    private final AtomicLong aggregated = new AtomicLong();
+    private final AtomicLong emitted = new AtomicLong();
+
+    private volatile boolean running = true;
+
+    /**
+     * @param aggregatedEvents    the types of events to aggregate
+     * @param window              the duration of each window, in milliseconds
+     * @param maxSummaries        the maximum number of summaries kept at the same time
+     * @param sink                where the summaries are emitted to
+     */
+    public EventAggregator(Set<EventType> aggregatedEvents, long window, int maxSummaries, Sink sink) {
+        this.aggregatedEvents = aggregatedEvents;
+        this.window = window;
+        this.maxSummaries = maxSummaries;
+        this.sink = sink;
+        this.thread = new Thread(this, "hawkular-event-aggregator");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Adds the event to the summary for its user and type, if events of this type are aggregated.
+     * @param type         the event's type
+     * @param userId       the ID of the user who triggered the event
+     * @param timestamp    when the event happened
+     * @return false if the event was not aggregated, in which case it should be published right away
+     */
+    public boolean aggregate(EventType type, String userId, long timestamp) {
+        if (!aggregatedEvents.contains(type)) {
+            return false;
+        }
+
+        String key = userId + ':' + type.name();
+        if (summaries.size() >= maxSummaries && !summaries.containsKey(key)) {
+            return false;
+        }
+
+        summaries.compute(key, (k, summary) -> {
+            if (null == summary) {
+                return new Summary(type.name(), userId, timestamp);
+            }
+            summary.add(timestamp);
+            return summary;
+        });
+        aggregated.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Stops the aggregator, emitting all the summaries, even if their windows are not over yet.
+     */
+    public void close() {
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the number of events that were collapsed into summaries
+     */
+    public long getAggregated() {
+        return aggregated.get();
+    }
+
+    /**
+     * @return the number of summaries emitted
+     */
+    public long getEmitted() {
+        return emitted.get();
+    }
+
+    public int getPending() {
+        return summaries.size();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                Thread.sleep(Math.min(CHECK_INTERVAL, window));
+            } catch (InterruptedException e) {
+                break;
+            }
+            emit(System.currentTimeMillis() - window);
+        }
+        emit(Long.MAX_VALUE);
+    }
+
+    /**
+     * Emits the summaries whose windows were opened before the given timestamp.
+     */
+    private void emit(long openedBefore) {
+        for (Map.Entry<String, Summary> entry : summaries.entrySet()) {
+            Summary summary = entry.getValue();
+            if (summary.openedAt < openedBefore && summaries.remove(entry.getKey(), summary)) {
+                sink.emit(summary.action, summary.userId, UUID.randomUUID().toString(), summary.count,
+                        summary.firstTimestamp, summary.lastTimestamp);
+                emitted.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Receives the summaries once their windows are over.
+     */
+    public interface Sink {
+        void emit(String action, String userId, String eventId, int count, long firstTimestamp, long lastTimestamp);
+    }
+
+    /**
+     * Changed only while holding the lock for its entry on the map of summaries.
+     */
+    private static class Summary {
+        private final String action;
+        private final String userId;
+        private final long openedAt = System.currentTimeMillis();
+        private final long firstTimestamp;
+        private long lastTimestamp;
+        private int count = 1;
+
+        Summary(String action, String userId, long timestamp) {
+            this.action = action;
+            this.userId = userId;
+            this.firstTimestamp = timestamp;
+            this.lastTimestamp = timestamp;
+        }
+
+        void add(long timestamp) {
+            count++;
+            lastTimestamp = Math.max(lastTimestamp, timestamp);
+        }
+    }
+}
@@ -16,14 +16,6 @@
  */
 package org.hawkular.accounts.keycloak.events;
 
-import java.io.BufferedReader;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.HttpURLConnection;
-import java.net.SocketTimeoutException;
-import java.net.URL;
-import java.net.URLEncoder;
 import java.util.Set;
 import java.util.UUID;
 
@@ -33,13 +25,22 @@ import org.keycloak.events.EventType;
 import org.keycloak.events.admin.AdminEvent;
 
 /**
+ * Hands the events over to the {@link HawkularRESTEventPublisher} owned by the factory, which delivers them in
+ * background. Events of the types that are aggregated are handed over to the {@link EventAggregator} instead, which
+ * publishes a summary of them once in a while.
+ *
  * @author Juraci Paixão Kröhling
  */
 public class HawkularRESTEventListenerProvider implements EventListenerProvider {
     private final Set<EventType> excludedEvents;
+    private final HawkularRESTEventPublisher publisher;
+    private final EventAggregator aggregator;
 
-    public HawkularRESTEventListenerProvider(Set<EventType> excludedEvents) {
+    public HawkularRESTEventListenerProvider(Set<EventType> excludedEvents, HawkularRESTEventPublisher publisher,
+                                             EventAggregator aggregator) {
         this.excludedEvents = excludedEvents;
+        this.publisher = publisher;
+        this.aggregator = aggregator;
     }
 
     @Override
@@ -48,82 +49,22 @@ public class HawkularRESTEventListenerProvider implements EventListenerProvider
             return;
         }
 
-        try {
-            publishToHawkular(event);
-        } catch (Exception e) {
-            String message = "WARNING: Couldn't publish event to Hawkular. Event: " + event.toString();
-            message += ". Cause: " + e.getMessage();
-
-            // yes, System.out.println :-) This gets logged back via jboss-logging into the main server log,
-            // and as this is deployed as a module, we don't get in trouble with classpath/module dependencies.
-            System.out.println(message);
-        }
+        publishToHawkular(event);
     }
 
-    public void publishToHawkular(Event event) throws Exception {
+    public void publishToHawkular(Event event) {
         if (event.getUserId() == null) {
             return;
         }
 
-        String endpointUrl = System.getProperty("hawkular.events.listener.rest.endpoint");
-        String eventId = UUID.randomUUID().toString();
         String userId = event.getUserId();
-        String action = event.getType().name();
-
-        StringBuilder sb = new StringBuilder();
-        sb.append("eventId=").append(URLEncoder.encode(eventId, "UTF-8"));
-        sb.append("&userId=").append(URLEncoder.encode(userId, "UTF-8"));
-        sb.append("&action=").append(URLEncoder.encode(action, "UTF-8"));
-
-        HttpURLConnection connection = (HttpURLConnection) new URL(endpointUrl).openConnection();
-        connection.setConnectTimeout(5000);
-        connection.setReadTimeout(5000);
-        connection.setRequestMethod("POST");
-        connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
-        connection.setDoInput(true);
-        connection.setDoOutput(true);
-
-        try (PrintWriter out = new PrintWriter(connection.getOutputStream())) {
-            out.print(sb.toString());
-        }
-
-        StringBuilder response = new StringBuilder();
-
-        int statusCode;
-        try {
-            statusCode = connection.getResponseCode();
-        } catch (SocketTimeoutException timeoutException) {
-            String message = "WARNING: Timed out while trying to reach the Hawkular server. Event: " + event.toString();
-
-            // yes, System.out.println :-) This gets logged back via jboss-logging into the main server log,
-            // and as this is deployed as a module, we don't get in trouble with classpath/module dependencies.
-            System.out.println(message);
+        if (null != aggregator && aggregator.aggregate(event.getType(), userId, event.getTime())) {
             return;
         }
 
-        InputStream inputStream;
-        if (statusCode < 300) {
-            inputStream = connection.getInputStream();
-        } else {
-            inputStream = connection.getErrorStream();
-        }
-
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, "UTF-8"))) {
-            for (String line; (line = reader.readLine()) != null;) {
-                response.append(line);
-            }
-            inputStream.close();
-        }
-
-        if (statusCode >= 300) {
-            String message = "WARNING: Hawkular didn't process the event correctly" +
-                    ". Status code: " + statusCode +
-                    ". Response: " + response.toString();
-
-            // yes, System.out.println :-) This gets logged back via jboss-logging into the main server log,
-            // and as this is deployed as a module, we don't get in trouble with classpath/module dependencies.
-            System.out.println(message);
-        }
+        String eventId = UUID.randomUUID().toString();
+        String action = event.getType().name();
+        publisher.offer(action, userId, eventId, event.getTime());
     }
 
     @Override
@@ -16,6 +16,7 @@
  */
 package org.hawkular.accounts.keycloak.events;
 
+import java.io.File;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
@@ -28,14 +29,43 @@ import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.KeycloakSessionFactory;
 
 /**
+ * Creates the providers for each Keycloak session. The factory owns the {@link HawkularRESTEventPublisher}, which is
+ * shared by all providers. The publisher can be tuned via the following options:
+ * <ul>
+ * <li>{@code endpoint}: the events endpoint, defaults to the system property
+ * {@code hawkular.events.listener.rest.endpoint}. Events are POSTed in batches to this endpoint plus
+ * {@code /batch}, or to the URL set by the option {@code batchEndpoint}.</li>
+ * <li>{@code queueSize} (10000) and {@code batchSize} (25), which should not be higher than the backend's
+ * {@code org.hawkular.accounts.events.max-batch-size}</li>
+ * <li>{@code maxRetries} (3), {@code initialBackoff} (500 ms) and {@code maxBackoff} (30000 ms)</li>
+ * <li>{@code spoolFile}: where undelivered events are stored, defaults to
+ * {@code hawkular-accounts-events.spool} on the server's data directory. Events rejected by the backend are stored
+ * next to it, with the suffix {@code .rejected}.</li>
+ * <li>{@code maxSpoolSize} (100 MB): the maximum size, in bytes, of the spool file and of the file with the
+ * rejected events</li>
+ * </ul>
+ * <p>
+ * High-volume events can be aggregated by setting the option {@code aggregationWindow} to a number of milliseconds
+ * greater than 0, which is not done by default. Events of the types listed on the option {@code aggregate} (by
+ * default, {@code LOGIN}, {@code CODE_TO_TOKEN} and {@code REFRESH_TOKEN}) are then collapsed by an
+ * {@link EventAggregator} into one event per user and type every window. Such an event carries the number of events
+ * it represents and the timestamps of the first and last of them. Up to {@code aggregationMaxSummaries} (100000)
+ * users and types are aggregated at the same time. Events of other types, like {@code REGISTER} and
+ * {@code UPDATE_PROFILE}, are published right away.
+ *
  * @author Juraci Paixão Kröhling
  */
 public class HawkularRESTEventListenerProviderFactory implements EventListenerProviderFactory {
+    private static final String[] DEFAULT_AGGREGATED_EVENTS = {"LOGIN", "CODE_TO_TOKEN", "REFRESH_TOKEN"};
+
     private final Set<EventType> excludedEvents = new HashSet<>();
+    private HawkularRESTEventPublisher publisher;
+    private EventAggregator aggregator;
 
     @Override
     public EventListenerProvider create(KeycloakSession keycloakSession) {
-        return new HawkularRESTEventListenerProvider(Collections.unmodifiableSet(excludedEvents));
+        return new HawkularRESTEventListenerProvider(Collections.unmodifiableSet(excludedEvents), publisher,
+                aggregator);
     }
 
     @Override
@@ -46,6 +76,36 @@ public class HawkularRESTEventListenerProviderFactory implements EventListenerPr
                 excludedEvents.add(EventType.valueOf(e));
             }
         }
+
+        String endpoint = config.get("endpoint", System.getProperty("hawkular.events.listener.rest.endpoint"));
+        String batchEndpoint = config.get("batchEndpoint", null == endpoint ? null : endpoint + "/batch");
+        String dataDir = System.getProperty("jboss.server.data.dir", System.getProperty("java.io.tmpdir"));
+        String spoolFile = config.get("spoolFile", new File(dataDir, "hawkular-accounts-events.spool").getPath());
+
+        publisher = new HawkularRESTEventPublisher(
+                batchEndpoint,
+                config.getInt("queueSize", 10000),
+                config.getInt("batchSize", 25),
+                config.getInt("maxRetries", 3),
+                config.getLong("initialBackoff", 500L),
+                config.getLong("maxBackoff", 30000L),
+                new File(spoolFile),
+                config.getLong("maxSpoolSize", 100L * 1024 * 1024)
+        );
+        publisher.start();
+
+        long aggregationWindow = config.getLong("aggregationWindow", 0L);
+        if (aggregationWindow > 0) {
+            Set<EventType> aggregatedEvents = new HashSet<>();
+            String[] aggregate = config.getArray("aggregate");
+            for (String e : null == aggregate ? DEFAULT_AGGREGATED_EVENTS : aggregate) {
+                aggregatedEvents.add(EventType.valueOf(e));
+            }
+
+            aggregator = new EventAggregator(aggregatedEvents, aggregationWindow,
+                    config.getInt("aggregationMaxSummaries", 100000), publisher::offer);
+            aggregator.start();
+        }
     }
 
     @Override
@@ -54,6 +114,13 @@ public class HawkularRESTEventListenerProviderFactory implements EventListenerPr
 
     @Override
     public void close() {
+        // the aggregator emits its summaries to the publisher when closing
+        if (null != aggregator) {
+            aggregator.close();
+        }
+        if (null != publisher) {
+            publisher.close();
+        }
     }
 
     @Override
@@ -0,0 +1,537 @@
+/*
+ * Copyright 2015 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.accounts.keycloak.events;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delivers the events to Hawkular in background, so that Keycloak's threads don't wait for the Accounts backend.
+ * Events are placed on a bounded queue, which is drained by a single thread. This thread POSTs the events in batches
+ * to the batch endpoint, reusing the HTTP connection between requests (keep-alive).
+ * <p>
+ * Events that fail to be delivered are retried with exponential backoff. If they still can't be delivered, if the
+ * queue is full, or if the publisher is closing, the events are appended to a local spool file. Once the backend is
+ * reachable again, the spool file is replayed. As a result, an event might be delivered more than once, but it's not
+ * lost if the backend is unavailable for a while. The spool file is limited to a maximum size, after which new
+ * undeliverable events are dropped, so that a backend that is never reachable, or not configured at all, doesn't
+ * fill up the disk.
+ * <p>
+ * When the backend rejects a batch for reasons other than its availability (4xx), the batch is split in halves, which
+ * are sent separately, until the events that are rejected on their own are found. Those are appended to a dead
+ * letter file next to the spool file, instead of being retried, so that they can be inspected later.
+ *
+ * @author Juraci Paixão Kröhling
+ */
+public class HawkularRESTEventPublisher implements Runnable {
+    private static final long POLL_TIMEOUT = 1000;
+    private static final int CONNECT_TIMEOUT = 5000;
+    private static final int READ_TIMEOUT = 5000;
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    private final BlockingQueue<PendingEvent> queue;
+    private final String endpoint;
+    private final int batchSize;
+    private final int maxRetries;
+    private final long initialBackoff;
+    private final long maxBackoff;
+    private final File spoolFile;
+    private final File replayFile;
+    private final File deadLetterFile;
+    private final long maxSpoolSize;
+    private final Thread thread;
+
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong spooled = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    private volatile boolean running = true;
+
+    // the following are used only by the publisher's thread
+    private long suspendedUntil = 0;
+    private long retryAfter = 0;
+    private String rejection;
+
+    // guarded by this
+    private final Set<File> fullFiles = new HashSet<>();
+
+    /**
+     * @param endpoint          the URL for the batch endpoint on the Accounts events backend
+     * @param queueSize         the maximum number of events waiting to be delivered
+     * @param batchSize         the maximum number of events delivered on a single request
+     * @param maxRetries        how many times a batch is retried before it's spooled
+     * @param initialBackoff    the time to wait before the first retry, in milliseconds. Doubled for each retry.
+     * @param maxBackoff        the maximum time to wait between retries, in milliseconds. Also the time to wait
+     *                          before trying again, once a batch has been spooled.
+     * @param spoolFile         the file where the events that couldn't be delivered are stored
+     * @param maxSpoolSize      the maximum size of the spool file and of the dead letter file, in bytes
+     */
+    public HawkularRESTEventPublisher(String endpoint, int queueSize, int batchSize, int maxRetries,
+                                      long initialBackoff, long maxBackoff, File spoolFile, long maxSpoolSize) {
+        this.endpoint = endpoint;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.batchSize = batchSize;
+        this.maxRetries = maxRetries;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+        this.spoolFile = spoolFile;
+        this.replayFile = new File(spoolFile.getPath() + ".replay");
+        this.deadLetterFile = new File(spoolFile.getPath() + ".rejected");
+        this.maxSpoolSize = maxSpoolSize;
+        this.thread = new Thread(this, "hawkular-rest-event-publisher");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Queues the event for delivery. If the queue is full, the event is appended to the spool file.
+     */
+    public void offer(String action, String userId, String eventId, long timestamp) {
+        offer(action, userId, eventId, 1, timestamp, timestamp);
+    }
+
+    /**
+     * Queues an event that represents one or more events of the same type, for the same user. If the queue is full,
+     * the event is appended to the spool file.
+     * @param count             how many events this event represents
+     * @param firstTimestamp    when the first of the represented events happened
+     * @param lastTimestamp     when the last of the represented events happened
+     */
+    public void offer(String action, String userId, String eventId, int count, long firstTimestamp,
+                      long lastTimestamp) {
+        PendingEvent event = new PendingEvent(eventId, userId, action, count, firstTimestamp, lastTimestamp);
+        if (!queue.offer(event)) {
+            spool(Collections.singletonList(event));
+        }
+    }
+
+    /**
+     * Stops the publisher. Events still on the queue are spooled, to be delivered once the publisher is started again.
+     * A delivery that is in progress is given the time to complete.
+     */
+    public void close() {
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join(CONNECT_TIMEOUT + READ_TIMEOUT + TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long getDelivered() {
+        return delivered.get();
+    }
+
+    /**
+     * @return the number of events written to the spool file, including the ones spooled again after a failed replay
+     */
+    public long getSpooled() {
+        return spooled.get();
+    }
+
+    /**
+     * @return the number of events lost, because they could not be spooled or because the spool file was full
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return the number of events rejected by the backend, which were written to the dead letter file
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    public int getPending() {
+        return queue.size();
+    }
+
+    @Override
+    public void run() {
+        recoverInterruptedReplay();
+
+        List<PendingEvent> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingEvent first = running ? queue.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS) : queue.poll();
+                if (null == first) {
+                    replaySpool();
+                    continue;
+                }
+
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+
+                if (!running) {
+                    // we are closing: sending the events might take longer than we have, spooling doesn't
+                    spool(batch);
+                } else if (isSuspended()) {
+                    // the backend was not available a moment ago, don't make the queue wait for it
+                    spool(batch);
+                } else {
+                    List<PendingEvent> undelivered = deliverWithRetry(batch);
+                    if (undelivered.isEmpty()) {
+                        replaySpool();
+                    } else {
+                        spool(undelivered);
+                        suspendedUntil = System.currentTimeMillis() + maxBackoff;
+                    }
+                }
+            } catch (InterruptedException e) {
+                // we are closing: keep draining the queue, but without waiting
+                running = false;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Sends the batch, retrying the events that could not be delivered yet.
+     * @return the events that could not be delivered, empty if all of them were handled by the backend
+     */
+    private List<PendingEvent> deliverWithRetry(List<PendingEvent> batch) {
+        List<PendingEvent> undelivered = batch;
+        long backoff = initialBackoff;
+        for (int attempt = 0; ; attempt++) {
+            undelivered = send(undelivered);
+            if (undelivered.isEmpty() || attempt >= maxRetries || !running) {
+                return undelivered;
+            }
+
+            try {
+                Thread.sleep(Math.max(backoff, retryAfter));
+            } catch (InterruptedException e) {
+                // we are closing: the caller spools what's left
+                running = false;
+                return undelivered;
+            }
+            retryAfter = 0;
+            backoff = Math.min(backoff * 2, maxBackoff);
+        }
+    }
+
+    /**
+     * Sends the batch to the backend. If the backend rejects it, the batch is split in halves, which are sent
+     * separately, and the events rejected on their own are written to the dead letter file. Once the backend is
+     * found to be unavailable, the remaining events are not sent.
+     * @return the events that were neither accepted nor rejected by the backend, as it was not available, in the
+     * order they were given
+     */
+    private List<PendingEvent> send(List<PendingEvent> batch) {
+        switch (deliver(batch)) {
+            case DELIVERED:
+                return Collections.emptyList();
+            case UNAVAILABLE:
+                return batch;
+            default:
+                if (batch.size() == 1) {
+                    // yes, System.out.println :-) This gets logged back via jboss-logging into the main server log,
+                    // and as this is deployed as a module, we don't get in trouble with classpath/module dependencies.
+                    System.out.println("WARNING: Hawkular didn't process the event " + batch.get(0).eventId
+                            + " correctly. " + rejection + ". Writing it to " + deadLetterFile.getPath());
+                    if (append(deadLetterFile, batch)) {
+                        rejected.incrementAndGet();
+                    }
+                    return Collections.emptyList();
+                }
+
+                int half = batch.size() / 2;
+                List<PendingEvent> undelivered = send(batch.subList(0, half));
+                if (undelivered.isEmpty()) {
+                    return send(batch.subList(half, batch.size()));
+                }
+
+                // the second half wasn't even tried
+                List<PendingEvent> remainder = new ArrayList<>(undelivered);
+                remainder.addAll(batch.subList(half, batch.size()));
+                return remainder;
+        }
+    }
+
+    private Outcome deliver(List<PendingEvent> batch) {
+        if (null == endpoint) {
+            System.out.println("WARNING: The endpoint for the Hawkular events is not set. Events will be spooled.");
+            return Outcome.UNAVAILABLE;
+        }
+
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(endpoint).openConnection();
+            connection.setConnectTimeout(CONNECT_TIMEOUT);
+            connection.setReadTimeout(READ_TIMEOUT);
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", "application/json");
+            connection.setDoInput(true);
+            connection.setDoOutput(true);
+
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(toJson(batch).getBytes(StandardCharsets.UTF_8));
+            }
+
+            int statusCode = connection.getResponseCode();
+            String response = readFully(statusCode < 300 ? connection.getInputStream() : connection.getErrorStream());
+
+            if (statusCode < 300) {
+                delivered.addAndGet(batch.size());
+                return Outcome.DELIVERED;
+            }
+
+            if (statusCode == TOO_MANY_REQUESTS) {
+                retryAfter = parseRetryAfter(connection.getHeaderField("Retry-After"));
+                return Outcome.UNAVAILABLE;
+            }
+
+            if (statusCode >= 500) {
+                return Outcome.UNAVAILABLE;
+            }
+
+            rejection = "Status code: " + statusCode + ". Response: " + response;
+            return Outcome.REJECTED;
+        } catch (IOException e) {
+            return Outcome.UNAVAILABLE;
+        }
+    }
+
+    /**
+     * Reads the whole stream and closes it, so that the underlying connection can be reused.
+     */
+    private String readFully(InputStream inputStream) throws IOException {
+        if (null == inputStream) {
+            return "";
+        }
+
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        try (InputStream in = inputStream) {
+            byte[] buffer = new byte[4096];
+            for (int read; (read = in.read(buffer)) != -1;) {
+                response.write(buffer, 0, read);
+            }
+        }
+        return new String(response.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private void spool(List<PendingEvent> events) {
+        if (append(spoolFile, events)) {
+            spooled.addAndGet(events.size());
+        }
+    }
+
+    /**
+     * Appends the events to the given file, unless the file has reached the maximum size.
+     * @return false if the events were dropped
+     */
+    private synchronized boolean append(File file, List<PendingEvent> events) {
+        if (file.length() >= maxSpoolSize) {
+            dropped.addAndGet(events.size());
+            if (fullFiles.add(file)) {
+                System.out.println("WARNING: " + file.getPath() + " has reached its maximum size of " + maxSpoolSize
+                        + " bytes. Events for Hawkular that can't be delivered will be dropped.");
+            }
+            return false;
+        }
+        fullFiles.remove(file);
+
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8)) {
+            for (PendingEvent event : events) {
+                writer.write(event.eventId + "\t" + event.userId + "\t" + event.action + "\t" + event.count + "\t" +
+                        event.firstTimestamp + "\t" + event.lastTimestamp + "\n");
+            }
+            return true;
+        } catch (IOException e) {
+            dropped.addAndGet(events.size());
+            System.out.println("WARNING: Couldn't write " + events.size() + " events for Hawkular to "
+                    + file.getPath() + ". Cause: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Tries to deliver the events from the spool file. The spool file is moved away before being replayed, so that
+     * new events can be spooled in the meantime. Events that still can't be delivered are spooled again.
+     */
+    private void replaySpool() {
+        if (!running || isSuspended()) {
+            return;
+        }
+
+        synchronized (this) {
+            if (spoolFile.length() == 0 || !spoolFile.renameTo(replayFile)) {
+                return;
+            }
+        }
+
+        List<PendingEvent> events;
+        try {
+            events = readSpool(replayFile);
+        } catch (IOException e) {
+            System.out.println("WARNING: Couldn't read the spooled events for Hawkular. Cause: " + e.getMessage());
+            return;
+        }
+
+        for (int i = 0; i < events.size(); i += batchSize) {
+            int end = Math.min(i + batchSize, events.size());
+            List<PendingEvent> undelivered = send(events.subList(i, end));
+            if (!undelivered.isEmpty()) {
+                List<PendingEvent> remainder = new ArrayList<>(undelivered);
+                remainder.addAll(events.subList(end, events.size()));
+                spool(remainder);
+                suspendedUntil = System.currentTimeMillis() + maxBackoff;
+                break;
+            }
+        }
+
+        if (!replayFile.delete()) {
+            System.out.println("WARNING: Couldn't remove the replayed spool file " + replayFile.getPath());
+        }
+    }
+
+    /**
+     * If the process stopped while replaying the spool, the events from the replay file are spooled again.
+     */
+    private void recoverInterruptedReplay() {
+        if (!replayFile.exists()) {
+            return;
+        }
+
+        try {
+            spool(readSpool(replayFile));
+            if (!replayFile.delete()) {
+                System.out.println("WARNING: Couldn't remove the replayed spool file " + replayFile.getPath());
+            }
+        } catch (IOException e) {
+            System.out.println("WARNING: Couldn't read the spooled events for Hawkular. Cause: " + e.getMessage());
+        }
+    }
+
+    private List<PendingEvent> readSpool(File file) throws IOException {
+        List<PendingEvent> events = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            for (String line; (line = reader.readLine()) != null;) {
+                String[] fields = line.split("\t");
+                if (fields.length == 6) {
+                    try {
+                        events.add(new PendingEvent(fields[0], fields[1], fields[2], Integer.parseInt(fields[3]),
+                                Long.parseLong(fields[4]), Long.parseLong(fields[5])));
+                    } catch (NumberFormatException e) {
+                        // corrupted line, skip it
+                    }
+                }
+            }
+        }
+        return events;
+    }
+
+    private boolean isSuspended() {
+        return System.currentTimeMillis() < suspendedUntil;
+    }
+
+    private long parseRetryAfter(String retryAfter) {
+        if (null == retryAfter) {
+            return 0;
+        }
+
+        try {
+            return Math.min(TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim())), maxBackoff);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static String toJson(List<PendingEvent> events) {
+        StringBuilder sb = new StringBuilder("[");
+        for (PendingEvent event : events) {
+            if (sb.length() > 1) {
+                sb.append(',');
+            }
+            sb.append("{\"eventId\":\"").append(escape(event.eventId))
+                    .append("\",\"userId\":\"").append(escape(event.userId))
+                    .append("\",\"action\":\"").append(escape(event.action))
+                    .append("\",\"count\":").append(event.count);
+            if (event.firstTimestamp > 0) {
+                sb.append(",\"firstTimestamp\":").append(event.firstTimestamp)
+                        .append(",\"lastTimestamp\":").append(event.lastTimestamp);
+            }
+            sb.append('}');
+        }
+        return sb.append(']').toString();
+    }
+
+    private static String escape(String value) {
+        StringBuilder sb = new StringBuilder(value.length());
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private enum Outcome {
+        DELIVERED, UNAVAILABLE, REJECTED
+    }
+
+    private static class PendingEvent {
+        private final String eventId;
+        private final String userId;
+        private final String action;
+        private final int count;
+        private final long firstTimestamp;
+        private final long lastTimestamp;
+
+        PendingEvent(String eventId, String userId, String action, int count, long firstTimestamp,
+                     long lastTimestamp) {
+            this.eventId = eventId;
+            this.userId = userId;
+            this.action = action;
+            this.count = count;
+            this.firstTimestamp = firstTimestamp;
+            this.lastTimestamp = lastTimestamp;
+        }
+    }
+}
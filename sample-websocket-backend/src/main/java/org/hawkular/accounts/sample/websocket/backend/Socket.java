@@ -17,17 +17,16 @@
 package org.hawkular.accounts.sample.websocket.backend;
 
 import java.io.IOException;
-import java.io.StringReader;
 
 import javax.inject.Inject;
-import javax.json.Json;
-import javax.json.JsonObject;
-import javax.json.JsonReader;
 import javax.websocket.CloseReason;
+import javax.websocket.OnClose;
+import javax.websocket.OnError;
 import javax.websocket.OnMessage;
 import javax.websocket.Session;
 import javax.websocket.server.ServerEndpoint;
 
+import org.hawkular.accounts.websocket.AuthenticatedMessage;
 import org.hawkular.accounts.websocket.Authenticator;
 import org.hawkular.accounts.websocket.WebsocketAuthenticationException;
 
@@ -38,17 +37,29 @@ public class Socket {
 
     @OnMessage
     public String onMessage(String message, Session session) throws IOException {
-        authenticate(message, session);
-        JsonReader jsonReader = Json.createReader(new StringReader(message));
-        JsonObject jsonMessage = jsonReader.readObject();
-        return jsonMessage.getString("message");
+        AuthenticatedMessage authenticatedMessage = authenticate(message, session);
+        if (null == authenticatedMessage) {
+            return null;
+        }
+        return authenticatedMessage.getMessage().getString("message");
+    }
+
+    @OnClose
+    public void onClose(Session session) {
+        authenticator.sessionClosed(session);
+    }
+
+    @OnError
+    public void onError(Session session, Throwable t) {
+        authenticator.sessionClosed(session);
     }
 
-    private void authenticate(String message, Session session) throws IOException {
+    private AuthenticatedMessage authenticate(String message, Session session) throws IOException {
         try {
-            authenticator.authenticateWithMessage(message, session);
+            return authenticator.authenticateOnce(message, session);
         } catch (WebsocketAuthenticationException e) {
             session.close(new CloseReason(CloseReason.CloseCodes.CLOSED_ABNORMALLY, e.getLocalizedMessage()));
+            return null;
         }
     }
 }
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2015-2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.accounts.websocket;
+
+import javax.json.JsonObject;
+import javax.websocket.Session;
+
+import org.hawkular.accounts.api.model.Persona;
+
+/**
+ * Envelope for a message that has been authenticated by the {@link Authenticator}. It carries the message, parsed
+ * only once, together with the persona that is bound to the session, so that the endpoint doesn't need to parse the
+ * message again nor to look up the persona.
+ *
+ * @author Juraci Paixão Kröhling
+ */
+public class AuthenticatedMessage {
+    private final JsonObject message;
+    private final Persona persona;
+    private final Session session;
+
+    public AuthenticatedMessage(JsonObject message, Persona persona, Session session) {
+        this.message = message;
+        this.persona = persona;
+        this.session = session;
+    }
+
+    /**
+     * @return the parsed message, including the {@code authentication} object, if it was sent.
+     */
+    public JsonObject getMessage() {
+        return message;
+    }
+
+    /**
+     * @return the persona bound to the session that received this message
+     */
+    public Persona getPersona() {
+        return persona;
+    }
+
+    public Session getSession() {
+        return session;
+    }
+}
@@ -21,9 +21,20 @@ import static org.hawkular.accounts.websocket.internal.AuthenticationMode.MESSAG
 import static org.hawkular.accounts.websocket.internal.AuthenticationMode.TOKEN;
 
 import java.io.StringReader;
-import java.util.HashMap;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.List;
 import java.util.Map;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 import javax.json.Json;
@@ -37,6 +48,8 @@ import org.hawkular.accounts.api.model.HawkularUser;
 import org.hawkular.accounts.api.model.Persona;
 import org.hawkular.accounts.common.TokenVerifier;
 import org.hawkular.accounts.common.UsernamePasswordConverter;
+import org.hawkular.accounts.common.internal.Digests;
+import org.hawkular.accounts.common.internal.ExpiringCache;
 import org.hawkular.accounts.websocket.internal.AuthenticationMode;
 import org.hawkular.accounts.websocket.internal.CachedSession;
 import org.hawkular.accounts.websocket.internal.MsgLogger;
@@ -53,6 +66,27 @@ import org.hawkular.accounts.websocket.internal.MsgLogger;
  * <li>The current message has no persona in the authentication, or is the same as the original persona.</li>
  * <li>The expiration timestamp for the original token has not elapsed yet.</li>
  * </ul>
+ * <p>
+ * Cached sessions are evicted once their token expires, or when the cache reaches its maximum size, as set by the
+ * system property {@code org.hawkular.accounts.websocket.session-cache.max-size} (10000 by default). Web Socket
+ * endpoints should call {@link #sessionClosed(Session)} from their {@code @OnClose} and {@code @OnError} methods, so
+ * that sessions are removed from the cache as soon as the connection is closed.
+ * <p>
+ * Sessions authenticated with credentials are renewed in background shortly before they expire, so that messages
+ * for these sessions don't have to wait for the authentication server. The renewal happens between
+ * {@code org.hawkular.accounts.websocket.renew-before} (25 seconds) and that plus
+ * {@code org.hawkular.accounts.websocket.renew-jitter} (5 seconds) before the expiration, so that sessions that were
+ * established together are not all renewed at the same time. A session is renewed only while its connection is open
+ * and only if it has been used since it was last renewed, so that the credentials are not kept around for idle
+ * connections: once renewals stop, the next message authenticates again. Sessions authenticated with a token cannot
+ * be renewed by the server, as the token is owned by the client, which is expected to send a new token before it
+ * expires.
+ * <p>
+ * Endpoints can also authenticate once per connection, via {@link #authenticateConnection(Session)} on
+ * {@code @OnOpen} and/or {@link #authenticateOnce(String, Session)} for each message. Once the connection is
+ * authenticated, the persona is bound to the session's user properties under the key {@link #PERSONA} and further
+ * messages without an {@code authentication} object are accepted without any authentication processing, for as long
+ * as the session is valid.
  *
  * @author Juraci Paixão Kröhling
  */
@@ -73,10 +107,49 @@ public class Authenticator {
     UserService userService;
 
     /**
-     * Minimalistic cache for sessions.
-     * TODO: convert this into a proper Cache.
+     * Key for the {@link Persona} in the session's user properties, for connections authenticated via
+     * {@link #authenticateConnection(Session)} or {@link #authenticateOnce(String, Session)}.
+     */
+    public static final String PERSONA = "org.hawkular.accounts.websocket.persona";
+
+    private static final String BOUND_SESSION = "org.hawkular.accounts.websocket.bound-session";
+    private static final String LAST_USED = "org.hawkular.accounts.websocket.last-used";
+    private static final String SESSION_CACHE_MAX_SIZE = "org.hawkular.accounts.websocket.session-cache.max-size";
+    private static final String RENEW_BEFORE = "org.hawkular.accounts.websocket.renew-before";
+    private static final String RENEW_JITTER = "org.hawkular.accounts.websocket.renew-jitter";
+    private static final long PURGE_INTERVAL = 60000;
+
+    long renewBefore = Long.parseLong(System.getProperty(RENEW_BEFORE, "25000"));
+    long renewJitter = Long.parseLong(System.getProperty(RENEW_JITTER, "5000"));
+
+    @Resource
+    ManagedScheduledExecutorService scheduler;
+
+    /**
+     * Cache for sessions, keyed by the session ID. Entries expire at the same time as the token that backs them.
+     */
+    private final ExpiringCache<String, CachedSession> cachedSessions = new ExpiringCache<>(
+            Integer.parseInt(System.getProperty(SESSION_CACHE_MAX_SIZE, "10000")));
+
+    /**
+     * The background renewals that are scheduled, keyed by the session ID.
      */
-    private Map<String, CachedSession> cachedSessions = new HashMap<>();
+    private final Map<String, ScheduledFuture<?>> scheduledRenewals = new ConcurrentHashMap<>();
+
+    private final String salt = generateSalt();
+    private ScheduledFuture<?> purgeTask;
+
+    @PostConstruct
+    public void init() {
+        purgeTask = scheduler.scheduleWithFixedDelay(cachedSessions::purgeExpired, PURGE_INTERVAL, PURGE_INTERVAL,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        purgeTask.cancel(false);
+        scheduledRenewals.values().forEach(renewal -> renewal.cancel(false));
+    }
 
     /**
      * Authenticates the user/persona that sent the message based on either the message itself or based on previous
@@ -136,7 +209,92 @@ public class Authenticator {
         authenticate(CREDENTIALS, personaId, session, null, null, username, password);
     }
 
-    private void authenticate(
+    /**
+     * Authenticates the connection based on the query parameters from the handshake request, {@code token} and,
+     * optionally, {@code persona}, binding the persona to the session. Meant to be called from {@code @OnOpen}.
+     * @param session    the Web Socket session
+     * @return the persona bound to the session, or null if the handshake request has no token
+     * @throws WebsocketAuthenticationException if the token is not valid or if the persona cannot be used
+     */
+    public Persona authenticateConnection(Session session) throws WebsocketAuthenticationException {
+        Map<String, List<String>> parameters = session.getRequestParameterMap();
+        String token = getFirst(parameters, "token");
+        if (null == token) {
+            return null;
+        }
+
+        logger.tokenBasedAuth(token, getFirst(parameters, "persona"));
+        CachedSession cachedSession = authenticate(TOKEN, getFirst(parameters, "persona"), session, null, token,
+                null, null);
+        return bind(session, cachedSession);
+    }
+
+    /**
+     * Authenticates the message once per connection. The first message (unless the connection was authenticated
+     * via {@link #authenticateConnection(Session)}) should contain the {@code authentication} object, as
+     * described on {@link #authenticateWithMessage(String, Session)}. The persona is then bound to the session, and
+     * subsequent messages are accepted without authentication data for as long as the session is valid. Messages
+     * that do carry an {@code authentication} object, like a refreshed token, are authenticated again.
+     *
+     * @param message    JSON message, with an optional {@code authentication} object
+     * @param session    the Web Socket session for this message
+     * @return the parsed message along with the persona bound to the session
+     * @throws WebsocketAuthenticationException if the session is not bound to a persona (or has expired) and the
+     * message has no valid authentication data
+     */
+    public AuthenticatedMessage authenticateOnce(String message, Session session)
+            throws WebsocketAuthenticationException {
+        JsonObject jsonMessage;
+        try (JsonReader jsonReader = Json.createReader(new StringReader(message))) {
+            jsonMessage = jsonReader.readObject();
+        }
+
+        JsonObject jsonAuth = jsonMessage.getJsonObject("authentication");
+        if (null == jsonAuth) {
+            CachedSession bound = getBoundSession(session);
+            if (null != bound) {
+                markUsed(session);
+                return new AuthenticatedMessage(jsonMessage, bound.getPersona(), session);
+            }
+        }
+
+        logger.messageBasedAuth();
+        String personaId = null;
+        if (jsonAuth != null && jsonAuth.containsKey("persona")) {
+            personaId = jsonAuth.getString("persona");
+        }
+        CachedSession cachedSession = authenticate(MESSAGE, personaId, session, jsonAuth, null, null, null);
+        return new AuthenticatedMessage(jsonMessage, bind(session, cachedSession), session);
+    }
+
+    /**
+     * Removes the cached authentication data for the given session. Should be called when the Web Socket session is
+     * closed, either normally ({@code @OnClose}) or due to an error ({@code @OnError}).
+     * @param session    the Web Socket session that has been closed
+     */
+    public void sessionClosed(Session session) {
+        ScheduledFuture<?> renewal = scheduledRenewals.remove(session.getId());
+        if (null != renewal) {
+            renewal.cancel(false);
+        }
+
+        if (null != cachedSessions.remove(session.getId())) {
+            logger.sessionRemovedFromCache(session.getId());
+        }
+
+        session.getUserProperties().remove(PERSONA);
+        session.getUserProperties().remove(BOUND_SESSION);
+        session.getUserProperties().remove(LAST_USED);
+    }
+
+    /**
+     * @return the cache for the sessions, for metrics purposes (size, hits, misses and evictions).
+     */
+    public ExpiringCache<?, ?> getCachedSessions() {
+        return cachedSessions;
+    }
+
+    private CachedSession authenticate(
             AuthenticationMode mode,
             String personaId,
             Session session,
@@ -145,14 +303,24 @@ public class Authenticator {
             String username,
             String password
     ) throws WebsocketAuthenticationException {
+        if (MESSAGE.equals(mode) && null != jsonAuth && !jsonAuth.containsKey("token")) {
+            JsonObject jsonLogin = jsonAuth.getJsonObject("login");
+            if (null != jsonLogin) {
+                username = jsonLogin.getString("username", null);
+                password = jsonLogin.getString("password", null);
+            }
+        }
+        String credentialsDigest = getCredentialsDigest(username, password);
+        markUsed(session);
+
         // do we have this session on the cache?
         CachedSession cachedSession = cachedSessions.get(session.getId());
-        boolean isSessionValid = isValid(cachedSession, personaId, token, jsonAuth);
+        boolean isSessionValid = isValid(cachedSession, personaId, token, jsonAuth, credentialsDigest);
 
         if (isSessionValid) {
             // the session is still valid, so, just return
             logger.sessionInCache(session.getId());
-            return;
+            return cachedSession;
         }
 
         try {
@@ -177,13 +345,64 @@ public class Authenticator {
         }
 
         if (null != cachedSession) {
-            this.cachedSessions.putIfAbsent(session.getId(), cachedSession);
+            this.cachedSessions.put(session.getId(), cachedSession, cachedSession.getExpiresAt());
+            if (null != credentialsDigest) {
+                String loginUsername = username;
+                String loginPassword = password;
+                String loginPersonaId = personaId;
+                scheduleRenewal(session, cachedSession,
+                        () -> doAuthenticationWithCredentials(loginPersonaId, loginUsername, loginPassword));
+            }
+            return cachedSession;
         } else {
             // not that I'm trying to be rude, but...
             throw new WebsocketAuthenticationException("No authentication data provided.");
         }
     }
 
+    private Persona bind(Session session, CachedSession cachedSession) {
+        Map<String, Object> properties = session.getUserProperties();
+        properties.put(BOUND_SESSION, cachedSession);
+        properties.put(PERSONA, cachedSession.getPersona());
+        logger.sessionBound(session.getId(), cachedSession.getPersona().getId());
+        return cachedSession.getPersona();
+    }
+
+    private CachedSession getBoundSession(Session session) {
+        Map<String, Object> properties = session.getUserProperties();
+        CachedSession bound = (CachedSession) properties.get(BOUND_SESSION);
+        if (null == bound) {
+            return null;
+        }
+
+        // the cache has the most recent state for this session, as it might have been renewed in background
+        CachedSession current = cachedSessions.peek(session.getId());
+        if (null != current && current.getPersona().equals(bound.getPersona())) {
+            if (current != bound) {
+                properties.put(BOUND_SESSION, current);
+            }
+            return current;
+        }
+
+        if (null == current && System.currentTimeMillis() < bound.getExpiresAt()) {
+            // evicted from the cache, but still valid
+            cachedSessions.put(session.getId(), bound, bound.getExpiresAt());
+            return bound;
+        }
+
+        properties.remove(BOUND_SESSION);
+        properties.remove(PERSONA);
+        return null;
+    }
+
+    private static String getFirst(Map<String, List<String>> parameters, String name) {
+        List<String> values = parameters.get(name);
+        if (null == values || values.isEmpty()) {
+            return null;
+        }
+        return values.get(0);
+    }
+
     private CachedSession doAuthenticationWithMessage(String personaId, JsonObject jsonAuth) throws Exception {
         if (null == jsonAuth) {
             return null;
@@ -218,7 +437,14 @@ public class Authenticator {
 
         logger.retrievingTokenForCredentials(username);
         String token = usernamePasswordConverter.getAccessToken(username, password);
-        return doAuthenticationWithToken(personaId, token);
+        CachedSession cachedSession = doAuthenticationWithToken(personaId, token);
+        return new CachedSession(
+                cachedSession.getAuthToken(),
+                cachedSession.getParsedToken(),
+                cachedSession.getPersona(),
+                cachedSession.getExpiresAt(),
+                getCredentialsDigest(username, password)
+        );
     }
 
     private CachedSession doAuthenticationWithToken(String personaId, String authToken) throws Exception {
@@ -270,11 +496,12 @@ public class Authenticator {
         return new CachedSession(authToken, accessToken, persona, expirationTime);
     }
 
-    private boolean isValid(CachedSession cachedSession, String personaId, String authToken, JsonObject jsonAuth) {
+    private boolean isValid(CachedSession cachedSession, String personaId, String authToken, JsonObject jsonAuth,
+                            String credentialsDigest) {
         // conditions to be considered valid:
         // 1) there's a cachedSession object (ie: not null)
         // 2) the persona for the current request is the same as the cached one
-        // 3) the authToken is the same (ie: not a refreshed one)
+        // 3) the authToken is the same (ie: not a refreshed one), or the same credentials were used
         // 4) it has not expired
 
         if (null == cachedSession) {
@@ -287,6 +514,11 @@ public class Authenticator {
             return false;
         }
 
+        if (null != credentialsDigest && credentialsDigest.equals(cachedSession.getCredentialsDigest())) {
+            // same credentials as before, so, the token we have for it is still the one to use
+            authToken = cachedSession.getAuthToken();
+        }
+
         if (null == authToken && null != jsonAuth) {
             // we might have this token on the jsonAuth:
             if (jsonAuth.containsKey("token")) {
@@ -304,4 +536,69 @@ public class Authenticator {
         logger.isTokenStillValid(stillValid);
         return stillValid;
     }
+
+    private void markUsed(Session session) {
+        session.getUserProperties().put(LAST_USED, System.currentTimeMillis());
+    }
+
+    private void scheduleRenewal(Session session, CachedSession cachedSession, Callable<CachedSession> renewal) {
+        long jitter = renewJitter > 0 ? ThreadLocalRandom.current().nextLong(renewJitter) : 0;
+        long now = System.currentTimeMillis();
+        long delay = cachedSession.getExpiresAt() - renewBefore - jitter - now;
+        if (delay <= 0) {
+            // too close to the expiration already, so, the next message will authenticate it again
+            return;
+        }
+
+        ScheduledFuture<?> scheduled = scheduler.schedule(() -> renew(session, cachedSession, renewal, now), delay,
+                TimeUnit.MILLISECONDS);
+        ScheduledFuture<?> previous = scheduledRenewals.put(session.getId(), scheduled);
+        if (null != previous) {
+            previous.cancel(false);
+        }
+    }
+
+    private void renew(Session session, CachedSession current, Callable<CachedSession> renewal, long scheduledAt) {
+        String sessionId = session.getId();
+        scheduledRenewals.remove(sessionId);
+        if (cachedSessions.peek(sessionId) != current) {
+            // the session was closed or authenticated again in the meantime
+            return;
+        }
+
+        Long lastUsed = (Long) session.getUserProperties().get(LAST_USED);
+        if (!session.isOpen() || null == lastUsed || lastUsed <= scheduledAt) {
+            // dropping the renewal also releases the credentials it holds
+            logger.sessionIdleNotRenewed(sessionId);
+            return;
+        }
+
+        try {
+            logger.renewingSession(sessionId);
+            CachedSession renewed = renewal.call();
+            if (renewed.getExpiresAt() <= current.getExpiresAt()) {
+                // no new token was issued, so, let the next message authenticate it again once it expires
+                logger.sessionNotExtended(sessionId);
+                return;
+            }
+
+            cachedSessions.put(sessionId, renewed, renewed.getExpiresAt());
+            scheduleRenewal(session, renewed, renewal);
+        } catch (Exception e) {
+            logger.couldNotRenewSession(sessionId, e);
+        }
+    }
+
+    private String getCredentialsDigest(String username, String password) {
+        if (null == username || username.isEmpty() || null == password || password.isEmpty()) {
+            return null;
+        }
+        return Digests.sha256(salt + username + ":" + password);
+    }
+
+    private static String generateSalt() {
+        byte[] salt = new byte[16];
+        new SecureRandom().nextBytes(salt);
+        return Base64.getEncoder().encodeToString(salt);
+    }
 }
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2015-2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.accounts.websocket;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.websocket.CloseReason;
+import javax.websocket.Session;
+
+import org.hawkular.accounts.api.PermissionChecker;
+import org.hawkular.accounts.api.ResourceService;
+import org.hawkular.accounts.api.model.Operation;
+import org.hawkular.accounts.api.model.Persona;
+import org.hawkular.accounts.api.model.Resource;
+import org.hawkular.accounts.websocket.internal.MsgLogger;
+import org.hawkular.accounts.websocket.internal.SendQueue;
+
+/**
+ * Sends messages to all registered sessions whose persona is allowed to perform a given operation on a resource.
+ * Sessions are grouped by persona, so that the permission is checked once per distinct persona for each message,
+ * instead of once per session.
+ * <p>
+ * Messages are sent asynchronously, via a queue for each session. Sessions that can't keep up with the messages, ie,
+ * that have more than {@code org.hawkular.accounts.websocket.broadcast.queue-size} (1000 by default) pending
+ * messages, are closed and unregistered.
+ * <p>
+ * Sessions are registered via {@link #register(Session)} once they have been authenticated by the
+ * {@link Authenticator} and should be unregistered via {@link #unregister(Session)} from the {@code @OnClose} and
+ * {@code @OnError} methods.
+ *
+ * @author Juraci Paixão Kröhling
+ */
+@ApplicationScoped
+public class Broadcaster {
+    MsgLogger logger = MsgLogger.LOGGER;
+
+    private static final String QUEUE_SIZE = "org.hawkular.accounts.websocket.broadcast.queue-size";
+
+    @Inject
+    PermissionChecker permissionChecker;
+
+    @Inject
+    ResourceService resourceService;
+
+    int maxQueueSize = Integer.parseInt(System.getProperty(QUEUE_SIZE, "1000"));
+
+    /**
+     * The send queues for the registered sessions, grouped by the persona ID.
+     */
+    private final Map<String, PersonaSessions> sessionsByPersona = new ConcurrentHashMap<>();
+
+    /**
+     * The persona ID for each registered session, keyed by the session ID.
+     */
+    private final Map<String, String> personaBySession = new ConcurrentHashMap<>();
+
+    private final LongAdder permissionChecks = new LongAdder();
+    private final LongAdder messagesQueued = new LongAdder();
+    private final LongAdder droppedSessions = new LongAdder();
+
+    /**
+     * Registers the session for broadcasts, using the persona bound to the session by
+     * {@link Authenticator#authenticateOnce(String, Session)} or {@link Authenticator#authenticateConnection(Session)}.
+     * @param session    the authenticated session
+     * @throws WebsocketAuthenticationException if there's no persona bound to the session
+     */
+    public void register(Session session) throws WebsocketAuthenticationException {
+        Persona persona = (Persona) session.getUserProperties().get(Authenticator.PERSONA);
+        if (null == persona) {
+            throw new WebsocketAuthenticationException("Session is not authenticated.");
+        }
+        register(session, persona);
+    }
+
+    /**
+     * Registers the session for broadcasts on behalf of the given persona. If the session was already registered for
+     * another persona, it's moved to the new persona.
+     * @param session    the session
+     * @param persona    the persona that the session is authenticated as
+     */
+    public void register(Session session, Persona persona) {
+        String previous = personaBySession.put(session.getId(), persona.getId());
+        if (null != previous && !previous.equals(persona.getId())) {
+            remove(previous, session.getId());
+        }
+
+        sessionsByPersona.compute(persona.getId(), (id, personaSessions) -> {
+            if (null == personaSessions) {
+                personaSessions = new PersonaSessions(persona);
+            }
+            personaSessions.queues.computeIfAbsent(session.getId(), sessionId -> new SendQueue(session, maxQueueSize));
+            return personaSessions;
+        });
+    }
+
+    /**
+     * Removes the session from the broadcasts, discarding the messages that are still pending for it.
+     * @param session    the session
+     */
+    public void unregister(Session session) {
+        String personaId = personaBySession.remove(session.getId());
+        if (null != personaId) {
+            remove(personaId, session.getId());
+        }
+    }
+
+    /**
+     * Queues the message to all sessions whose persona is allowed to perform the operation on the resource.
+     * @param message      the message to send
+     * @param operation    the operation that the persona should be allowed to perform
+     * @param resource     the resource the message is about
+     * @return the number of sessions the message was queued for
+     */
+    public int broadcast(String message, Operation operation, Resource resource) {
+        int queued = 0;
+        for (PersonaSessions personaSessions : sessionsByPersona.values()) {
+            if (personaSessions.queues.isEmpty()) {
+                continue;
+            }
+
+            permissionChecks.increment();
+            if (!permissionChecker.isAllowedTo(operation, resource, personaSessions.persona)) {
+                continue;
+            }
+
+            for (SendQueue queue : personaSessions.queues.values()) {
+                if (queue.offer(message)) {
+                    queued++;
+                } else {
+                    drop(queue);
+                }
+            }
+        }
+        messagesQueued.add(queued);
+        return queued;
+    }
+
+    /**
+     * Same as {@link #broadcast(String, Operation, Resource)}, with the resource referenced by its ID.
+     * @throws IllegalArgumentException if the resource doesn't exist
+     */
+    public int broadcast(String message, Operation operation, String resourceId) {
+        Resource resource = resourceService.get(resourceId);
+        if (null == resource) {
+            throw new IllegalArgumentException("The given resource ID is invalid: " + resourceId);
+        }
+        return broadcast(message, operation, resource);
+    }
+
+    /**
+     * @return the number of sessions registered for broadcasts
+     */
+    public int getSessionCount() {
+        return personaBySession.size();
+    }
+
+    /**
+     * @return the number of distinct personas with sessions registered for broadcasts
+     */
+    public int getPersonaCount() {
+        return sessionsByPersona.size();
+    }
+
+    public long getPermissionChecks() {
+        return permissionChecks.sum();
+    }
+
+    public long getMessagesQueued() {
+        return messagesQueued.sum();
+    }
+
+    /**
+     * @return the number of sessions that were closed for being too slow, or that failed to receive a message
+     */
+    public long getDroppedSessions() {
+        return droppedSessions.sum();
+    }
+
+    private void drop(SendQueue queue) {
+        // checked before unregistering the session, as that closes the queue
+        boolean failed = queue.isClosed();
+        Session session = queue.getSession();
+        unregister(session);
+        droppedSessions.increment();
+
+        if (failed) {
+            // sending a previous message has failed, so, the session is most likely closed already
+            return;
+        }
+
+        logger.slowConsumerDropped(session.getId(), maxQueueSize);
+        try {
+            session.close(new CloseReason(CloseReason.CloseCodes.TRY_AGAIN_LATER, "Too many pending messages."));
+        } catch (IOException e) {
+            logger.couldNotCloseSession(session.getId(), e);
+        }
+    }
+
+    private void remove(String personaId, String sessionId) {
+        sessionsByPersona.computeIfPresent(personaId, (id, personaSessions) -> {
+            SendQueue queue = personaSessions.queues.remove(sessionId);
+            if (null != queue) {
+                queue.close();
+            }
+            return personaSessions.queues.isEmpty() ? null : personaSessions;
+        });
+    }
+
+    private static class PersonaSessions {
+        private final Persona persona;
+        private final Map<String, SendQueue> queues = new ConcurrentHashMap<>();
+
+        PersonaSessions(Persona persona) {
+            this.persona = persona;
+        }
+    }
+}
@@ -26,9 +26,20 @@ public class CachedSession {
     private final String parsedToken;
     private final Persona persona;
     private long expiresAt;
+    private final String credentialsDigest;
 
     public CachedSession(String authToken, String parsedToken, Persona persona, long expiresAt) {
+        this(authToken, parsedToken, persona, expiresAt, null);
+    }
+
+    /**
+     * @param credentialsDigest    the digest of the credentials used to obtain the token, if this session was
+     *                             authenticated with credentials. Null otherwise.
+     */
+    public CachedSession(String authToken, String parsedToken, Persona persona, long expiresAt,
+                         String credentialsDigest) {
         this.authToken = authToken;
+        this.credentialsDigest = credentialsDigest;
         if (null == persona) {
             throw new IllegalStateException("Persona cannot be null for a session");
         }
@@ -61,4 +72,8 @@ public class CachedSession {
     public String getAuthToken() {
         return authToken;
     }
+
+    public String getCredentialsDigest() {
+        return credentialsDigest;
+    }
 }
@@ -17,6 +17,7 @@
 package org.hawkular.accounts.websocket.internal;
 
 import org.jboss.logging.Logger;
+import org.jboss.logging.annotations.Cause;
 import org.jboss.logging.annotations.LogMessage;
 import org.jboss.logging.annotations.Message;
 import org.jboss.logging.annotations.ValidIdRange;
@@ -63,4 +64,41 @@ public interface MsgLogger {
     @LogMessage(level = Logger.Level.TRACE)
     @Message(id = 120008, value = "Is the token still within the expiration timestamp (still valid)? [%b]")
     void isTokenStillValid(boolean stillValid);
+
+    @LogMessage(level = Logger.Level.TRACE)
+    @Message(id = 120009, value = "Session [%s] has been closed and was removed from the cache.")
+    void sessionRemovedFromCache(String sessionId);
+
+    @LogMessage(level = Logger.Level.TRACE)
+    @Message(id = 120010, value = "Renewing session [%s] in background.")
+    void renewingSession(String sessionId);
+
+    @LogMessage(level = Logger.Level.DEBUG)
+    @Message(id = 120011, value = "Renewal of session [%s] didn't extend its expiration. Not renewing it anymore.")
+    void sessionNotExtended(String sessionId);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 120012, value = "Could not renew session [%s] in background.")
+    void couldNotRenewSession(String sessionId, @Cause Throwable t);
+
+    @LogMessage(level = Logger.Level.TRACE)
+    @Message(id = 120013, value = "Session [%s] is now bound to persona [%s].")
+    void sessionBound(String sessionId, String personaId);
+
+    @LogMessage(level = Logger.Level.DEBUG)
+    @Message(id = 120014, value = "Could not send message to session [%s]. Not sending further messages to it.")
+    void couldNotSendMessage(String sessionId, @Cause Throwable t);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 120015, value = "Session [%s] has more than [%d] pending messages and is being disconnected.")
+    void slowConsumerDropped(String sessionId, int maxQueueSize);
+
+    @LogMessage(level = Logger.Level.DEBUG)
+    @Message(id = 120016, value = "Could not close the session [%s].")
+    void couldNotCloseSession(String sessionId, @Cause Throwable t);
+
+    @LogMessage(level = Logger.Level.DEBUG)
+    @Message(id = 120017, value = "Session [%s] is closed or has not been used since its last renewal. Not renewing " +
+            "it anymore.")
+    void sessionIdleNotRenewed(String sessionId);
 }
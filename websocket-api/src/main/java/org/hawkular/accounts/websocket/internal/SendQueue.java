@@ -0,0 +1,112 @@
+/*
+ * Copyright 2015-2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.accounts.websocket.internal;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+
+/**
+ * Queue of messages to be sent to a single session. Messages are sent asynchronously, one at a time, as the Web Socket
+ * API doesn't allow a new asynchronous message to be sent before the previous one has completed. The queue is
+ * bounded: {@link #offer(String)} returns false once the session has too many pending messages.
+ *
+ * @author Juraci Paixão Kröhling
+ */
+public class SendQueue {
+    private final Session session;
+    private final int maxSize;
+    private final Queue<String> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicBoolean sending = new AtomicBoolean();
+    private volatile boolean closed = false;
+
+    public SendQueue(Session session, int maxSize) {
+        this.session = session;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Adds the message to the queue, starting to send it right away if there's no message in flight for the session.
+     * @param message    the message to send
+     * @return false if the queue is full or closed, in which case the message is not queued
+     */
+    public boolean offer(String message) {
+        if (closed) {
+            return false;
+        }
+
+        if (size.incrementAndGet() > maxSize) {
+            size.decrementAndGet();
+            return false;
+        }
+
+        pending.add(message);
+        sendNext();
+        return true;
+    }
+
+    /**
+     * Discards the pending messages. Messages offered afterwards are rejected.
+     */
+    public void close() {
+        closed = true;
+        pending.clear();
+        size.set(0);
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public Session getSession() {
+        return session;
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    private void sendNext() {
+        while (!closed && !pending.isEmpty() && sending.compareAndSet(false, true)) {
+            String message = pending.poll();
+            if (null == message) {
+                // some other thread got the message before us, so, let it go and check again
+                sending.set(false);
+                continue;
+            }
+
+            size.decrementAndGet();
+            session.getAsyncRemote().sendText(message, this::onResult);
+            return;
+        }
+    }
+
+    private void onResult(SendResult result) {
+        sending.set(false);
+        if (!result.isOK()) {
+            MsgLogger.LOGGER.couldNotSendMessage(session.getId(), result.getException());
+            close();
+            return;
+        }
+        sendNext();
+    }
+}
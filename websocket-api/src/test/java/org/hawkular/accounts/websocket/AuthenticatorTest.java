@@ -0,0 +1,192 @@
+/*
+ * Copyright 2015-2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.accounts.websocket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyLong;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+import javax.websocket.Session;
+
+import org.hawkular.accounts.api.UserService;
+import org.hawkular.accounts.api.model.HawkularUser;
+import org.hawkular.accounts.common.TokenVerifier;
+import org.hawkular.accounts.common.UsernamePasswordConverter;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Juraci Paixão Kröhling
+ */
+public class AuthenticatorTest {
+    private static final String AUTHENTICATED = "{\"authentication\": {\"token\": \"abc\"}, \"message\": \"hello\"}";
+    private static final String ANONYMOUS = "{\"message\": \"hello\"}";
+
+    private final HawkularUser jdoe = new HawkularUser(UUID.randomUUID().toString());
+
+    private Authenticator authenticator;
+    private Session session;
+    private int verifications;
+    private int conversions;
+    private List<Runnable> renewals;
+    private List<Long> renewalDelays;
+    private ScheduledFuture<?> scheduledRenewal;
+
+    @Before
+    public void setup() {
+        verifications = 0;
+        conversions = 0;
+        renewals = new ArrayList<>();
+        renewalDelays = new ArrayList<>();
+        scheduledRenewal = mock(ScheduledFuture.class);
+
+        // each token expires a second after the previous one, so that a renewal always extends the session
+        long firstExpiration = System.currentTimeMillis() / 1000 + 60;
+        Map<String, Long> expirations = new HashMap<>();
+        authenticator = new Authenticator();
+        authenticator.renewBefore = 25000;
+        authenticator.renewJitter = 0;
+        authenticator.tokenVerifier = new TokenVerifier() {
+            @Override
+            public String verify(String token) throws Exception {
+                verifications++;
+                long exp = expirations.computeIfAbsent(token, t -> firstExpiration + expirations.size());
+                return "{\"active\": true, \"sub\": \"" + jdoe.getId() + "\", \"exp\": " + exp + "}";
+            }
+        };
+        authenticator.usernamePasswordConverter = new UsernamePasswordConverter() {
+            @Override
+            public String getAccessToken(String username, String password) throws Exception {
+                conversions++;
+                return "token-" + conversions;
+            }
+        };
+
+        authenticator.userService = mock(UserService.class);
+        when(authenticator.userService.getOrCreateById(anyString())).thenReturn(jdoe);
+
+        authenticator.scheduler = mock(ManagedScheduledExecutorService.class);
+        when(authenticator.scheduler.schedule(any(Runnable.class), anyLong(), any(TimeUnit.class)))
+                .thenAnswer(invocation -> {
+                    renewals.add((Runnable) invocation.getArguments()[0]);
+                    renewalDelays.add((Long) invocation.getArguments()[1]);
+                    return scheduledRenewal;
+                });
+
+        session = mock(Session.class);
+        when(session.getId()).thenReturn("session");
+        when(session.getUserProperties()).thenReturn(new HashMap<>());
+        when(session.isOpen()).thenReturn(true);
+    }
+
+    @Test
+    public void cachedSessionIsReusedUntilClosed() throws Exception {
+        authenticator.authenticateWithToken("abc", null, session);
+        authenticator.authenticateWithToken("abc", null, session);
+        assertEquals("The cached session should have been used", 1, verifications);
+        assertEquals(1, authenticator.getCachedSessions().size());
+
+        authenticator.sessionClosed(session);
+        assertEquals(0, authenticator.getCachedSessions().size());
+
+        authenticator.authenticateWithToken("abc", null, session);
+        assertEquals("The token should have been verified again", 2, verifications);
+    }
+
+    @Test
+    public void personaIsBoundToTheSession() throws Exception {
+        AuthenticatedMessage first = authenticator.authenticateOnce(AUTHENTICATED, session);
+        assertSame(jdoe, first.getPersona());
+        assertSame(jdoe, session.getUserProperties().get(Authenticator.PERSONA));
+
+        AuthenticatedMessage second = authenticator.authenticateOnce(ANONYMOUS, session);
+        assertSame(jdoe, second.getPersona());
+        assertEquals("The bound session should not be verified again", 1, verifications);
+    }
+
+    @Test(expected = WebsocketAuthenticationException.class)
+    public void closedSessionIsNotBoundAnymore() throws Exception {
+        authenticator.authenticateOnce(AUTHENTICATED, session);
+        authenticator.sessionClosed(session);
+        assertNull(session.getUserProperties().get(Authenticator.PERSONA));
+
+        authenticator.authenticateOnce(ANONYMOUS, session);
+    }
+
+    @Test
+    public void renewalIsScheduledBeforeExpiration() throws Exception {
+        authenticator.authenticateWithCredentials("jdoe", "secret", null, session);
+        assertEquals(1, renewals.size());
+
+        // the token expires within 59 and 60 seconds from now, and should be renewed 25 seconds before that
+        long delay = renewalDelays.get(0);
+        assertTrue("Unexpected delay: " + delay, delay > 33000 && delay <= 35000);
+    }
+
+    @Test
+    public void sessionsAuthenticatedWithTokensAreNotRenewed() throws Exception {
+        authenticator.authenticateWithToken("abc", null, session);
+        assertEquals(0, renewals.size());
+    }
+
+    @Test
+    public void renewalIsCancelledWhenSessionIsClosed() throws Exception {
+        authenticator.authenticateWithCredentials("jdoe", "secret", null, session);
+        authenticator.sessionClosed(session);
+        verify(scheduledRenewal).cancel(false);
+    }
+
+    @Test
+    public void usedSessionIsRenewed() throws Exception {
+        authenticator.authenticateWithCredentials("jdoe", "secret", null, session);
+        Thread.sleep(5);
+        authenticator.authenticateWithCredentials("jdoe", "secret", null, session);
+        assertEquals("The cached session should have been used", 1, conversions);
+
+        renewals.get(0).run();
+        assertEquals(2, conversions);
+        assertEquals("The next renewal should have been scheduled", 2, renewals.size());
+
+        authenticator.authenticateWithCredentials("jdoe", "secret", null, session);
+        assertEquals("The renewed session should have been used", 2, verifications);
+    }
+
+    @Test
+    public void idleSessionIsNotRenewed() throws Exception {
+        authenticator.authenticateWithCredentials("jdoe", "secret", null, session);
+
+        renewals.get(0).run();
+        assertEquals(1, conversions);
+        assertEquals(1, renewals.size());
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2015-2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.accounts.websocket;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.websocket.CloseReason;
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.SendHandler;
+import javax.websocket.Session;
+
+import org.hawkular.accounts.api.PermissionChecker;
+import org.hawkular.accounts.api.model.HawkularUser;
+import org.hawkular.accounts.api.model.Operation;
+import org.hawkular.accounts.api.model.Persona;
+import org.hawkular.accounts.api.model.Resource;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Juraci Paixão Kröhling
+ */
+public class BroadcasterTest {
+    private final Operation operation = new Operation("metric-read");
+    private final HawkularUser jdoe = new HawkularUser(UUID.randomUUID().toString());
+    private final Resource resource = new Resource(UUID.randomUUID().toString(), jdoe);
+
+    private Broadcaster broadcaster;
+    private AtomicInteger permissionChecks;
+    private List<CloseReason> closeReasons;
+
+    @Before
+    public void setup() {
+        permissionChecks = new AtomicInteger();
+        closeReasons = new ArrayList<>();
+
+        PermissionChecker permissionChecker = mock(PermissionChecker.class);
+        when(permissionChecker.isAllowedTo(any(Operation.class), any(Resource.class), any(Persona.class)))
+                .thenAnswer(invocation -> {
+                    permissionChecks.incrementAndGet();
+                    return true;
+                });
+
+        broadcaster = new Broadcaster();
+        broadcaster.permissionChecker = permissionChecker;
+        broadcaster.maxQueueSize = 1;
+    }
+
+    @Test
+    public void permissionIsCheckedOncePerPersona() {
+        broadcaster.register(session("first"), jdoe);
+        broadcaster.register(session("second"), jdoe);
+
+        assertEquals(2, broadcaster.broadcast("hello", operation, resource));
+        assertEquals(1, permissionChecks.get());
+        assertEquals(1, broadcaster.getPersonaCount());
+    }
+
+    @Test
+    public void sessionIsRegisteredForTheBoundPersona() throws Exception {
+        Session session = session("bound");
+        session.getUserProperties().put(Authenticator.PERSONA, jdoe);
+        broadcaster.register(session);
+
+        assertEquals(1, broadcaster.getSessionCount());
+        assertEquals(1, broadcaster.broadcast("hello", operation, resource));
+    }
+
+    @Test(expected = WebsocketAuthenticationException.class)
+    public void sessionWithoutPersonaIsNotRegistered() throws Exception {
+        broadcaster.register(session("anonymous"));
+    }
+
+    @Test
+    public void slowSessionIsClosed() {
+        broadcaster.register(session("slow"), jdoe);
+
+        // the first message is in flight and the second one fills the queue
+        assertEquals(1, broadcaster.broadcast("first", operation, resource));
+        assertEquals(1, broadcaster.broadcast("second", operation, resource));
+        assertEquals(0, broadcaster.broadcast("third", operation, resource));
+
+        assertEquals(1, closeReasons.size());
+        assertEquals(CloseReason.CloseCodes.TRY_AGAIN_LATER, closeReasons.get(0).getCloseCode());
+        assertEquals(1, broadcaster.getDroppedSessions());
+        assertEquals(0, broadcaster.getSessionCount());
+        assertEquals(0, broadcaster.broadcast("fourth", operation, resource));
+    }
+
+    @Test
+    public void unregisteredSessionReceivesNothing() {
+        Session session = session("gone");
+        broadcaster.register(session, jdoe);
+        broadcaster.unregister(session);
+
+        assertEquals(0, broadcaster.broadcast("hello", operation, resource));
+        assertEquals(0, broadcaster.getPersonaCount());
+    }
+
+    /**
+     * @return a session whose client never acknowledges the messages it receives
+     */
+    private Session session(String id) {
+        Session session = mock(Session.class);
+        when(session.getId()).thenReturn(id);
+        when(session.getUserProperties()).thenReturn(new HashMap<>());
+        when(session.getAsyncRemote()).thenReturn(mock(RemoteEndpoint.Async.class));
+        try {
+            doAnswer(invocation -> closeReasons.add((CloseReason) invocation.getArguments()[0]))
+                    .when(session).close(any(CloseReason.class));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        return session;
+    }
+}
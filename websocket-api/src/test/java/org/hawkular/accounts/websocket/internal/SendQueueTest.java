@@ -0,0 +1,103 @@
+/*
+ * Copyright 2015-2016 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.accounts.websocket.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Juraci Paixão Kröhling
+ */
+public class SendQueueTest {
+    private Session session;
+    private List<String> sent;
+    private List<SendHandler> handlers;
+
+    @Before
+    public void setup() {
+        sent = new ArrayList<>();
+        handlers = new ArrayList<>();
+
+        // the messages are never completed on their own, so that the tests decide when the client catches up
+        RemoteEndpoint.Async remote = mock(RemoteEndpoint.Async.class);
+        doAnswer(invocation -> {
+            sent.add((String) invocation.getArguments()[0]);
+            handlers.add((SendHandler) invocation.getArguments()[1]);
+            return null;
+        }).when(remote).sendText(any(String.class), any(SendHandler.class));
+
+        session = mock(Session.class);
+        when(session.getId()).thenReturn("session");
+        when(session.getAsyncRemote()).thenReturn(remote);
+    }
+
+    @Test
+    public void messagesAreSentOneAtATime() {
+        SendQueue queue = new SendQueue(session, 10);
+        assertTrue(queue.offer("first"));
+        assertTrue(queue.offer("second"));
+        assertEquals("The second message should wait for the first one", 1, sent.size());
+        assertEquals(1, queue.size());
+
+        handlers.get(0).onResult(new SendResult());
+        assertEquals(2, sent.size());
+        assertEquals("second", sent.get(1));
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void fullQueueRejectsMessages() {
+        SendQueue queue = new SendQueue(session, 2);
+        assertTrue("The first message is sent right away", queue.offer("first"));
+        assertTrue(queue.offer("second"));
+        assertTrue(queue.offer("third"));
+        assertFalse("The queue should be full", queue.offer("fourth"));
+        assertFalse("A full queue is not closed", queue.isClosed());
+
+        handlers.get(0).onResult(new SendResult());
+        assertTrue("There should be room again once the client catches up", queue.offer("fifth"));
+    }
+
+    @Test
+    public void failedMessageClosesTheQueue() {
+        SendQueue queue = new SendQueue(session, 10);
+        queue.offer("first");
+        queue.offer("second");
+
+        handlers.get(0).onResult(new SendResult(new IllegalStateException("Connection closed")));
+        assertTrue(queue.isClosed());
+        assertEquals("The pending messages should have been discarded", 0, queue.size());
+        assertEquals(1, sent.size());
+        assertFalse(queue.offer("third"));
+    }
+}